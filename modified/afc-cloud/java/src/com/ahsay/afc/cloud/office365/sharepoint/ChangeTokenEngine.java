@@ -0,0 +1,455 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.Change;
+import com.independentsoft.share.ChangeItem;
+import com.independentsoft.share.ChangeList;
+import com.independentsoft.share.ChangeQuery;
+import com.independentsoft.share.ChangeToken;
+import com.independentsoft.share.ChangeType;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Change token driven delta detection for incremental backup. The last change token is kept per
+ *              site collection and per list, the change log is paged from that token and the changes are
+ *              coalesced into the minimal set of items to refetch or remove.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-23 23626  jefferson.brigino Created
+ * 2019-11-05 23626  jefferson.brigino Invalidate the list metadata cache of the lists with schema changes
+ * 2019-11-15 23626  jefferson.brigino Commit the site token read before the backup, check token expiry by status
+ * 2019-11-15 23626  jefferson.brigino Drop the cached list schemas of the site when the token is missing or expired
+ */
+public class ChangeTokenEngine {
+
+    public static final int DEFAULT_FETCH_LIMIT = 1000;
+
+    public interface TokenStore {
+
+        String getToken(String sKey);
+
+        void setToken(String sKey, String sToken) throws IOException;
+
+        void removeToken(String sKey) throws IOException;
+    }
+
+    public static class MemoryTokenStore implements TokenStore {
+
+        private final Map<String, String> mToken = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+        @Override
+        public String getToken(String sKey) {
+            return mToken.get(sKey);
+        }
+
+        @Override
+        public void setToken(String sKey, String sToken) {
+            mToken.put(sKey, sToken);
+        }
+
+        @Override
+        public void removeToken(String sKey) {
+            mToken.remove(sKey);
+        }
+    }
+
+    public static class FileTokenStore implements TokenStore {
+
+        private final File file;
+        private final Properties properties = new Properties();
+
+        public FileTokenStore(File file) throws IOException {
+            this.file = file;
+            if (file.exists()) {
+                InputStream is = new FileInputStream(file);
+                try {
+                    properties.load(is);
+                } finally {
+                    is.close();
+                }
+            }
+        }
+
+        @Override
+        public synchronized String getToken(String sKey) {
+            return properties.getProperty(sKey);
+        }
+
+        @Override
+        public synchronized void setToken(String sKey, String sToken) throws IOException {
+            properties.setProperty(sKey, sToken);
+            save();
+        }
+
+        @Override
+        public synchronized void removeToken(String sKey) throws IOException {
+            if (properties.remove(sKey) != null) {
+                save();
+            }
+        }
+
+        private void save() throws IOException {
+            // write to a temp file first so that a crash does not leave a truncated store
+            File tmpFile = new File(file.getPath() + ".tmp");
+            OutputStream os = new FileOutputStream(tmpFile);
+            try {
+                properties.store(os, null);
+            } finally {
+                os.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to replace " + file.getPath());
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile.getPath() + " to " + file.getPath());
+            }
+        }
+    }
+
+    public static class ListDelta {
+
+        private final String sListId;
+        private final boolean bFullEnumeration;
+        private final Set<Integer> changedItemIds = new TreeSet<Integer>();
+        private final Set<Integer> deletedItemIds = new TreeSet<Integer>();
+        private int iChangeCount;
+        private String sNextToken;
+
+        private ListDelta(String sListId, boolean bFullEnumeration) {
+            this.sListId = sListId;
+            this.bFullEnumeration = bFullEnumeration;
+        }
+
+        public String getListId() {
+            return sListId;
+        }
+
+        /**
+         * @return true if there is no valid token and the whole list must be enumerated
+         */
+        public boolean isFullEnumeration() {
+            return bFullEnumeration;
+        }
+
+        /**
+         * @return ids of the items added, updated, renamed or restored since the last token
+         */
+        public Set<Integer> getChangedItemIds() {
+            return changedItemIds;
+        }
+
+        /**
+         * @return ids of the items deleted since the last token which existed before the last token
+         */
+        public Set<Integer> getDeletedItemIds() {
+            return deletedItemIds;
+        }
+
+        /**
+         * @return number of raw change log entries read
+         */
+        public int getChangeCount() {
+            return iChangeCount;
+        }
+
+        public boolean hasChanges() {
+            return bFullEnumeration || !changedItemIds.isEmpty() || !deletedItemIds.isEmpty();
+        }
+    }
+
+    public static class Statistics {
+
+        private long lListSkipped;
+        private long lListIncremental;
+        private long lListFull;
+        private long lItemRefetched;
+        private long lItemSkipped;
+        private long lChangeRead;
+
+        /**
+         * @return number of lists without any change since the last token
+         */
+        public synchronized long getListSkipped() {
+            return lListSkipped;
+        }
+
+        public synchronized long getListIncremental() {
+            return lListIncremental;
+        }
+
+        public synchronized long getListFull() {
+            return lListFull;
+        }
+
+        public synchronized long getItemRefetched() {
+            return lItemRefetched;
+        }
+
+        /**
+         * @return number of items not refetched because they are unchanged since the last token
+         */
+        public synchronized long getItemSkipped() {
+            return lItemSkipped;
+        }
+
+        public synchronized long getChangeRead() {
+            return lChangeRead;
+        }
+
+        private synchronized void add(ListDelta delta, int iItemCount) {
+            lChangeRead += delta.getChangeCount();
+            if (delta.isFullEnumeration()) {
+                lListFull++;
+                lItemRefetched += iItemCount;
+                return;
+            }
+            if (!delta.hasChanges()) {
+                lListSkipped++;
+            } else {
+                lListIncremental++;
+            }
+            int iRefetch = delta.getChangedItemIds().size();
+            lItemRefetched += iRefetch;
+            lItemSkipped += Math.max(0, iItemCount - iRefetch);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Statistics{" +
+                    "listSkipped=" + lListSkipped +
+                    ", listIncremental=" + lListIncremental +
+                    ", listFull=" + lListFull +
+                    ", itemRefetched=" + lItemRefetched +
+                    ", itemSkipped=" + lItemSkipped +
+                    ", changeRead=" + lChangeRead +
+                    '}';
+        }
+    }
+
+    private final Service service;
+    private final String sSiteUrl;
+    private final TokenStore tokenStore;
+    private final Statistics statistics = new Statistics();
+    private int iFetchLimit = DEFAULT_FETCH_LIMIT;
+    // the site token to commit, read by getChangedListIds() before the backup
+    private volatile String sPendingSiteToken;
+
+    public ChangeTokenEngine(Service service, String sSiteUrl, TokenStore tokenStore) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (tokenStore == null) {
+            throw new IllegalArgumentException("tokenStore");
+        }
+        this.service = service;
+        this.sSiteUrl = sSiteUrl;
+        this.tokenStore = tokenStore;
+    }
+
+    public void setFetchLimit(int iFetchLimit) {
+        if (iFetchLimit <= 0) {
+            throw new IllegalArgumentException("The parameter fetchLimit must be positive.");
+        }
+        this.iFetchLimit = iFetchLimit;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the ids of the lists changed in the site collection since the last token. It must be called before the
+     * backup starts, the token committed by {@link #commitSite()} is the one read here, so the changes made during
+     * the backup are reported again next time.
+     *
+     * @return the changed list ids, or null if there is no valid token and all lists must be checked
+     * @throws ServiceException the service exception
+     */
+    public Set<String> getChangedListIds() throws ServiceException {
+        String sKey = getSiteKey();
+        String sToken = tokenStore.getToken(sKey);
+        if (sToken == null) {
+            sPendingSiteToken = service.getCurrentChangeToken(sSiteUrl);
+            // the changes since the cached definitions are unknown
+            service.invalidateListMetadata(sSiteUrl);
+            return null;
+        }
+
+        Set<String> changedListIds = new HashSet<String>();
+        try {
+            while (true) {
+                ChangeQuery query = getChangeQuery(sToken);
+                query.setList(true);
+                List<Change> changes = service.getSiteCollectionChanges(sSiteUrl, query);
+                if (changes == null || changes.isEmpty()) {
+                    break;
+                }
+                for (Change change : changes) {
+                    if (change instanceof ChangeItem) {
+                        changedListIds.add(normalizeId(((ChangeItem) change).getListId()));
+                    } else if (change instanceof ChangeList) {
+                        String sListId = normalizeId(((ChangeList) change).getListId());
+                        changedListIds.add(sListId);
+                        // the list itself is changed, e.g. a field is added, the cached definition is outdated
+                        service.invalidateListMetadata(sSiteUrl, sListId);
+                    }
+                }
+                sToken = changes.get(changes.size() - 1).getChangeToken().getStringValue();
+                if (changes.size() < iFetchLimit) {
+                    break;
+                }
+            }
+        } catch (ServiceException e) {
+            if (isTokenExpired(e)) {
+                sPendingSiteToken = service.getCurrentChangeToken(sSiteUrl);
+                service.invalidateListMetadata(sSiteUrl);
+                return null;
+            }
+            throw e;
+        }
+        // the last token of the change log read, not the current one, which may be after changes not read yet
+        sPendingSiteToken = sToken;
+        return changedListIds;
+    }
+
+    /**
+     * Commits the site collection token read by {@link #getChangedListIds()} once all lists reported by it are
+     * backed up.
+     *
+     * @throws IOException if the token store fails
+     */
+    public void commitSite() throws IOException {
+        String sToken = sPendingSiteToken;
+        if (sToken == null) {
+            throw new IllegalStateException("getChangedListIds() is not called before commitSite()");
+        }
+        tokenStore.setToken(getSiteKey(), sToken);
+        sPendingSiteToken = null;
+    }
+
+    /**
+     * Gets the items to refetch since the last token of the list. The token is not advanced until
+     * {@link #commitList(ListDelta)} is called, so a failed backup will see the same changes again.
+     *
+     * @param sListId    the list id
+     * @param iItemCount the current item count of the list, for statistics
+     * @return the list delta
+     * @throws ServiceException the service exception
+     */
+    public ListDelta getListDelta(String sListId, int iItemCount) throws ServiceException {
+        String sToken = tokenStore.getToken(getListKey(sListId));
+        ListDelta delta = null;
+        if (sToken != null) {
+            try {
+                delta = readListDelta(sListId, sToken);
+            } catch (ServiceException e) {
+                if (!isTokenExpired(e)) {
+                    throw e;
+                }
+            }
+        }
+        if (delta == null) {
+            // no token or token expired, fall back to full enumeration from the current token
+            delta = new ListDelta(sListId, true);
+            delta.sNextToken = service.getCurrentChangeToken(sSiteUrl, sListId);
+        }
+        statistics.add(delta, iItemCount);
+        return delta;
+    }
+
+    public void commitList(ListDelta delta) throws IOException {
+        if (delta.sNextToken != null) {
+            tokenStore.setToken(getListKey(delta.getListId()), delta.sNextToken);
+        }
+    }
+
+    private ListDelta readListDelta(String sListId, String sToken) throws ServiceException {
+        ListDelta delta = new ListDelta(sListId, false);
+        // ids added after the token, a later delete of these items needs no action
+        Set<Integer> addedItemIds = new HashSet<Integer>();
+        while (true) {
+            ChangeQuery query = getChangeQuery(sToken);
+            List<Change> changes = service.getChanges(sSiteUrl, query, sListId);
+            if (changes == null || changes.isEmpty()) {
+                break;
+            }
+            for (Change change : changes) {
+                delta.iChangeCount++;
+                if (!(change instanceof ChangeItem)) {
+                    continue;
+                }
+                Integer itemId = ((ChangeItem) change).getItemId();
+                ChangeType type = change.getChangeType();
+                if (type == ChangeType.DELETE_OBJECT) {
+                    delta.changedItemIds.remove(itemId);
+                    if (!addedItemIds.remove(itemId)) {
+                        delta.deletedItemIds.add(itemId);
+                    }
+                } else {
+                    if (type == ChangeType.ADD && !delta.deletedItemIds.contains(itemId)) {
+                        addedItemIds.add(itemId);
+                    }
+                    delta.changedItemIds.add(itemId);
+                }
+            }
+            sToken = changes.get(changes.size() - 1).getChangeToken().getStringValue();
+            if (changes.size() < iFetchLimit) {
+                break;
+            }
+        }
+        delta.sNextToken = sToken;
+        return delta;
+    }
+
+    private ChangeQuery getChangeQuery(String sToken) {
+        ChangeQuery query = new ChangeQuery();
+        query.setItem(true);
+        query.setAdd(true);
+        query.setUpdate(true);
+        query.setDeleteObject(true);
+        query.setRename(true);
+        query.setRestore(true);
+        query.setChangeTokenStart(new ChangeToken(sToken));
+        query.setFetchLimit(iFetchLimit);
+        return query;
+    }
+
+    private boolean isTokenExpired(ServiceException e) {
+        // the change log is trimmed after the retention period, the server rejects tokens older than that with 400
+        // and an error response. The query is built here, so the token is the only argument it can reject, and a
+        // false positive only costs a full enumeration.
+        return e.getStatusCode() == 400 && e.hasErrorResponse();
+    }
+
+    private String getSiteKey() {
+        return sSiteUrl;
+    }
+
+    private String getListKey(String sListId) {
+        return sSiteUrl + "|" + normalizeId(sListId);
+    }
+
+    private static String normalizeId(String sId) {
+        return sId == null ? null : sId.toLowerCase();
+    }
+}
@@ -0,0 +1,247 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.ListItem;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+import com.independentsoft.share.queryoptions.IFilterRestriction;
+import com.independentsoft.share.queryoptions.IQueryOption;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Enumerate list items by splitting the item Id span into ranges and fetching the ranges concurrently
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-21 23626  jefferson.brigino Created
+ */
+public class ListItemRangeEnumerator {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_RANGE_PAGES = 2;
+
+    public interface Listener {
+
+        /**
+         * Called on the thread that invoked {@link #enumerate(Listener)} for every page of items fetched.
+         *
+         * @param listItems the page of list items
+         * @throws Exception to stop the enumeration
+         */
+        void onListItems(List<ListItem> listItems) throws Exception;
+    }
+
+    private final Service service;
+    private final String sSiteUrl;
+    private final String sListId;
+    private final List<IQueryOption> queryOptions;
+
+    private int iPageSize = Constant.DEFAULT_RETURN_ITEM;
+    private int iThreads = DEFAULT_THREADS;
+    private int iRangePages = DEFAULT_RANGE_PAGES;
+    private boolean bOrdered = true;
+
+    /**
+     * @param service      the service
+     * @param sSiteUrl     the site url
+     * @param sListId      the list id
+     * @param queryOptions the expand / select options for every page, e.g. SharePointQueryUtils.ListItem.getOption(list, mode)
+     */
+    public ListItemRangeEnumerator(Service service, String sSiteUrl, String sListId, List<IQueryOption> queryOptions) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (sListId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        this.service = service;
+        this.sSiteUrl = sSiteUrl;
+        this.sListId = sListId;
+        this.queryOptions = queryOptions != null ? queryOptions : new ArrayList<IQueryOption>();
+    }
+
+    public int getPageSize() {
+        return iPageSize;
+    }
+
+    public void setPageSize(int iPageSize) {
+        if (iPageSize <= 0) {
+            throw new IllegalArgumentException("The parameter pageSize must be positive.");
+        }
+        this.iPageSize = iPageSize;
+    }
+
+    public int getThreads() {
+        return iThreads;
+    }
+
+    public void setThreads(int iThreads) {
+        if (iThreads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.iThreads = iThreads;
+    }
+
+    /**
+     * @return number of pages covered by one Id range
+     */
+    public int getRangePages() {
+        return iRangePages;
+    }
+
+    public void setRangePages(int iRangePages) {
+        if (iRangePages <= 0) {
+            throw new IllegalArgumentException("The parameter rangePages must be positive.");
+        }
+        this.iRangePages = iRangePages;
+    }
+
+    public boolean isOrdered() {
+        return bOrdered;
+    }
+
+    /**
+     * @param bOrdered true to emit the items in ascending Id order, false to emit each range as soon as it completes
+     */
+    public void setOrdered(boolean bOrdered) {
+        this.bOrdered = bOrdered;
+    }
+
+    public void enumerate(Listener listener) throws Exception {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+
+        int iMinId = getBoundaryId(SharePointQueryUtils.ListItem.getMinIdOption());
+        if (iMinId < 0) {
+            // empty list
+            return;
+        }
+        int iMaxId = getBoundaryId(SharePointQueryUtils.ListItem.getMaxIdOption());
+        if (iMaxId < iMinId) {
+            return;
+        }
+
+        // Ids are not continuous after deletion, so the range only bounds the number of items returned
+        long lRangeSize = (long) iPageSize * iRangePages;
+        LinkedList<long[]> llRange = new LinkedList<long[]>();
+        for (long lStart = iMinId; lStart <= iMaxId; lStart += lRangeSize) {
+            llRange.add(new long[]{lStart, Math.min(lStart + lRangeSize - 1, iMaxId)});
+        }
+
+        // keep a small window of ranges in flight so that buffered pages stay bounded
+        int iWindow = iThreads + 1;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(iThreads, llRange.size()));
+        try {
+            if (bOrdered) {
+                enumerateOrdered(executor, llRange, iWindow, listener);
+            } else {
+                enumerateUnordered(executor, llRange, iWindow, listener);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void enumerateOrdered(ExecutorService executor, LinkedList<long[]> llRange, int iWindow, Listener listener)
+            throws Exception {
+        LinkedList<Future<List<List<ListItem>>>> llFuture = new LinkedList<Future<List<List<ListItem>>>>();
+        while (!llRange.isEmpty() || !llFuture.isEmpty()) {
+            while (!llRange.isEmpty() && llFuture.size() < iWindow) {
+                long[] aRange = llRange.removeFirst();
+                llFuture.add(executor.submit(new RangeTask(aRange[0], aRange[1])));
+            }
+            List<List<ListItem>> alPage = getResult(llFuture.removeFirst());
+            for (List<ListItem> page : alPage) {
+                listener.onListItems(page);
+            }
+        }
+    }
+
+    private void enumerateUnordered(ExecutorService executor, LinkedList<long[]> llRange, int iWindow, Listener listener)
+            throws Exception {
+        CompletionService<List<List<ListItem>>> completionService = new ExecutorCompletionService<List<List<ListItem>>>(executor);
+        int iPending = 0;
+        while (!llRange.isEmpty() || iPending > 0) {
+            while (!llRange.isEmpty() && iPending < iWindow) {
+                long[] aRange = llRange.removeFirst();
+                completionService.submit(new RangeTask(aRange[0], aRange[1]));
+                iPending++;
+            }
+            List<List<ListItem>> alPage = getResult(completionService.take());
+            iPending--;
+            for (List<ListItem> page : alPage) {
+                listener.onListItems(page);
+            }
+        }
+    }
+
+    private List<List<ListItem>> getResult(Future<List<List<ListItem>>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            }
+            throw new ServiceException(t.getMessage(), t);
+        }
+    }
+
+    private int getBoundaryId(ArrayList<IQueryOption> boundaryOptions) throws ServiceException {
+        boundaryOptions.add(SharePointQueryUtils.ListItem.getIdSelectOption());
+        List<ListItem> listItems = service.getListItems(sSiteUrl, sListId, boundaryOptions);
+        if (listItems == null || listItems.isEmpty()) {
+            return -1;
+        }
+        return listItems.get(0).getId();
+    }
+
+    private class RangeTask implements Callable<List<List<ListItem>>> {
+
+        private final long lFirstId;
+        private final long lLastId;
+
+        private RangeTask(long lFirstId, long lLastId) {
+            this.lFirstId = lFirstId;
+            this.lLastId = lLastId;
+        }
+
+        @Override
+        public List<List<ListItem>> call() throws Exception {
+            List<List<ListItem>> alPage = new ArrayList<List<ListItem>>();
+            int iLastItemId = (int) lFirstId - 1;
+            while (!Thread.currentThread().isInterrupted()) {
+                ArrayList<IFilterRestriction> alRestriction = new ArrayList<IFilterRestriction>();
+                // lFirstId - 1 < Id < lLastId + 1
+                alRestriction.add(SharePointQueryUtils.ListItem.getIdRangeRestriction(lFirstId - 1, lLastId + 1));
+                ArrayList<IQueryOption> pageOptions = new ArrayList<IQueryOption>(queryOptions);
+                pageOptions.addAll(SharePointQueryUtils.ListItem.getPaginationOption(iLastItemId, iPageSize, alRestriction));
+
+                List<ListItem> listItems = service.getListItems(sSiteUrl, sListId, pageOptions);
+                if (listItems == null || listItems.isEmpty()) {
+                    break;
+                }
+                alPage.add(listItems);
+                if (listItems.size() < iPageSize) {
+                    break;
+                }
+                iLastItemId = listItems.get(listItems.size() - 1).getId();
+            }
+            return alPage;
+        }
+    }
+}
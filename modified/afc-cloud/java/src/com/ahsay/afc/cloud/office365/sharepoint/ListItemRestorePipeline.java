@@ -0,0 +1,306 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.BatchRequest;
+import com.independentsoft.share.FieldValue;
+import com.independentsoft.share.ListItem;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+import com.independentsoft.share.ServiceResponseUtil;
+import com.independentsoft.share.queryoptions.IQueryOption;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Restore list items by batch. Items are collected into batches, each batch is created in one $batch
+ *              call, then the fields which can only be set after creation (FileSystemObjectType of folders) are
+ *              merged in a second call and the folders are refetched in a third call, instead of 2-3 round trips
+ *              per item. The number of batches in flight is bounded, add() blocks when the limit is reached.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-26 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Read the refetched item from its batch part
+ * 2019-11-15 23626  jefferson.brigino Wait for the in flight limit and the executor without holding the lock
+ */
+public class ListItemRestorePipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = BatchRequest.MAX_CHANGESET_SIZE;
+    public static final int DEFAULT_THREADS = 2;
+
+    public interface Listener {
+
+        /**
+         * Called on a worker thread when an item is restored.
+         *
+         * @param source   the list item from backup
+         * @param restored the list item created
+         */
+        void onRestored(ListItem source, ListItem restored);
+
+        /**
+         * Called on a worker thread when an item fails to restore.
+         *
+         * @param source the list item from backup
+         * @param e      the error
+         */
+        void onFailed(ListItem source, ServiceException e);
+    }
+
+    private static class Entry {
+
+        private final ListItem listItem;
+        private final Map<String, FieldValue> mFieldValue;
+        private ServiceResponseUtil.ListItemHandler createHandler;
+        private BatchRequest.Part createPart;
+        private ListItem restored;
+        private ServiceException exception;
+
+        private Entry(ListItem listItem, Map<String, FieldValue> mFieldValue) {
+            this.listItem = listItem;
+            this.mFieldValue = mFieldValue;
+        }
+    }
+
+    private final Service service;
+    private final String sSiteUrl;
+    private final com.independentsoft.share.List list;
+    private final List<IQueryOption> queryOptions;
+    private final Listener listener;
+    private final int iBatchSize;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+    private List<Entry> alEntry;
+    private boolean bClosed;
+    // number of batches taken but not yet submitted to the executor
+    private int iSubmitting;
+
+    /**
+     * @param service      the service
+     * @param sSiteUrl     the site url
+     * @param list         the list to restore to
+     * @param queryOptions the query options to refetch folders, may be null
+     * @param listener     the listener of results
+     * @param iBatchSize   number of items per batch, at most 100
+     * @param iThreads     number of batches sent concurrently, also the number of batches waiting to be sent
+     */
+    public ListItemRestorePipeline(Service service, String sSiteUrl, com.independentsoft.share.List list,
+                                   List<IQueryOption> queryOptions, Listener listener, int iBatchSize, int iThreads) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (list == null) {
+            throw new IllegalArgumentException("list");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+        if (iBatchSize <= 0 || iBatchSize > BatchRequest.MAX_CHANGESET_SIZE) {
+            throw new IllegalArgumentException("The parameter batchSize must be between 1 and " + BatchRequest.MAX_CHANGESET_SIZE + ".");
+        }
+        if (iThreads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.service = service;
+        this.sSiteUrl = sSiteUrl;
+        this.list = list;
+        this.queryOptions = queryOptions;
+        this.listener = listener;
+        this.iBatchSize = iBatchSize;
+        this.executor = Executors.newFixedThreadPool(iThreads);
+        // batches being sent plus batches queued
+        this.inFlight = new Semaphore(iThreads * 2);
+        this.alEntry = new ArrayList<Entry>(iBatchSize);
+    }
+
+    public ListItemRestorePipeline(Service service, String sSiteUrl, com.independentsoft.share.List list,
+                                   List<IQueryOption> queryOptions, Listener listener) {
+        this(service, sSiteUrl, list, queryOptions, listener, DEFAULT_BATCH_SIZE, DEFAULT_THREADS);
+    }
+
+    /**
+     * Adds an item to restore. Blocks if the in flight batches reach the limit.
+     *
+     * @param listItem    the list item from backup
+     * @param mFieldValue the field values to set on create
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void add(ListItem listItem, Map<String, FieldValue> mFieldValue) throws InterruptedException {
+        if (listItem == null) {
+            throw new IllegalArgumentException("listItem");
+        }
+        List<Entry> alBatch = null;
+        synchronized (this) {
+            if (bClosed) {
+                throw new IllegalStateException("Pipeline closed");
+            }
+            alEntry.add(new Entry(listItem, mFieldValue));
+            if (alEntry.size() >= iBatchSize) {
+                alBatch = takeBatch();
+            }
+        }
+        // wait for the slot without the lock, so a stalled batch does not block the other producers
+        submit(alBatch);
+    }
+
+    /**
+     * Sends the remaining items and waits for all batches to complete.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        List<Entry> alBatch;
+        synchronized (this) {
+            if (bClosed) {
+                return;
+            }
+            bClosed = true;
+            alBatch = takeBatch();
+        }
+        try {
+            submit(alBatch);
+        } finally {
+            synchronized (this) {
+                // the batches taken by add() before closed must be submitted before shutdown
+                while (iSubmitting > 0) {
+                    wait();
+                }
+            }
+            executor.shutdown();
+        }
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // wait until all batches are completed
+        }
+    }
+
+    /**
+     * @return the collected entries to submit, or null if none, must be called with the lock held
+     */
+    private List<Entry> takeBatch() {
+        if (alEntry.isEmpty()) {
+            return null;
+        }
+        List<Entry> alBatch = alEntry;
+        alEntry = new ArrayList<Entry>(iBatchSize);
+        iSubmitting++;
+        return alBatch;
+    }
+
+    private void submit(final List<Entry> alBatch) throws InterruptedException {
+        if (alBatch == null) {
+            return;
+        }
+        try {
+            inFlight.acquire();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            restore(alBatch);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        } finally {
+            synchronized (this) {
+                iSubmitting--;
+                notifyAll();
+            }
+        }
+    }
+
+    private void restore(List<Entry> alBatch) {
+        String sItemsUrl = "_api/web/lists('" + list.getId() + "')/items";
+        try {
+            // 1. create
+            BatchRequest createRequest = new BatchRequest(iBatchSize);
+            for (Entry entry : alBatch) {
+                entry.createHandler = new ServiceResponseUtil.ListItemHandler();
+                String sBody = entry.listItem.toCreateJSon(list.getListItemEntityTypeFullName(), entry.mFieldValue);
+                entry.createPart = createRequest.addOperation("POST", sItemsUrl, sBody, null, entry.createHandler);
+            }
+            service.executeBatch(sSiteUrl, createRequest);
+
+            // 2. these field only can set by update after create
+            BatchRequest mergeRequest = new BatchRequest(iBatchSize);
+            List<Entry> alFolder = new ArrayList<Entry>();
+            Map<Entry, BatchRequest.Part> mMergePart = new LinkedHashMap<Entry, BatchRequest.Part>();
+            for (Entry entry : alBatch) {
+                if (!entry.createPart.isSuccess()) {
+                    entry.exception = entry.createPart.getException();
+                    continue;
+                }
+                entry.restored = entry.createHandler.getListItem();
+                if (!entry.listItem.isFolder()) {
+                    continue;
+                }
+                Map<String, FieldValue> mFolderFieldValue = new LinkedHashMap<String, FieldValue>();
+                mFolderFieldValue.put("FileSystemObjectType", new FieldValue.StringValue(entry.listItem.getFileSystemObjectType().getValue()));
+                String sBody = new FieldValue.ObjectValue(list.getListItemEntityTypeFullName(), mFolderFieldValue).toString();
+                mMergePart.put(entry, mergeRequest.addOperation("MERGE", sItemsUrl + "(" + entry.restored.getId() + ")", sBody, "*", null));
+                alFolder.add(entry);
+            }
+            if (mergeRequest.size() > 0) {
+                service.executeBatch(sSiteUrl, mergeRequest);
+            }
+
+            // 3. refetch folders
+            BatchRequest refetchRequest = new BatchRequest(iBatchSize);
+            Map<Entry, BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>> mRefetchPart
+                    = new LinkedHashMap<Entry, BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>>();
+            for (Entry entry : alFolder) {
+                BatchRequest.Part mergePart = mMergePart.get(entry);
+                if (!mergePart.isSuccess()) {
+                    entry.exception = mergePart.getException();
+                    continue;
+                }
+                mRefetchPart.put(entry, refetchRequest.addListItem(list.getId(), entry.restored.getId(), queryOptions));
+            }
+            if (refetchRequest.size() > 0) {
+                service.executeBatch(sSiteUrl, refetchRequest);
+            }
+            for (Map.Entry<Entry, BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>> refetch : mRefetchPart.entrySet()) {
+                Entry entry = refetch.getKey();
+                BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler> refetchPart = refetch.getValue();
+                if (refetchPart.isSuccess()) {
+                    entry.restored = refetchPart.getHandler().getListItem();
+                } else {
+                    entry.exception = refetchPart.getException();
+                }
+            }
+        } catch (Throwable t) {
+            ServiceException e = t instanceof ServiceException ? (ServiceException) t : new ServiceException(t.getMessage(), t);
+            for (Entry entry : alBatch) {
+                // items created without follow-up steps are restored already
+                if (entry.exception == null && (entry.restored == null || entry.listItem.isFolder())) {
+                    entry.exception = e;
+                }
+            }
+        }
+
+        for (Entry entry : alBatch) {
+            if (entry.exception != null) {
+                listener.onFailed(entry.listItem, entry.exception);
+            } else {
+                listener.onRestored(entry.listItem, entry.restored);
+            }
+        }
+    }
+}
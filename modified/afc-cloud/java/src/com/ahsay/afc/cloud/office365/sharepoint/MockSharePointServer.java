@@ -0,0 +1,864 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Embeddable stand-in of the SharePoint REST API for offline load tests. It serves a synthetic site
+ *              with a configured number of lists, items per list, file size and search results, for _api/web, the
+ *              lists and items with paging, $batch, file $value with byte ranges, search query and contextinfo.
+ *              The responses are delayed by a random latency, and a share of the requests can be answered with 429
+ *              and Retry-After. The data is generated from the ids, so the same requests always get the same
+ *              responses and writes are acknowledged without being kept.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-14 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Support the Id range filters and keep the batch parts as bytes
+ */
+public class MockSharePointServer {
+
+    public static final String SITE_PATH = "/sites/mock";
+
+    private static final String NS_ATOM = "http://www.w3.org/2005/Atom";
+    private static final String NS_DATA_SERVICES = "http://schemas.microsoft.com/ado/2007/08/dataservices";
+    private static final String NS_METADATA = "http://schemas.microsoft.com/ado/2007/08/dataservices/metadata";
+
+    private static final String CONTENT_TYPE_ENTRY = "application/atom+xml;type=entry;charset=utf-8";
+    private static final String CONTENT_TYPE_FEED = "application/atom+xml;type=feed;charset=utf-8";
+    private static final String CONTENT_TYPE_XML = "application/xml;charset=utf-8";
+    private static final String CONTENT_TYPE_JSON = "application/json;odata=nometadata;charset=utf-8";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String DATE = "2019-11-14T00:00:00Z";
+    private static final int DEFAULT_TOP = 100;
+
+    private static final Pattern WEB = Pattern.compile("_api/web/?");
+    private static final Pattern LISTS = Pattern.compile("_api/web/lists/?");
+    private static final Pattern LIST = Pattern.compile("_api/web/lists(?:\\(guid'|\\(')([^']*)'\\)/?");
+    private static final Pattern LIST_BY_TITLE = Pattern.compile("_api/web/lists/GetByTitle\\('([^']*)'\\)/?");
+    private static final Pattern ITEMS = Pattern.compile("_api/web/lists(?:\\(guid'|\\(')([^']*)'\\)/items/?");
+    private static final Pattern ITEM = Pattern.compile("_api/web/lists(?:\\(guid'|\\(')([^']*)'\\)/items\\((\\d+)\\)/?");
+    private static final Pattern FILE_VALUE = Pattern.compile("_api/web/GetFileByServerRelative(?:Url|Path)\\((?:decodedurl=)?'(.*)'\\)/\\$value");
+    private static final Pattern SEARCH = Pattern.compile("_api/search/(query|postquery)");
+    private static final Pattern BATCH = Pattern.compile("_api/\\$batch");
+    private static final Pattern CONTEXT_INFO = Pattern.compile("_api/contextinfo");
+
+    private static final Pattern ID_COMPARE = Pattern.compile("(?i)\\bId\\s+(gt|ge|lt|le)\\s+(\\d+)");
+    private static final Pattern P_ID = Pattern.compile("p_ID=(\\d+)");
+    private static final Pattern JSON_INT = Pattern.compile("'?\"?(StartRow|RowLimit)'?\"?\\s*:\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=([^;\\s]+)");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private int iListCount = 10;
+    private int iItemCount = 1000;
+    private int iSiteCount = 100;
+    private long lFileSize = 64 * 1024;
+    private int iMinLatencyMs = 0;
+    private int iMaxLatencyMs = 0;
+    private double dThrottleRate = 0;
+    private int iRetryAfterSec = 1;
+    // every this number of items has unique role assignments, 0 for none
+    private int iUniquePermissionInterval = 50;
+    private int iThreads = 32;
+
+    private final Random random = new Random(23626);
+    private final AtomicInteger iNextItemId = new AtomicInteger(Integer.MAX_VALUE / 2);
+    private final AtomicLong lRequestCount = new AtomicLong();
+    private final AtomicLong lThrottledCount = new AtomicLong();
+    private final AtomicLong lBatchPartCount = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private static class Response {
+
+        private final int iStatus;
+        private final String sContentType;
+        private final byte[] abBody;
+        private final Map<String, String> mHeader = new HashMap<String, String>();
+
+        private Response(int iStatus, String sContentType, String sBody) {
+            this(iStatus, sContentType, toBytes(sBody));
+        }
+
+        private Response(int iStatus, String sContentType, byte[] abBody) {
+            this.iStatus = iStatus;
+            this.sContentType = sContentType;
+            this.abBody = abBody;
+        }
+    }
+
+    public void setListCount(int iListCount) {
+        if (iListCount < 0) {
+            throw new IllegalArgumentException("The parameter listCount must be non-negative.");
+        }
+        this.iListCount = iListCount;
+    }
+
+    public void setItemCount(int iItemCount) {
+        if (iItemCount < 0) {
+            throw new IllegalArgumentException("The parameter itemCount must be non-negative.");
+        }
+        this.iItemCount = iItemCount;
+    }
+
+    /**
+     * @param iSiteCount number of sites returned by search
+     */
+    public void setSiteCount(int iSiteCount) {
+        if (iSiteCount < 0) {
+            throw new IllegalArgumentException("The parameter siteCount must be non-negative.");
+        }
+        this.iSiteCount = iSiteCount;
+    }
+
+    public void setFileSize(long lFileSize) {
+        if (lFileSize < 0) {
+            throw new IllegalArgumentException("The parameter fileSize must be non-negative.");
+        }
+        this.lFileSize = lFileSize;
+    }
+
+    /**
+     * @param iMinLatencyMs the minimum delay of a response in ms
+     * @param iMaxLatencyMs the maximum delay of a response in ms
+     */
+    public void setLatency(int iMinLatencyMs, int iMaxLatencyMs) {
+        if (iMinLatencyMs < 0 || iMaxLatencyMs < iMinLatencyMs) {
+            throw new IllegalArgumentException("The parameter minLatencyMs must be non-negative and not more than maxLatencyMs.");
+        }
+        this.iMinLatencyMs = iMinLatencyMs;
+        this.iMaxLatencyMs = iMaxLatencyMs;
+    }
+
+    /**
+     * @param dThrottleRate  the share of requests answered with 429, from 0 to 1
+     * @param iRetryAfterSec the Retry-After of the 429 responses in s
+     */
+    public void setThrottle(double dThrottleRate, int iRetryAfterSec) {
+        if (dThrottleRate < 0 || dThrottleRate > 1) {
+            throw new IllegalArgumentException("The parameter throttleRate must be between 0 and 1.");
+        }
+        if (iRetryAfterSec < 0) {
+            throw new IllegalArgumentException("The parameter retryAfterSec must be non-negative.");
+        }
+        this.dThrottleRate = dThrottleRate;
+        this.iRetryAfterSec = iRetryAfterSec;
+    }
+
+    public void setUniquePermissionInterval(int iUniquePermissionInterval) {
+        if (iUniquePermissionInterval < 0) {
+            throw new IllegalArgumentException("The parameter uniquePermissionInterval must be non-negative.");
+        }
+        this.iUniquePermissionInterval = iUniquePermissionInterval;
+    }
+
+    public void setThreads(int iThreads) {
+        if (iThreads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.iThreads = iThreads;
+    }
+
+    /**
+     * Starts the server on localhost.
+     *
+     * @param iPort the port, or 0 for any free port
+     * @throws IOException the IO exception
+     */
+    public synchronized void start(int iPort) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", iPort), 0);
+        executor = Executors.newFixedThreadPool(iThreads);
+        server.setExecutor(executor);
+        server.createContext(SITE_PATH + "/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the url of the mock site, to be used as the site url of Service
+     */
+    public String getSiteUrl() {
+        return "http://localhost:" + getPort() + SITE_PATH;
+    }
+
+    public long getRequestCount() {
+        return lRequestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return lThrottledCount.get();
+    }
+
+    public long getBatchPartCount() {
+        return lBatchPartCount.get();
+    }
+
+    public String getListId(int iList) {
+        return UUID.nameUUIDFromBytes(toBytes("list" + iList)).toString();
+    }
+
+    public String getFileUrl(int iList, int iItemId) {
+        return SITE_PATH + "/List" + iList + "/File" + iItemId + ".bin";
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        lRequestCount.incrementAndGet();
+        sleep();
+
+        if (dThrottleRate > 0 && nextDouble() < dThrottleRate) {
+            lThrottledCount.incrementAndGet();
+            Response response = getError(429, "-2147024860, Microsoft.SharePoint.SPQueryThrottledException",
+                    "The request has been throttled.");
+            response.mHeader.put("Retry-After", String.valueOf(iRetryAfterSec));
+            send(exchange, response);
+            return;
+        }
+
+        URI uri = exchange.getRequestURI();
+        String sPath = uri.getPath().substring(SITE_PATH.length() + 1);
+        Map<String, String> mQuery = parseQuery(uri.getRawQuery());
+        String sMethod = exchange.getRequestMethod();
+        byte[] abBody = readFully(exchange.getRequestBody());
+
+        Matcher matcher = FILE_VALUE.matcher(sPath);
+        if (matcher.matches() && "GET".equals(sMethod)) {
+            sendFile(exchange, exchange.getRequestHeaders().getFirst("Range"));
+            return;
+        }
+        if (BATCH.matcher(sPath).matches()) {
+            send(exchange, getBatch(exchange.getRequestHeaders().getFirst("Content-Type"), abBody));
+            return;
+        }
+        send(exchange, route(sMethod, sPath, mQuery, exchange.getRequestHeaders().getFirst("Accept"), abBody));
+    }
+
+    private Response route(String sMethod, String sPath, Map<String, String> mQuery, String sAccept, byte[] abBody) {
+        Matcher matcher;
+        if (CONTEXT_INFO.matcher(sPath).matches()) {
+            return new Response(200, CONTENT_TYPE_XML, "<d:GetContextWebInformation xmlns:d=\"" + NS_DATA_SERVICES
+                    + "\" xmlns:m=\"" + NS_METADATA + "\"><d:FormDigestTimeoutSeconds m:type=\"Edm.Int32\">1800</d:FormDigestTimeoutSeconds>"
+                    + "<d:FormDigestValue>0x" + UUID.randomUUID().toString().replace("-", "").toUpperCase() + "," + DATE
+                    + "</d:FormDigestValue><d:WebFullUrl>" + SITE_PATH + "</d:WebFullUrl></d:GetContextWebInformation>");
+        }
+        if (SEARCH.matcher(sPath).matches()) {
+            return getSearch(mQuery, abBody);
+        }
+        if (!"GET".equals(sMethod)) {
+            return getWrite(sPath);
+        }
+        if (WEB.matcher(sPath).matches()) {
+            return getWeb(sAccept != null && sAccept.contains("application/json"));
+        }
+        if (LISTS.matcher(sPath).matches()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < iListCount; i++) {
+                appendList(sb, i);
+            }
+            return getFeed("lists", sb);
+        }
+        if ((matcher = LIST.matcher(sPath)).matches()) {
+            int iList = getListIndex(matcher.group(1));
+            return iList < 0 ? getNotFound() : getEntry(appendList(new StringBuilder(), iList));
+        }
+        if ((matcher = LIST_BY_TITLE.matcher(sPath)).matches()) {
+            int iList = getListIndexByTitle(matcher.group(1));
+            return iList < 0 ? getNotFound() : getEntry(appendList(new StringBuilder(), iList));
+        }
+        if ((matcher = ITEMS.matcher(sPath)).matches()) {
+            int iList = getListIndex(matcher.group(1));
+            return iList < 0 ? getNotFound() : getItems(iList, sPath, mQuery);
+        }
+        if ((matcher = ITEM.matcher(sPath)).matches()) {
+            int iList = getListIndex(matcher.group(1));
+            int iItemId = Integer.parseInt(matcher.group(2));
+            if (iList < 0 || iItemId < 1 || iItemId > iItemCount) {
+                return getNotFound();
+            }
+            return getEntry(appendItem(new StringBuilder(), iList, iItemId));
+        }
+        return getNotFound();
+    }
+
+    private Response getWeb(boolean bJson) {
+        String sId = UUID.nameUUIDFromBytes(toBytes("web")).toString();
+        if (bJson) {
+            return new Response(200, CONTENT_TYPE_JSON, "{\"Id\":\"" + sId + "\",\"Title\":\"Mock\",\"Description\":\"\""
+                    + ",\"Created\":\"" + DATE + "\",\"LastItemModifiedDate\":\"" + DATE + "\",\"Language\":1033"
+                    + ",\"ServerRelativeUrl\":\"" + SITE_PATH + "\",\"Url\":\"" + SITE_PATH + "\",\"WebTemplate\":\"STS\""
+                    + ",\"Configuration\":0,\"UIVersion\":15,\"RecycleBinEnabled\":true,\"QuickLaunchEnabled\":true}");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("<entry><id>").append(SITE_PATH).append("/_api/Web</id><content type=\"application/xml\"><m:properties>");
+        appendProperty(sb, "Id", "Edm.Guid", sId);
+        appendProperty(sb, "Title", null, "Mock");
+        appendProperty(sb, "Description", null, "");
+        appendProperty(sb, "Created", "Edm.DateTime", DATE);
+        appendProperty(sb, "LastItemModifiedDate", "Edm.DateTime", DATE);
+        appendProperty(sb, "Language", "Edm.Int32", "1033");
+        appendProperty(sb, "ServerRelativeUrl", null, SITE_PATH);
+        appendProperty(sb, "Url", null, SITE_PATH);
+        appendProperty(sb, "WebTemplate", null, "STS");
+        appendProperty(sb, "Configuration", "Edm.Int16", "0");
+        appendProperty(sb, "UIVersion", "Edm.Int32", "15");
+        appendProperty(sb, "RecycleBinEnabled", "Edm.Boolean", "true");
+        appendProperty(sb, "QuickLaunchEnabled", "Edm.Boolean", "true");
+        sb.append("</m:properties></content></entry>");
+        return getEntry(sb);
+    }
+
+    private Response getItems(int iList, String sPath, Map<String, String> mQuery) {
+        int iTop = DEFAULT_TOP;
+        if (mQuery.get("$top") != null) {
+            iTop = Integer.parseInt(mQuery.get("$top"));
+        }
+        // the comparisons are taken as and-ed, e.g. "Id gt 100 and Id lt 201" of a range restriction
+        int iAfterId = 0;
+        int iMaxId = iItemCount;
+        Matcher matcher;
+        if (mQuery.get("$filter") != null) {
+            matcher = ID_COMPARE.matcher(mQuery.get("$filter"));
+            while (matcher.find()) {
+                String sOperator = matcher.group(1).toLowerCase();
+                int iId = Integer.parseInt(matcher.group(2));
+                if ("gt".equals(sOperator)) {
+                    iAfterId = Math.max(iAfterId, iId);
+                } else if ("ge".equals(sOperator)) {
+                    iAfterId = Math.max(iAfterId, iId - 1);
+                } else if ("lt".equals(sOperator)) {
+                    iMaxId = Math.min(iMaxId, iId - 1);
+                } else {
+                    iMaxId = Math.min(iMaxId, iId);
+                }
+            }
+        }
+        if (mQuery.get("$skiptoken") != null && (matcher = P_ID.matcher(mQuery.get("$skiptoken"))).find()) {
+            iAfterId = Math.max(iAfterId, Integer.parseInt(matcher.group(1)));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int iLastId = (int) Math.min(iMaxId, (long) iAfterId + iTop);
+        for (int iItemId = iAfterId + 1; iItemId <= iLastId; iItemId++) {
+            appendItem(sb, iList, iItemId);
+        }
+        if (iLastId < iMaxId) {
+            sb.append("<link rel=\"next\" href=\"").append(SITE_PATH).append('/').append(escape(sPath))
+                    .append("?%24skiptoken=Paged%3dTRUE%26p_ID%3d").append(iLastId)
+                    .append("&amp;%24top=").append(iTop);
+            // the next page keeps the range of the filter
+            if (mQuery.get("$filter") != null) {
+                sb.append("&amp;%24filter=").append(escape(encode(mQuery.get("$filter"))));
+            }
+            sb.append("\" />");
+        }
+        return getFeed("items", sb);
+    }
+
+    private Response getSearch(Map<String, String> mQuery, byte[] abBody) {
+        int iStartRow = 0;
+        int iRowLimit = 10;
+        if (mQuery.get("startrow") != null) {
+            iStartRow = Integer.parseInt(mQuery.get("startrow"));
+        }
+        if (mQuery.get("rowlimit") != null) {
+            iRowLimit = Integer.parseInt(mQuery.get("rowlimit"));
+        }
+        Matcher matcher = JSON_INT.matcher(new String(abBody, 0, abBody.length, UTF8));
+        while (matcher.find()) {
+            if ("startrow".equalsIgnoreCase(matcher.group(1))) {
+                iStartRow = Integer.parseInt(matcher.group(2));
+            } else {
+                iRowLimit = Integer.parseInt(matcher.group(2));
+            }
+        }
+
+        int iEnd = Math.min(iSiteCount, iStartRow + iRowLimit);
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?><d:query xmlns:d=\"").append(NS_DATA_SERVICES)
+                .append("\" xmlns:m=\"").append(NS_METADATA).append("\"><d:PrimaryQueryResult><d:RelevantResults>")
+                .append("<d:RowCount m:type=\"Edm.Int32\">").append(Math.max(0, iEnd - iStartRow)).append("</d:RowCount>")
+                .append("<d:Table><d:Rows>");
+        for (int i = iStartRow; i < iEnd; i++) {
+            sb.append("<d:element><d:Cells>");
+            appendCell(sb, "Title", "Site " + i);
+            appendCell(sb, "Path", "http://localhost" + SITE_PATH + i);
+            appendCell(sb, "SiteId", UUID.nameUUIDFromBytes(toBytes("site" + i)).toString());
+            appendCell(sb, "WebTemplate", "STS");
+            sb.append("</d:Cells></d:element>");
+        }
+        sb.append("</d:Rows></d:Table><d:TotalRows m:type=\"Edm.Int32\">").append(iSiteCount).append("</d:TotalRows>")
+                .append("<d:TotalRowsIncludingDuplicates m:type=\"Edm.Int32\">").append(iSiteCount)
+                .append("</d:TotalRowsIncludingDuplicates></d:RelevantResults></d:PrimaryQueryResult></d:query>");
+        return new Response(200, CONTENT_TYPE_XML, sb.toString());
+    }
+
+    /**
+     * Acknowledges a write, a new list item is answered with its entry and the others with no content.
+     */
+    private Response getWrite(String sPath) {
+        Matcher matcher = ITEMS.matcher(sPath);
+        if (matcher.matches()) {
+            int iList = getListIndex(matcher.group(1));
+            if (iList < 0) {
+                return getNotFound();
+            }
+            return new Response(201, CONTENT_TYPE_ENTRY, getEntry(appendItem(new StringBuilder(), iList, iNextItemId.incrementAndGet())).abBody);
+        }
+        return new Response(204, null, new byte[0]);
+    }
+
+    private Response getBatch(String sContentType, byte[] abBody) {
+        Matcher matcher = sContentType == null ? null : BOUNDARY.matcher(sContentType);
+        if (matcher == null || !matcher.find()) {
+            return getError(400, "-1, Microsoft.Data.OData.ODataException", "The boundary of the batch is missing.");
+        }
+        String sBoundary = "batchresponse_" + UUID.randomUUID();
+        // the parts are written as bytes, a $value part is binary
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (String sPart : split(new String(abBody, 0, abBody.length, UTF8), matcher.group(1))) {
+            write(bos, "--" + sBoundary + "\r\n");
+            int iHeaderEnd = sPart.indexOf("\r\n\r\n");
+            String sPartHeader = iHeaderEnd < 0 ? sPart : sPart.substring(0, iHeaderEnd);
+            String sPartBody = iHeaderEnd < 0 ? "" : sPart.substring(iHeaderEnd + 4);
+            Matcher changeSet = BOUNDARY.matcher(sPartHeader);
+            if (changeSet.find()) {
+                String sChangeSetBoundary = "changesetresponse_" + UUID.randomUUID();
+                write(bos, "Content-Type: multipart/mixed; boundary=" + sChangeSetBoundary + "\r\n\r\n");
+                for (String sOperation : split(sPartBody, changeSet.group(1))) {
+                    write(bos, "--" + sChangeSetBoundary + "\r\n");
+                    writeBatchResponse(bos, sOperation);
+                }
+                write(bos, "--" + sChangeSetBoundary + "--\r\n");
+            } else {
+                writeBatchResponse(bos, sPart);
+            }
+        }
+        write(bos, "--" + sBoundary + "--\r\n");
+        return new Response(200, "multipart/mixed; boundary=" + sBoundary, bos.toByteArray());
+    }
+
+    /**
+     * Writes the response of one request in a batch, the part is the MIME headers, the request line, the request
+     * headers and the body.
+     */
+    private void writeBatchResponse(ByteArrayOutputStream bos, String sPart) {
+        lBatchPartCount.incrementAndGet();
+        int iHeaderEnd = sPart.indexOf("\r\n\r\n");
+        String sRequest = iHeaderEnd < 0 ? "" : sPart.substring(iHeaderEnd + 4);
+        int iRequestHeaderEnd = sRequest.indexOf("\r\n\r\n");
+        String sRequestHeader = iRequestHeaderEnd < 0 ? sRequest : sRequest.substring(0, iRequestHeaderEnd);
+        String sRequestBody = iRequestHeaderEnd < 0 ? "" : sRequest.substring(iRequestHeaderEnd + 4);
+        String[] asLine = sRequestHeader.split("\r\n");
+        String[] asRequestLine = asLine[0].split(" ");
+
+        Response response;
+        if (asRequestLine.length < 2) {
+            response = getError(400, "-1, Microsoft.Data.OData.ODataException", "The request line is invalid.");
+        } else {
+            String sMethod = asRequestLine[0];
+            String sAccept = null;
+            for (int i = 1; i < asLine.length; i++) {
+                if (asLine[i].toLowerCase().startsWith("x-http-method:")) {
+                    sMethod = asLine[i].substring("x-http-method:".length()).trim();
+                } else if (asLine[i].toLowerCase().startsWith("accept:")) {
+                    sAccept = asLine[i].substring("accept:".length()).trim();
+                }
+            }
+            URI uri = URI.create(asRequestLine[1]);
+            String sPath = uri.getPath();
+            int iApi = sPath.indexOf("_api/");
+            if (iApi < 0) {
+                response = getNotFound();
+            } else if (FILE_VALUE.matcher(sPath.substring(iApi)).matches()) {
+                response = new Response(200, "application/octet-stream", getFileBytes(0, Math.min(lFileSize, Integer.MAX_VALUE) - 1));
+            } else {
+                response = route(sMethod, sPath.substring(iApi), parseQuery(uri.getRawQuery()), sAccept, toBytes(sRequestBody.trim()));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Content-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n\r\n");
+        sb.append("HTTP/1.1 ").append(response.iStatus).append(' ').append(getReason(response.iStatus)).append("\r\n");
+        if (response.sContentType != null) {
+            sb.append("CONTENT-TYPE: ").append(response.sContentType).append("\r\n");
+        }
+        sb.append("\r\n");
+        write(bos, sb.toString());
+        bos.write(response.abBody, 0, response.abBody.length);
+        write(bos, "\r\n");
+    }
+
+    private void sendFile(HttpExchange exchange, String sRange) throws IOException {
+        long lStart = 0;
+        long lEnd = lFileSize - 1;
+        int iStatus = 200;
+        Matcher matcher = sRange == null ? null : RANGE.matcher(sRange);
+        if (matcher != null && matcher.find()) {
+            lStart = Long.parseLong(matcher.group(1));
+            if (matcher.group(2).length() > 0) {
+                lEnd = Math.min(lEnd, Long.parseLong(matcher.group(2)));
+            }
+            if (lStart > lEnd) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + lFileSize);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            iStatus = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + lStart + "-" + lEnd + "/" + lFileSize);
+        }
+
+        long lLength = lEnd - lStart + 1;
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(iStatus, lLength == 0 ? -1 : lLength);
+        OutputStream os = exchange.getResponseBody();
+        try {
+            byte[] abBuffer = new byte[8192];
+            for (long lPos = lStart; lPos <= lEnd; ) {
+                int iLength = (int) Math.min(abBuffer.length, lEnd - lPos + 1);
+                fillFileBytes(abBuffer, lPos, iLength);
+                os.write(abBuffer, 0, iLength);
+                lPos += iLength;
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] getFileBytes(long lStart, long lEnd) {
+        byte[] abBytes = new byte[(int) Math.max(0, lEnd - lStart + 1)];
+        fillFileBytes(abBytes, lStart, abBytes.length);
+        return abBytes;
+    }
+
+    // the content is a function of the offset, so any range can be verified
+    private static void fillFileBytes(byte[] abBuffer, long lPos, int iLength) {
+        for (int i = 0; i < iLength; i++) {
+            abBuffer[i] = (byte) ((lPos + i) * 31 >>> 3);
+        }
+    }
+
+    private StringBuilder appendList(StringBuilder sb, int iList) {
+        String sId = getListId(iList);
+        sb.append("<entry><id>").append(SITE_PATH).append("/_api/Web/Lists(guid'").append(sId)
+                .append("')</id><category term=\"SP.List\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\" />")
+                .append("<content type=\"application/xml\"><m:properties>");
+        appendProperty(sb, "Id", "Edm.Guid", sId);
+        appendProperty(sb, "Title", null, "List" + iList);
+        appendProperty(sb, "BaseTemplate", "Edm.Int32", "101");
+        appendProperty(sb, "BaseType", "Edm.Int32", "1");
+        appendProperty(sb, "ItemCount", "Edm.Int32", String.valueOf(iItemCount));
+        appendProperty(sb, "Created", "Edm.DateTime", DATE);
+        appendProperty(sb, "LastItemModifiedDate", "Edm.DateTime", DATE);
+        appendProperty(sb, "Hidden", "Edm.Boolean", "false");
+        appendProperty(sb, "HasUniqueRoleAssignments", "Edm.Boolean", String.valueOf(iList % 2 == 1));
+        appendProperty(sb, "EnableVersioning", "Edm.Boolean", "true");
+        sb.append("</m:properties></content></entry>");
+        return sb;
+    }
+
+    private StringBuilder appendItem(StringBuilder sb, int iList, int iItemId) {
+        sb.append("<entry><id>").append(SITE_PATH).append("/_api/Web/Lists(guid'").append(getListId(iList))
+                .append("')/Items(").append(iItemId).append(")</id>")
+                .append("<category term=\"SP.Data.List").append(iList).append("Item\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\" />")
+                .append("<content type=\"application/xml\"><m:properties>");
+        appendProperty(sb, "FileSystemObjectType", "Edm.Int32", "0");
+        appendProperty(sb, "Id", "Edm.Int32", String.valueOf(iItemId));
+        appendProperty(sb, "ID", "Edm.Int32", String.valueOf(iItemId));
+        appendProperty(sb, "Title", null, "Item " + iItemId);
+        appendProperty(sb, "GUID", "Edm.Guid", UUID.nameUUIDFromBytes(toBytes("item" + iList + "/" + iItemId)).toString());
+        appendProperty(sb, "Created", "Edm.DateTime", DATE);
+        appendProperty(sb, "Modified", "Edm.DateTime", DATE);
+        appendProperty(sb, "FileRef", null, getFileUrl(iList, iItemId));
+        appendProperty(sb, "HasUniqueRoleAssignments", "Edm.Boolean",
+                String.valueOf(iUniquePermissionInterval > 0 && iItemId % iUniquePermissionInterval == 0));
+        sb.append("</m:properties></content></entry>");
+        return sb;
+    }
+
+    private static void appendProperty(StringBuilder sb, String sName, String sType, String sValue) {
+        sb.append("<d:").append(sName);
+        if (sType != null) {
+            sb.append(" m:type=\"").append(sType).append('"');
+        }
+        sb.append('>').append(escape(sValue)).append("</d:").append(sName).append('>');
+    }
+
+    private static void appendCell(StringBuilder sb, String sKey, String sValue) {
+        sb.append("<d:element m:type=\"SP.KeyValue\"><d:Key>").append(sKey).append("</d:Key><d:Value>").append(escape(sValue))
+                .append("</d:Value><d:ValueType>Edm.String</d:ValueType></d:element>");
+    }
+
+    private static Response getEntry(StringBuilder sbEntry) {
+        // the namespaces are declared on the entry itself
+        String sEntry = sbEntry.toString().replaceFirst("^<entry>", "<entry xmlns=\"" + NS_ATOM + "\" xmlns:d=\""
+                + NS_DATA_SERVICES + "\" xmlns:m=\"" + NS_METADATA + "\">");
+        return new Response(200, CONTENT_TYPE_ENTRY, "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + sEntry);
+    }
+
+    private static Response getFeed(String sTitle, StringBuilder sbEntries) {
+        return new Response(200, CONTENT_TYPE_FEED, "<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xmlns=\"" + NS_ATOM
+                + "\" xmlns:d=\"" + NS_DATA_SERVICES + "\" xmlns:m=\"" + NS_METADATA + "\"><title type=\"text\">" + sTitle
+                + "</title>" + sbEntries + "</feed>");
+    }
+
+    private static Response getNotFound() {
+        return getError(404, "-2147024894, System.IO.FileNotFoundException", "File Not Found.");
+    }
+
+    private static Response getError(int iStatus, String sCode, String sMessage) {
+        return new Response(iStatus, CONTENT_TYPE_XML, "<?xml version=\"1.0\" encoding=\"utf-8\"?><m:error xmlns:m=\""
+                + NS_METADATA + "\"><m:code>" + sCode + "</m:code><m:message xml:lang=\"en-US\">" + escape(sMessage)
+                + "</m:message></m:error>");
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        if (response.sContentType != null) {
+            headers.set("Content-Type", response.sContentType);
+        }
+        for (Map.Entry<String, String> entry : response.mHeader.entrySet()) {
+            headers.set(entry.getKey(), entry.getValue());
+        }
+        exchange.sendResponseHeaders(response.iStatus, response.abBody.length == 0 ? -1 : response.abBody.length);
+        if (response.abBody.length > 0) {
+            OutputStream os = exchange.getResponseBody();
+            try {
+                os.write(response.abBody);
+            } finally {
+                os.close();
+            }
+        }
+    }
+
+    private int getListIndex(String sListId) {
+        for (int i = 0; i < iListCount; i++) {
+            if (getListId(i).equalsIgnoreCase(sListId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getListIndexByTitle(String sTitle) {
+        for (int i = 0; i < iListCount; i++) {
+            if (("List" + i).equalsIgnoreCase(sTitle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void sleep() {
+        if (iMaxLatencyMs <= 0) {
+            return;
+        }
+        int iLatency = iMinLatencyMs + (iMaxLatencyMs > iMinLatencyMs ? nextInt(iMaxLatencyMs - iMinLatencyMs + 1) : 0);
+        try {
+            Thread.sleep(iLatency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private int nextInt(int n) {
+        synchronized (random) {
+            return random.nextInt(n);
+        }
+    }
+
+    /**
+     * @return the parts between the boundary lines, without the preamble and the epilogue
+     */
+    private static List<String> split(String sMultipart, String sBoundary) {
+        List<String> alPart = new ArrayList<String>();
+        String sDelimiter = "--" + sBoundary;
+        int iStart = sMultipart.indexOf(sDelimiter);
+        while (iStart >= 0) {
+            int iPartStart = sMultipart.indexOf('\n', iStart) + 1;
+            int iNext = sMultipart.indexOf(sDelimiter, iPartStart);
+            if (iPartStart <= 0 || iNext < 0 || sMultipart.startsWith(sDelimiter + "--", iStart)) {
+                break;
+            }
+            alPart.add(sMultipart.substring(iPartStart, iNext).replace("\r\n", "\n").replace("\n", "\r\n"));
+            iStart = iNext;
+        }
+        return alPart;
+    }
+
+    private static Map<String, String> parseQuery(String sRawQuery) {
+        Map<String, String> mQuery = new HashMap<String, String>();
+        if (sRawQuery == null) {
+            return mQuery;
+        }
+        for (String sParam : sRawQuery.split("&")) {
+            int iEquals = sParam.indexOf('=');
+            String sName = decode(iEquals < 0 ? sParam : sParam.substring(0, iEquals));
+            String sValue = iEquals < 0 ? "" : decode(sParam.substring(iEquals + 1));
+            // the search parameters are quoted, e.g. querytext='contentclass:sts_site'
+            if (sValue.length() >= 2 && sValue.startsWith("'") && sValue.endsWith("'")) {
+                sValue = sValue.substring(1, sValue.length() - 1);
+            }
+            mQuery.put(sName.toLowerCase(), sValue);
+        }
+        return mQuery;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getReason(int iStatus) {
+        switch (iStatus) {
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 204:
+                return "No Content";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 429:
+                return "Too Many Requests";
+            default:
+                return "Unknown";
+        }
+    }
+
+    private static String escape(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String sEntity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : null;
+            if (sEntity != null && sb == null) {
+                sb = new StringBuilder(s.substring(0, i));
+            }
+            if (sb != null) {
+                sb.append(sEntity != null ? sEntity : String.valueOf(c));
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    private static byte[] toBytes(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    private static void write(ByteArrayOutputStream bos, String s) {
+        byte[] abBytes = toBytes(s);
+        bos.write(abBytes, 0, abBytes.length);
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] abBuffer = new byte[8192];
+        int iRead;
+        while ((iRead = is.read(abBuffer)) > 0) {
+            bos.write(abBuffer, 0, iRead);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     *
+     * @param args port, lists, items per list, min latency ms, max latency ms, throttle rate
+     */
+    public static void main(String[] args) throws Exception {
+        MockSharePointServer server = new MockSharePointServer();
+        int iPort = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        if (args.length > 1) {
+            server.setListCount(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            server.setItemCount(Integer.parseInt(args[2]));
+        }
+        if (args.length > 4) {
+            server.setLatency(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            server.setThrottle(Double.parseDouble(args[5]), 1);
+        }
+        server.start(iPort);
+        System.out.println("[MockSharePointServer] " + server.getSiteUrl());
+    }
+}
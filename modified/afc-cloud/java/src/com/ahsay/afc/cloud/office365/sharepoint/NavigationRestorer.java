@@ -0,0 +1,183 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.BatchRequest;
+import com.independentsoft.share.NavigationNode;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+import com.independentsoft.share.ServiceResponseUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Restore the navigation tree of a web level by level. The nodes of a level are compared with the
+ *              current tree by title under the same parent: identical nodes are skipped, changed nodes are updated and
+ *              missing nodes are created, all the changes of a level in one $batch request. The ids of the created
+ *              nodes are used as the parents of the next level, so restoring the same tree again changes nothing.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-04 23626  jefferson.brigino Created
+ */
+public class NavigationRestorer {
+
+    public static class Result {
+
+        private int iCreated;
+        private int iUpdated;
+        private int iSkipped;
+        private int iRequestCount;
+        private final List<ServiceException> alException = new ArrayList<ServiceException>();
+
+        public int getCreated() {
+            return iCreated;
+        }
+
+        public int getUpdated() {
+            return iUpdated;
+        }
+
+        /**
+         * @return number of nodes identical to the current tree
+         */
+        public int getSkipped() {
+            return iSkipped;
+        }
+
+        public int getRequestCount() {
+            return iRequestCount;
+        }
+
+        /**
+         * @return the errors of the nodes failed, their children are not restored
+         */
+        public List<ServiceException> getExceptions() {
+            return alException;
+        }
+    }
+
+    // a node to restore with where it goes
+    private static class Pending {
+
+        private final NavigationTree.Node source;
+        // the matched node in the current tree, or null to create
+        private final NavigationTree.Node current;
+        private final String sCreateUrl;
+        private ServiceResponseUtil.NavigationNodeHandler handler;
+        private BatchRequest.Part part;
+
+        private Pending(NavigationTree.Node source, NavigationTree.Node current, String sCreateUrl) {
+            this.source = source;
+            this.current = current;
+            this.sCreateUrl = sCreateUrl;
+        }
+    }
+
+    private final Service service;
+    private final String sSiteUrl;
+
+    public NavigationRestorer(Service service, String sSiteUrl) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        this.service = service;
+        this.sSiteUrl = sSiteUrl;
+    }
+
+    /**
+     * Restores the navigation tree, e.g. from NavigationTree.getNavigationTree() at backup.
+     *
+     * @param source the navigation tree to restore
+     * @return the result
+     * @throws ServiceException if the current tree cannot be read or a batch request fails
+     */
+    public Result restore(NavigationTree source) throws ServiceException {
+        if (source == null) {
+            throw new IllegalArgumentException("source");
+        }
+
+        Result result = new Result();
+        NavigationTree current = NavigationTree.getNavigationTree(service, sSiteUrl);
+        result.iRequestCount += current.getRequestCount();
+
+        List<Pending> alLevel = new ArrayList<Pending>();
+        match(alLevel, source.getQuickLaunch(), current.getQuickLaunch(), "_api/web/Navigation/QuickLaunch");
+        match(alLevel, source.getTopNavigationBar(), current.getTopNavigationBar(), "_api/web/Navigation/TopNavigationbar");
+        while (!alLevel.isEmpty()) {
+            alLevel = restoreLevel(alLevel, result);
+        }
+        return result;
+    }
+
+    private List<Pending> restoreLevel(List<Pending> alLevel, Result result) throws ServiceException {
+        BatchRequest batchRequest = new BatchRequest();
+        for (Pending pending : alLevel) {
+            NavigationNode sourceNode = pending.source.getNavigationNode();
+            if (pending.current == null) {
+                pending.handler = new ServiceResponseUtil.NavigationNodeHandler();
+                pending.part = batchRequest.addOperation("POST", pending.sCreateUrl, sourceNode.toCreateJSon(), null, pending.handler);
+            } else if (!isIdentical(sourceNode, pending.current.getNavigationNode())) {
+                int iId = pending.current.getNavigationNode().getId();
+                pending.part = batchRequest.addOperation("MERGE", "_api/web/Navigation/GetNodeById(" + iId + ")", sourceNode.toCreateJSon(), "*", null);
+            } else {
+                result.iSkipped++;
+            }
+        }
+        if (batchRequest.size() > 0) {
+            service.executeBatch(sSiteUrl, batchRequest);
+            result.iRequestCount += (batchRequest.size() + batchRequest.getMaxRequests() - 1) / batchRequest.getMaxRequests();
+        }
+
+        List<Pending> alNextLevel = new ArrayList<Pending>();
+        for (Pending pending : alLevel) {
+            int iParentId;
+            List<NavigationTree.Node> alCurrentChildren;
+            if (pending.part != null && !pending.part.isSuccess()) {
+                result.alException.add(pending.part.getException());
+                continue;
+            }
+            if (pending.current == null) {
+                result.iCreated++;
+                iParentId = pending.handler.getNavigationNode().getId();
+                alCurrentChildren = new ArrayList<NavigationTree.Node>();
+            } else {
+                if (pending.part != null) {
+                    result.iUpdated++;
+                }
+                iParentId = pending.current.getNavigationNode().getId();
+                alCurrentChildren = pending.current.getChildren();
+            }
+            match(alNextLevel, pending.source.getChildren(), alCurrentChildren, "_api/web/Navigation/GetNodeById(" + iParentId + ")/Children");
+        }
+        return alNextLevel;
+    }
+
+    private static void match(List<Pending> alPending, List<NavigationTree.Node> alSource, List<NavigationTree.Node> alCurrent, String sCreateUrl) {
+        List<NavigationTree.Node> alUnmatched = new ArrayList<NavigationTree.Node>(alCurrent);
+        for (NavigationTree.Node source : alSource) {
+            NavigationTree.Node matched = null;
+            for (NavigationTree.Node current : alUnmatched) {
+                if (equals(source.getNavigationNode().getTitle(), current.getNavigationNode().getTitle())) {
+                    matched = current;
+                    break;
+                }
+            }
+            if (matched != null) {
+                alUnmatched.remove(matched);
+            }
+            alPending.add(new Pending(source, matched, sCreateUrl));
+        }
+    }
+
+    private static boolean isIdentical(NavigationNode source, NavigationNode current) {
+        return equals(source.getTitle(), current.getTitle()) && equals(source.getUrl(), current.getUrl());
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+}
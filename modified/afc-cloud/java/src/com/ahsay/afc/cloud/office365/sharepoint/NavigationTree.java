@@ -0,0 +1,147 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.NavigationNode;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Navigation tree of a web. QuickLaunch and TopNavigationBar are each fetched in one request with
+ *              several levels of Children expanded, and the children are only requested per node for the nodes below
+ *              the expansion depth which have children. The expanded children are parsed from the response by
+ *              Service, as they are not exposed by NavigationNode.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-03 23626  jefferson.brigino Created
+ * 2019-11-16 23626  jefferson.brigino Get the expanded children parsed by Service
+ */
+public class NavigationTree {
+
+    public static final int DEFAULT_DEPTH = 3;
+
+    public static class Node {
+
+        private final NavigationNode navigationNode;
+        private final List<Node> children = new ArrayList<Node>();
+
+        private Node(NavigationNode navigationNode) {
+            this.navigationNode = navigationNode;
+        }
+
+        public NavigationNode getNavigationNode() {
+            return navigationNode;
+        }
+
+        public List<Node> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+    }
+
+    private final List<Node> quickLaunch;
+    private final List<Node> topNavigationBar;
+    private final int iRequestCount;
+
+    private NavigationTree(List<Node> quickLaunch, List<Node> topNavigationBar, int iRequestCount) {
+        this.quickLaunch = quickLaunch;
+        this.topNavigationBar = topNavigationBar;
+        this.iRequestCount = iRequestCount;
+    }
+
+    public List<Node> getQuickLaunch() {
+        return Collections.unmodifiableList(quickLaunch);
+    }
+
+    public List<Node> getTopNavigationBar() {
+        return Collections.unmodifiableList(topNavigationBar);
+    }
+
+    /**
+     * @return number of requests sent to get the tree
+     */
+    public int getRequestCount() {
+        return iRequestCount;
+    }
+
+    public static NavigationTree getNavigationTree(Service service, String sSiteUrl) throws ServiceException {
+        return getNavigationTree(service, sSiteUrl, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Gets the navigation tree of the web.
+     *
+     * @param service  the service
+     * @param sSiteUrl the site url
+     * @param iDepth   number of levels of children expanded in one request
+     * @return the navigation tree
+     * @throws ServiceException the service exception
+     */
+    public static NavigationTree getNavigationTree(Service service, String sSiteUrl, int iDepth) throws ServiceException {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (iDepth < 0) {
+            throw new IllegalArgumentException("The parameter depth must be non-negative.");
+        }
+
+        Loader loader = new Loader(service, sSiteUrl, iDepth);
+        List<Node> quickLaunch = loader.toNodes(service.getQuickLaunch(sSiteUrl, SharePointQueryUtils.NavigationNode.getTreeOption(iDepth),
+                loader.mChildren), 0);
+        List<Node> topNavigationBar = loader.toNodes(service.getTopNavigationBar(sSiteUrl, SharePointQueryUtils.NavigationNode.getTreeOption(iDepth),
+                loader.mChildren), 0);
+        return new NavigationTree(quickLaunch, topNavigationBar, loader.iRequestCount + 2);
+    }
+
+    private static class Loader {
+
+        private final Service service;
+        private final String sSiteUrl;
+        private final int iDepth;
+        // the children of the nodes expanded in the responses, by node id
+        private final Map<Integer, List<NavigationNode>> mChildren = new HashMap<Integer, List<NavigationNode>>();
+        private int iRequestCount;
+
+        private Loader(Service service, String sSiteUrl, int iDepth) {
+            this.service = service;
+            this.sSiteUrl = sSiteUrl;
+            this.iDepth = iDepth;
+        }
+
+        /**
+         * @param alNavigationNode the nodes of a response, with iDepth levels of children expanded
+         * @param iLevel           the level of the nodes from the top of the response
+         */
+        private List<Node> toNodes(List<NavigationNode> alNavigationNode, int iLevel) throws ServiceException {
+            List<Node> alNode = new ArrayList<Node>();
+            if (alNavigationNode == null) {
+                return alNode;
+            }
+            for (NavigationNode navigationNode : alNavigationNode) {
+                Node node = new Node(navigationNode);
+                List<NavigationNode> alChildren = mChildren.get(navigationNode.getId());
+                if (alChildren != null && !alChildren.isEmpty()) {
+                    if (iLevel < iDepth) {
+                        node.children.addAll(toNodes(alChildren, iLevel + 1));
+                    } else {
+                        // below the expansion depth only the child ids are known, expand from this node again
+                        iRequestCount++;
+                        List<NavigationNode> alChild = service.getNavigationNodeChildren(sSiteUrl, navigationNode.getId(),
+                                SharePointQueryUtils.NavigationNode.getTreeOption(iDepth), mChildren);
+                        node.children.addAll(toNodes(alChild, 0));
+                    }
+                }
+                alNode.add(node);
+            }
+            return alNode;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.BatchRequest;
+import com.independentsoft.share.ListItem;
+import com.independentsoft.share.ListItemIterator;
+import com.independentsoft.share.Role;
+import com.independentsoft.share.RoleAssignment;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+import com.independentsoft.share.ServiceResponseUtil;
+import com.independentsoft.share.queryoptions.IQueryOption;
+import com.independentsoft.share.queryoptions.Select;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Snapshot of the unique permissions of a web, its lists and list items. The items with unique role
+ *              assignments are found by paging Id and HasUniqueRoleAssignments only, their role assignments are
+ *              requested by $batch, and the objects with the same principals and role definitions share one ACL.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-10 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Read the role assignments from their batch part
+ * 2019-11-15 23626  jefferson.brigino Write the member login names and role names of each ACL with length-prefixed strings
+ */
+public class PermissionSnapshot {
+
+    public static final int DEFAULT_PAGE_SIZE = 5000;
+
+    private static final int FILE_VERSION = 2;
+
+    public static class Acl {
+
+        private final int iId;
+        private final List<RoleAssignment> alRoleAssignment;
+        private int iRefCount;
+
+        private Acl(int iId, List<RoleAssignment> alRoleAssignment) {
+            this.iId = iId;
+            this.alRoleAssignment = alRoleAssignment;
+        }
+
+        public int getId() {
+            return iId;
+        }
+
+        /**
+         * @return the role assignments of the first object with this ACL, with Member and RoleDefinitionBindings
+         */
+        public List<RoleAssignment> getRoleAssignments() {
+            return Collections.unmodifiableList(alRoleAssignment);
+        }
+
+        /**
+         * @return number of objects with this ACL
+         */
+        public int getRefCount() {
+            return iRefCount;
+        }
+    }
+
+    private final Service service;
+    private final String sSiteUrl;
+    private int iPageSize = DEFAULT_PAGE_SIZE;
+
+    private final Map<String, Acl> mAclByKey = new HashMap<String, Acl>();
+    private final List<Acl> alAcl = new ArrayList<Acl>();
+    // securable url to ACL id, an object not in the map inherits from its parent
+    private final Map<String, Integer> mAclId = new LinkedHashMap<String, Integer>();
+    private int iRequestCount;
+
+    public PermissionSnapshot(Service service, String sSiteUrl) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sSiteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        this.service = service;
+        this.sSiteUrl = sSiteUrl;
+    }
+
+    public void setPageSize(int iPageSize) {
+        if (iPageSize <= 0) {
+            throw new IllegalArgumentException("The parameter pageSize must be positive.");
+        }
+        this.iPageSize = iPageSize;
+    }
+
+    /**
+     * Adds the web if it has unique role assignments.
+     */
+    public void snapshotWeb(boolean bHasUniqueRoleAssignments) throws ServiceException {
+        if (bHasUniqueRoleAssignments) {
+            fetch(Collections.singletonList(getWebUrl()));
+        }
+    }
+
+    /**
+     * Adds the list and all its items with unique role assignments.
+     *
+     * @param list the list, with HasUniqueRoleAssignments
+     * @throws ServiceException the service exception
+     */
+    public void snapshotList(com.independentsoft.share.List list) throws ServiceException {
+        if (list == null) {
+            throw new IllegalArgumentException("list");
+        }
+
+        List<String> alSecurableUrl = new ArrayList<String>();
+        if (list.hasUniqueRoleAssignments()) {
+            alSecurableUrl.add(getListUrl(list.getId()));
+        }
+
+        // only the flag is requested, the few unique items are then requested by batch
+        List<IQueryOption> queryOptions = new ArrayList<IQueryOption>();
+        queryOptions.add(new Select("Id", "HasUniqueRoleAssignments"));
+        ListItemIterator it = service.getListItemIterator(sSiteUrl, list.getId(), null, queryOptions, iPageSize);
+        int iItemCount = 0;
+        try {
+            while (it.hasNext()) {
+                ListItem listItem = it.next();
+                iItemCount++;
+                if (listItem.hasUniqueRoleAssignments()) {
+                    alSecurableUrl.add(getListItemUrl(list.getId(), listItem.getId()));
+                }
+            }
+            // the last page is the one with less than page size items
+            iRequestCount += iItemCount / iPageSize + 1;
+        } catch (ListItemIterator.ReadException e) {
+            // the iterator reports the request failure unchecked
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw e;
+        } finally {
+            it.close();
+        }
+
+        fetch(alSecurableUrl);
+    }
+
+    /**
+     * @return the ACL id of the list item, or -1 if it inherits
+     */
+    public int getAclId(String sListId, int iItemId) {
+        Integer iAclId = mAclId.get(getListItemUrl(sListId, iItemId));
+        return iAclId == null ? -1 : iAclId;
+    }
+
+    /**
+     * @return the ACL id of the list, or -1 if it inherits
+     */
+    public int getAclId(String sListId) {
+        Integer iAclId = mAclId.get(getListUrl(sListId));
+        return iAclId == null ? -1 : iAclId;
+    }
+
+    /**
+     * @return the ACL id of the web, or -1 if it inherits
+     */
+    public int getWebAclId() {
+        Integer iAclId = mAclId.get(getWebUrl());
+        return iAclId == null ? -1 : iAclId;
+    }
+
+    public Acl getAcl(int iAclId) {
+        return alAcl.get(iAclId);
+    }
+
+    public List<Acl> getAcls() {
+        return Collections.unmodifiableList(alAcl);
+    }
+
+    /**
+     * @return number of objects with unique role assignments
+     */
+    public int getSecurableCount() {
+        return mAclId.size();
+    }
+
+    /**
+     * @return number of requests sent, a batch is counted once
+     */
+    public int getRequestCount() {
+        return iRequestCount;
+    }
+
+    /**
+     * Writes the ACLs once each and the objects with their ACL id. An ACL is written with the login name of each
+     * member and the names of its role definitions, so it can be restored to another site where the ids differ. The
+     * strings are written as the length of the UTF-8 bytes followed by the bytes, -1 for null.
+     *
+     * <pre>
+     * int version
+     * int ACL count, for each ACL:
+     *     int ACL id, int role assignment count, for each role assignment:
+     *         int principal id, string login name, int role count, for each role: int role id, string role name
+     * int object count, for each object: string securable url, int ACL id
+     * </pre>
+     *
+     * @param os the output stream
+     * @throws IOException the IO exception
+     */
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(alAcl.size());
+        for (Acl acl : alAcl) {
+            out.writeInt(acl.iId);
+            out.writeInt(acl.alRoleAssignment.size());
+            for (RoleAssignment roleAssignment : acl.alRoleAssignment) {
+                out.writeInt(roleAssignment.getPrincipalId());
+                writeString(out, roleAssignment.getMember() != null ? roleAssignment.getMember().getLoginName() : null);
+                List<Role> alRole = roleAssignment.getRoleDefinitionBindings() != null
+                        ? roleAssignment.getRoleDefinitionBindings() : Collections.<Role>emptyList();
+                out.writeInt(alRole.size());
+                for (Role role : alRole) {
+                    out.writeInt(role.getId());
+                    writeString(out, role.getName());
+                }
+            }
+        }
+        out.writeInt(mAclId.size());
+        for (Map.Entry<String, Integer> entry : mAclId.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.flush();
+    }
+
+    // not writeUTF(), which is limited to 64KB
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void fetch(List<String> alSecurableUrl) throws ServiceException {
+        int iMaxRequests = new BatchRequest().getMaxRequests();
+        for (int iStart = 0; iStart < alSecurableUrl.size(); iStart += iMaxRequests) {
+            List<String> alBatch = alSecurableUrl.subList(iStart, Math.min(iStart + iMaxRequests, alSecurableUrl.size()));
+            BatchRequest batchRequest = new BatchRequest();
+            List<BatchRequest.HandlerPart<ServiceResponseUtil.RoleAssignmentsHandler>> alPart
+                    = new ArrayList<BatchRequest.HandlerPart<ServiceResponseUtil.RoleAssignmentsHandler>>();
+            for (String sSecurableUrl : alBatch) {
+                alPart.add(batchRequest.addRoleAssignments(sSecurableUrl, SharePointQueryUtils.RoleAssignment.getOption()));
+            }
+            service.executeBatch(sSiteUrl, batchRequest);
+            iRequestCount++;
+
+            for (int i = 0; i < alBatch.size(); i++) {
+                BatchRequest.HandlerPart<ServiceResponseUtil.RoleAssignmentsHandler> part = alPart.get(i);
+                if (!part.isSuccess()) {
+                    throw part.getException();
+                }
+                mAclId.put(alBatch.get(i), getAcl(part.getHandler().getRoleAssignments()).iId);
+            }
+        }
+    }
+
+    private Acl getAcl(List<RoleAssignment> alRoleAssignment) {
+        String sKey = getKey(alRoleAssignment);
+        Acl acl = mAclByKey.get(sKey);
+        if (acl == null) {
+            acl = new Acl(alAcl.size(), alRoleAssignment);
+            mAclByKey.put(sKey, acl);
+            alAcl.add(acl);
+        }
+        acl.iRefCount++;
+        return acl;
+    }
+
+    /**
+     * @return the principals with their role definitions in a canonical order, e.g. "3:1073741829;7:1073741826,1073741827"
+     */
+    private static String getKey(List<RoleAssignment> alRoleAssignment) {
+        List<String> alEntry = new ArrayList<String>();
+        if (alRoleAssignment != null) {
+            for (RoleAssignment roleAssignment : alRoleAssignment) {
+                List<String> alRoleId = new ArrayList<String>();
+                if (roleAssignment.getRoleDefinitionBindings() != null) {
+                    for (Role role : roleAssignment.getRoleDefinitionBindings()) {
+                        alRoleId.add(String.valueOf(role.getId()));
+                    }
+                }
+                Collections.sort(alRoleId);
+                StringBuilder sb = new StringBuilder();
+                sb.append(roleAssignment.getPrincipalId()).append(':');
+                for (int i = 0; i < alRoleId.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(alRoleId.get(i));
+                }
+                alEntry.add(sb.toString());
+            }
+        }
+        Collections.sort(alEntry);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < alEntry.size(); i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append(alEntry.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static String getWebUrl() {
+        return "_api/web";
+    }
+
+    private static String getListUrl(String sListId) {
+        return "_api/web/lists('" + sListId + "')";
+    }
+
+    private static String getListItemUrl(String sListId, int iItemId) {
+        return getListUrl(sListId) + "/items(" + iItemId + ")";
+    }
+}
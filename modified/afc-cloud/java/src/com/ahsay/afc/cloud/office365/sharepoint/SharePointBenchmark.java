@@ -0,0 +1,238 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.BatchRequest;
+import com.independentsoft.share.FileDownloader;
+import com.independentsoft.share.LatencyHistogramListener;
+import com.independentsoft.share.ListItem;
+import com.independentsoft.share.Service;
+import com.independentsoft.share.Site;
+import com.independentsoft.share.queryoptions.IFilterRestriction;
+import com.independentsoft.share.queryoptions.IQueryOption;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Micro-benchmark of the request path of Service against MockSharePointServer, to be run offline next
+ *              to SharePointUnitTest. It measures the query options of SharePointQueryUtils, getSite with the Atom
+ *              and the JSON light parser, a page of list items, $batch and a ranged file download. Then it measures
+ *              the throughput of concurrent threads under the concurrency limit of the tenant. Each case is warmed up
+ *              before it is measured. The time and the allocated bytes per operation are printed, followed by the
+ *              latency of each operation from LatencyHistogramListener.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class SharePointBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+    private static final int BATCH_SIZE = 20;
+
+    // keeps the results of the cases used, so they are not optimized away
+    private static long lSink;
+
+    private interface Task {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * @param args iterations per case, threads of the concurrent case, throttle rate of the server, latency of the
+     *             server in ms
+     */
+    public static void main(String[] args) throws Exception {
+        int iIterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double dThrottleRate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        int iLatencyMs = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        MockSharePointServer server = new MockSharePointServer();
+        server.setListCount(4);
+        server.setItemCount(10 * PAGE_SIZE);
+        server.setFileSize(4 * 1024 * 1024);
+        server.setLatency(iLatencyMs, iLatencyMs);
+        server.setThreads(Math.max(32, iThreads));
+        server.start(0);
+        File fTemp = File.createTempFile("SharePointBenchmark", ".bin");
+        try {
+            final String sSiteUrl = server.getSiteUrl();
+            final String sListId = server.getListId(0);
+            LatencyHistogramListener listener = new LatencyHistogramListener();
+            Service.Callback callback = new Service.Callback();
+            callback.setRequestListener(listener);
+            final Service service = new Service(sSiteUrl, "benchmark", "benchmark", null, callback);
+            System.out.println("[SharePointBenchmark] " + sSiteUrl + ", iterations=" + iIterations + ", threads=" + iThreads
+                    + ", throttleRate=" + dThrottleRate + ", latencyMs=" + iLatencyMs);
+
+            measure("SharePointQueryUtils.Site.getOption", iIterations * 100, new Task() {
+                @Override
+                public void run() {
+                    lSink += SharePointQueryUtils.Site.getOption(SharePointQueryUtils.MODE_DETAIL).size();
+                }
+            });
+            measure("SharePointQueryUtils.ListItem.getPaginationOption", iIterations * 100, new Task() {
+                @Override
+                public void run() {
+                    lSink += SharePointQueryUtils.ListItem.getPaginationOption(PAGE_SIZE, PAGE_SIZE,
+                            new ArrayList<IFilterRestriction>()).size();
+                }
+            });
+
+            final List<IQueryOption> alSiteOption = SharePointQueryUtils.Site.getOption(SharePointQueryUtils.MODE_OVERVIEW);
+            measure("getSite (Atom)", iIterations, new Task() {
+                @Override
+                public void run() throws Exception {
+                    Site site = service.getSite(sSiteUrl, alSiteOption);
+                    lSink += site.getId() == null ? 0 : 1;
+                }
+            });
+            service.setJsonLight(true);
+            measure("getSite (JSON light)", iIterations, new Task() {
+                @Override
+                public void run() throws Exception {
+                    Site site = service.getSite(sSiteUrl, alSiteOption);
+                    lSink += site.getId() == null ? 0 : 1;
+                }
+            });
+            service.setJsonLight(false);
+
+            measure("getListItems (" + PAGE_SIZE + " items)", iIterations / 10, new Task() {
+                @Override
+                public void run() throws Exception {
+                    lSink += getListItems(service, sSiteUrl, sListId).size();
+                }
+            });
+
+            measure("executeBatch (" + BATCH_SIZE + " items)", iIterations / 10, new Task() {
+                @Override
+                public void run() throws Exception {
+                    BatchRequest batchRequest = new BatchRequest();
+                    for (int i = 1; i <= BATCH_SIZE; i++) {
+                        batchRequest.addListItem(sListId, i, new ArrayList<IQueryOption>());
+                    }
+                    if (!service.executeBatch(sSiteUrl, batchRequest)) {
+                        throw new IllegalStateException("Batch failed");
+                    }
+                    lSink += batchRequest.size();
+                }
+            });
+
+            final RandomAccessFile raf = new RandomAccessFile(fTemp, "rw");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final String sFileUrl = server.getFileUrl(0, 1);
+                final long lFileSize = 4 * 1024 * 1024;
+                final FileDownloader downloader = new FileDownloader(service, sSiteUrl);
+                downloader.setSegmentSize(lFileSize / 4);
+                downloader.setThreads(4);
+                measure("FileDownloader.download (4MB, 4 ranges)", Math.max(1, iIterations / 100), new Task() {
+                    @Override
+                    public void run() throws Exception {
+                        lSink += downloader.download(sFileUrl, channel, 0, lFileSize);
+                    }
+                });
+            } finally {
+                raf.close();
+            }
+
+            listener.reset();
+            server.setThrottle(dThrottleRate, 1);
+            service.setThrottleEnabled(true);
+            service.getThrottleController(sSiteUrl).setLimits(1, iThreads);
+            measureConcurrent("getListItems, " + iThreads + " threads", iIterations, iThreads, new Task() {
+                @Override
+                public void run() throws Exception {
+                    if (getListItems(service, sSiteUrl, sListId).isEmpty()) {
+                        throw new IllegalStateException("No list items");
+                    }
+                }
+            });
+            System.out.println(service.getThrottleController(sSiteUrl));
+
+            listener.dump(System.out);
+            System.out.println("[SharePointBenchmark] requests=" + server.getRequestCount() + ", throttled="
+                    + server.getThrottledCount() + ", batchParts=" + server.getBatchPartCount() + ", sink=" + lSink);
+        } finally {
+            server.stop();
+            fTemp.delete();
+        }
+    }
+
+    private static List<ListItem> getListItems(Service service, String sSiteUrl, String sListId) throws Exception {
+        return service.getListItems(sSiteUrl, sListId,
+                SharePointQueryUtils.ListItem.getPaginationOption(PAGE_SIZE, new ArrayList<IFilterRestriction>()));
+    }
+
+    private static void measure(String sName, int iIterations, Task task) throws Exception {
+        iIterations = Math.max(1, iIterations);
+        // warm up the JIT and the connections
+        for (int i = 0; i < Math.max(1, iIterations / 5); i++) {
+            task.run();
+        }
+        long lAllocated = getAllocatedBytes();
+        long lStart = System.nanoTime();
+        for (int i = 0; i < iIterations; i++) {
+            task.run();
+        }
+        long lElapsed = System.nanoTime() - lStart;
+        lAllocated = lAllocated < 0 ? -1 : getAllocatedBytes() - lAllocated;
+        print(sName, iIterations, lElapsed, lAllocated);
+    }
+
+    private static void measureConcurrent(String sName, int iIterations, int iThreads, final Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(iThreads);
+        try {
+            final int iPerThread = Math.max(1, iIterations / iThreads);
+            List<Future<Object>> alFuture = new ArrayList<Future<Object>>();
+            long lStart = System.nanoTime();
+            for (int i = 0; i < iThreads; i++) {
+                alFuture.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int j = 0; j < iPerThread; j++) {
+                            task.run();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : alFuture) {
+                future.get();
+            }
+            print(sName, iPerThread * iThreads, System.nanoTime() - lStart, -1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void print(String sName, int iIterations, long lElapsedNs, long lAllocated) {
+        System.out.println(String.format("%-50s %8d ops %12.1f us/op %10.0f ops/s %12s B/op", sName, iIterations,
+                lElapsedNs / 1000.0 / iIterations, iIterations * 1e9 / lElapsedNs,
+                lAllocated < 0 ? "n/a" : String.valueOf(lAllocated / iIterations)));
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or -1 if not supported by the JVM
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -26,6 +26,11 @@ import java.util.ArrayList;
  * 2019-07-15 24258  nicholas.leung   Support to load complete info only when required
  * 2019-09-19 25054  terry.li         Load all info on user information list
  * 2019-10-19 23626  jefferson.brigino Added new fields Title, SiteLogoUrl, QuickLaunchEnabled, TreeViewEnabled to support restore
+ * 2019-10-21 23626  jefferson.brigino Added Id select option to locate the Id span for range enumeration
+ * 2019-11-03 23626  jefferson.brigino Added navigation tree option to expand multiple levels of children
+ * 2019-11-06 23626  jefferson.brigino Reuse the query options built once per entity, mode and list shape
+ * 2019-11-15 23626  jefferson.brigino Keep the field names of the query options only, key the list item options by the external data fields
+ * 2019-11-15 23626  jefferson.brigino Build the query options for each call again, the reused templates cost more than building them
  */
 public class SharePointQueryUtils {
 
@@ -346,6 +351,12 @@ public class SharePointQueryUtils {
             return queryOptions;
         }
 
+        // [Start] 23626: Select Id only when locating the Id span for range enumeration
+        public static IQueryOption getIdSelectOption() {
+            return new Select("Id");
+        }
+        // [End] 23626
+
         public static ArrayList<IQueryOption> getPaginationOption(int iLastItemId, int iSize, ArrayList<IFilterRestriction> alRestriction) {
             if (iLastItemId >= 0) {
                 alRestriction.add(new IsGreaterThan("Id", iLastItemId));
@@ -606,6 +617,29 @@ public class SharePointQueryUtils {
             queryOptions.add(new Select(new String[]{"*", "Children/Id"}));
             return queryOptions;
         }
+
+        // [Start] 23626: Expand multiple levels of children to get the navigation tree in one request
+        /**
+         * @param iDepth number of levels of children with all properties, the level below selects Id only to tell
+         *               which nodes have more children
+         */
+        public static ArrayList<IQueryOption> getTreeOption(int iDepth) {
+            ArrayList<IQueryOption> queryOptions = new ArrayList<IQueryOption>();
+
+            String[] aExpand = new String[iDepth + 1];
+            String[] aSelect = new String[iDepth + 2];
+            aSelect[0] = "*";
+            String sPath = "Children";
+            for (int i = 0; i <= iDepth; i++) {
+                aExpand[i] = sPath;
+                aSelect[i + 1] = sPath + (i < iDepth ? "/*" : "/Id");
+                sPath += "/Children";
+            }
+            queryOptions.add(new Expand(aExpand));
+            queryOptions.add(new Select(aSelect));
+            return queryOptions;
+        }
+        // [End] 23626
     }
 
     // [Start] 24258: Support role options control
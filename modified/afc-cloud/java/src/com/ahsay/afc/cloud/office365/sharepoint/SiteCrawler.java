@@ -0,0 +1,195 @@
+package com.ahsay.afc.cloud.office365.sharepoint;
+
+import com.independentsoft.share.Service;
+import com.independentsoft.share.ServiceException;
+import com.independentsoft.share.Site;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Discover the site collections of the tenant and their subsites. The Webs of each site are requested
+ *              on a pool as soon as the site is found, so the discovery of the branches runs concurrently, and the
+ *              sites are passed to the listener as they arrive. The requests to the tenant are still limited by its
+ *              ThrottleController if enabled by Service.setThrottleEnabled().
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-01 23626  jefferson.brigino Created
+ */
+public class SiteCrawler {
+
+    public static final int DEFAULT_THREADS = 8;
+
+    public interface Listener {
+
+        /**
+         * Called on the thread that invoked {@link #crawl(Listener)} for every site discovered, once per url.
+         *
+         * @param site   the site, only url and web template are set for a site collection from search
+         * @param iDepth 0 for site collection, 1 for its subsites and so on
+         * @throws Exception to stop the crawl
+         */
+        void onSite(Site site, int iDepth) throws Exception;
+
+        /**
+         * Called on the thread that invoked {@link #crawl(Listener)} if the subsites of a site cannot be listed.
+         * The crawl continues with the other sites.
+         *
+         * @param sSiteUrl the site url
+         * @param e        the error
+         */
+        void onError(String sSiteUrl, ServiceException e);
+    }
+
+    private static final Object END = new Object();
+
+    private final Service service;
+    private final String sRootUrl;
+    private int iThreads = DEFAULT_THREADS;
+    private boolean bSiteCollections = true;
+
+    /**
+     * @param service  the service
+     * @param sRootUrl the tenant root url, or the url of the site collection to crawl
+     */
+    public SiteCrawler(Service service, String sRootUrl) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (sRootUrl == null) {
+            throw new IllegalArgumentException("rootUrl");
+        }
+        this.service = service;
+        this.sRootUrl = sRootUrl;
+    }
+
+    public void setThreads(int iThreads) {
+        if (iThreads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.iThreads = iThreads;
+    }
+
+    /**
+     * @param bSiteCollections true to crawl all site collections of the tenant by search, false to crawl the root
+     *                         url only
+     */
+    public void setSiteCollections(boolean bSiteCollections) {
+        this.bSiteCollections = bSiteCollections;
+    }
+
+    public void crawl(Listener listener) throws Exception {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener");
+        }
+
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+        final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger pending = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(iThreads);
+        try {
+            List<Site> alSiteCollection;
+            if (bSiteCollections) {
+                alSiteCollection = service.getSiteCollections(sRootUrl);
+            } else {
+                alSiteCollection = Collections.singletonList(service.getSite(sRootUrl, null));
+            }
+            // hold one count until all site collections are submitted, so an early finished task does not end the crawl
+            pending.incrementAndGet();
+            for (Site site : alSiteCollection) {
+                if (site != null && site.getUrl() != null && visited.add(normalizeUrl(site.getUrl()))) {
+                    queue.put(new Found(site, 0));
+                    submit(executor, queue, visited, pending, site.getUrl(), 1);
+                }
+            }
+            if (pending.decrementAndGet() == 0) {
+                queue.put(END);
+            }
+
+            while (true) {
+                Object o = queue.take();
+                if (o == END) {
+                    break;
+                }
+                if (o instanceof Found) {
+                    Found found = (Found) o;
+                    listener.onSite(found.site, found.iDepth);
+                } else {
+                    Failed failed = (Failed) o;
+                    listener.onError(failed.sSiteUrl, failed.exception);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submit(final ExecutorService executor, final BlockingQueue<Object> queue, final Set<String> visited,
+                        final AtomicInteger pending, final String sSiteUrl, final int iDepth) {
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<Site> alSite = service.getSites(sSiteUrl, null);
+                    if (alSite != null) {
+                        for (Site site : alSite) {
+                            if (site.getUrl() == null || !visited.add(normalizeUrl(site.getUrl()))) {
+                                continue;
+                            }
+                            queue.put(new Found(site, iDepth));
+                            submit(executor, queue, visited, pending, site.getUrl(), iDepth + 1);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ServiceException e) {
+                    queue.offer(new Failed(sSiteUrl, e));
+                } catch (Throwable t) {
+                    queue.offer(new Failed(sSiteUrl, new ServiceException(t.getMessage(), t)));
+                } finally {
+                    // children are counted before the parent is done, so 0 means the whole tree is done
+                    if (pending.decrementAndGet() == 0) {
+                        queue.offer(END);
+                    }
+                }
+            }
+        });
+    }
+
+    private static String normalizeUrl(String sUrl) {
+        String s = sUrl.toLowerCase();
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static class Found {
+
+        private final Site site;
+        private final int iDepth;
+
+        private Found(Site site, int iDepth) {
+            this.site = site;
+            this.iDepth = iDepth;
+        }
+    }
+
+    private static class Failed {
+
+        private final String sSiteUrl;
+        private final ServiceException exception;
+
+        private Failed(String sSiteUrl, ServiceException exception) {
+            this.sSiteUrl = sSiteUrl;
+            this.exception = exception;
+        }
+    }
+}
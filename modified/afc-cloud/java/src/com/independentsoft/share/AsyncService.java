@@ -0,0 +1,233 @@
+package com.independentsoft.share;
+
+import com.independentsoft.share.queryoptions.IQueryOption;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Asynchronous variants of the frequently used Service methods. The requests are run on a shared pool
+ *              and the result is returned by Future and / or Callback, so the caller thread can keep many requests
+ *              in flight. The number of requests sent to a tenant is still limited by its ThrottleController if
+ *              enabled by Service.setThrottleEnabled().
+ *
+ *              The requests are not non-blocking I/O: ServiceInstance sends them by the blocking HTTP client, and
+ *              there is no asynchronous HTTP client or CompletableFuture on Java 6. Each request in flight takes a
+ *              pool thread until its response is read, so the pool size is the number of requests in flight. The
+ *              pool is sized by the maximum limit of the ThrottleController of the tenant, more threads would only
+ *              wait in its queue.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-28 23626  jefferson.brigino Created
+ * 2019-11-16 23626  jefferson.brigino Size the pool by the limit of the tenant, state the requests are blocking
+ */
+public class AsyncService {
+
+    // the default maximum limit of a tenant
+    public static final int DEFAULT_THREADS = ThrottleController.DEFAULT_MAX_LIMIT;
+
+    public interface Callback<T> {
+
+        /**
+         * Called on a pool thread when the request is completed.
+         *
+         * @param result the result
+         */
+        void onCompleted(T result);
+
+        /**
+         * Called on a pool thread when the request fails.
+         *
+         * @param e the error
+         */
+        void onFailed(ServiceException e);
+    }
+
+    private final Service service;
+    private final ExecutorService executor;
+    private final boolean isOwnExecutor;
+
+    public AsyncService(Service service) {
+        this(service, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param service the service
+     * @param siteUrl the site url of the tenant, the pool has a thread per request allowed by its ThrottleController
+     */
+    public AsyncService(Service service, String siteUrl) {
+        this(service, ThrottleController.getInstance(siteUrl).getMaxLimit());
+    }
+
+    /**
+     * @param service the service
+     * @param threads the number of threads of the pool, which is the number of requests in flight
+     */
+    public AsyncService(Service service, int threads) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.service = service;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AsyncService-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.isOwnExecutor = true;
+    }
+
+    /**
+     * @param service  the service
+     * @param executor the executor to run the requests, which is not shut down by this class
+     */
+    public AsyncService(Service service, ExecutorService executor) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor");
+        }
+        this.service = service;
+        this.executor = executor;
+        this.isOwnExecutor = false;
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public Future<List<ListItem>> getListItems(final String siteUrl, final String listId, final List<IQueryOption> queryOptions,
+                                               Callback<List<ListItem>> callback) {
+        return submit(new Callable<List<ListItem>>() {
+            @Override
+            public List<ListItem> call() throws Exception {
+                return service.getListItems(siteUrl, listId, queryOptions);
+            }
+        }, callback);
+    }
+
+    public Future<List<Folder>> getFolders(final String siteUrl, final String parentFolder, final List<IQueryOption> queryOptions,
+                                           Callback<List<Folder>> callback) {
+        return submit(new Callable<List<Folder>>() {
+            @Override
+            public List<Folder> call() throws Exception {
+                return service.getFolders(siteUrl, parentFolder, queryOptions);
+            }
+        }, callback);
+    }
+
+    public Future<List<File>> getFiles(final String siteUrl, final String folderPath, final List<IQueryOption> queryOptions,
+                                       Callback<List<File>> callback) {
+        return submit(new Callable<List<File>>() {
+            @Override
+            public List<File> call() throws Exception {
+                return service.getFiles(siteUrl, folderPath, queryOptions);
+            }
+        }, callback);
+    }
+
+    public Future<List<RoleAssignment>> getRoleAssignments(final String siteUrl, final List<IQueryOption> queryOptions,
+                                                           Callback<List<RoleAssignment>> callback) {
+        return submit(new Callable<List<RoleAssignment>>() {
+            @Override
+            public List<RoleAssignment> call() throws Exception {
+                return service.getRoleAssignments(siteUrl, queryOptions);
+            }
+        }, callback);
+    }
+
+    /**
+     * Gets the file stream. The caller must close the stream returned.
+     */
+    public Future<InputStream> getFileStream(final String siteUrl, final String filePath, Callback<InputStream> callback) {
+        return submit(new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws Exception {
+                return service.getFileStream(siteUrl, filePath);
+            }
+        }, callback);
+    }
+
+    /**
+     * Runs any Service call asynchronously.
+     *
+     * @param task     the task calling the service
+     * @param callback the callback, may be null
+     * @return the future of the result
+     */
+    public <T> Future<T> submit(Callable<T> task, final Callback<T> callback) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (callback == null) {
+                    return;
+                }
+                try {
+                    callback.onCompleted(get());
+                } catch (CancellationException e) {
+                    callback.onFailed(new ServiceException("Request cancelled", e));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    callback.onFailed(new ServiceException(e.getMessage(), e));
+                } catch (ExecutionException e) {
+                    callback.onFailed(toServiceException(e.getCause()));
+                }
+            }
+        };
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Gets the result of a future, unwrapping the ServiceException thrown by the request.
+     *
+     * @param future the future returned by this class
+     * @return the result
+     * @throws ServiceException the service exception
+     */
+    public static <T> T getResult(Future<T> future) throws ServiceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            throw toServiceException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        if (isOwnExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static ServiceException toServiceException(Throwable t) {
+        if (t instanceof ServiceException) {
+            return (ServiceException) t;
+        }
+        return new ServiceException(t.getMessage(), t);
+    }
+}
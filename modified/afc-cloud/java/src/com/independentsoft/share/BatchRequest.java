@@ -0,0 +1,324 @@
+package com.independentsoft.share;
+
+import com.independentsoft.share.queryoptions.IQueryOption;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Collection of requests to be sent through _api/$batch. Each request keeps the response handler
+ *              which parses its part of the batch response, see Service.executeBatch().
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-24 23626  jefferson.brigino Created
+ * 2019-10-25 23626  jefferson.brigino Support write operations in changesets with per operation result
+ * 2019-11-10 23626  jefferson.brigino Added role assignments of any securable object
+ * 2019-11-15 23626  jefferson.brigino Return the part with its typed handler from the typed adders
+ * 2019-11-16 23626  jefferson.brigino Added to create a list item with the created item parsed by the handler of the part
+ */
+public class BatchRequest {
+
+    public static final int DEFAULT_MAX_REQUESTS = 100;
+    // SharePoint rejects a changeset with more than 100 operations
+    public static final int MAX_CHANGESET_SIZE = 100;
+
+    public static class Part {
+
+        private final String method;
+        private final String requestUrl;
+        private final Map<String, String> headers;
+        private final String body;
+        private final ServiceResponseUtil.ResponseHandler handler;
+        private int statusCode = -1;
+        private String responseBody;
+        private ServiceException exception;
+
+        private Part(String method, String requestUrl, Map<String, String> headers, String body, ServiceResponseUtil.ResponseHandler handler) {
+            this.method = method;
+            this.requestUrl = requestUrl;
+            this.headers = headers;
+            this.body = body;
+            this.handler = handler;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public boolean isGet() {
+            return "GET".equals(method);
+        }
+
+        public String getRequestUrl() {
+            return requestUrl;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * @return the handler of the response, or null if the response body is kept as string
+         */
+        public ServiceResponseUtil.ResponseHandler getHandler() {
+            return handler;
+        }
+
+        /**
+         * @return the response body if there is no handler
+         */
+        public String getResponseBody() {
+            return responseBody;
+        }
+
+        /**
+         * @return the HTTP status of the part, or -1 if the part has not been executed
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return the error of the part, or null if the part is parsed successfully
+         */
+        public ServiceException getException() {
+            return exception;
+        }
+
+        public boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300 && exception == null;
+        }
+
+        void setResult(int statusCode, ServiceException exception) {
+            this.statusCode = statusCode;
+            this.exception = exception;
+        }
+
+        void setResponseBody(String responseBody) {
+            this.responseBody = responseBody;
+        }
+    }
+
+    /**
+     * Part with a typed handler, so the parsed result and the status of a request are kept together.
+     */
+    public static class HandlerPart<T extends ServiceResponseUtil.ResponseHandler>
+            extends Part {
+
+        private HandlerPart(String method, String requestUrl, Map<String, String> headers, String body, T handler) {
+            super(method, requestUrl, headers, body, handler);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T getHandler() {
+            return (T) super.getHandler();
+        }
+    }
+
+    private final List<Part> parts = new ArrayList<Part>();
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxChangeSetSize = MAX_CHANGESET_SIZE;
+
+    public BatchRequest() {
+    }
+
+    /**
+     * @param maxRequests maximum number of requests sent in one $batch call, larger batches are split
+     */
+    public BatchRequest(int maxRequests) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("The parameter maxRequests must be positive.");
+        }
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Adds a GET request.
+     *
+     * @param requestUrl the request url relative to the site url, e.g. _api/web/lists('id')/items(1)
+     * @param handler    the handler to parse the response of this request
+     * @return the part which holds the result after execution
+     */
+    public <T extends ServiceResponseUtil.ResponseHandler> HandlerPart<T> add(String requestUrl, T handler) {
+        if (requestUrl == null) {
+            throw new IllegalArgumentException("requestUrl");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+        Map<String, String> mHdr = new LinkedHashMap<String, String>();
+        mHdr.put("Accept", "application/atom+xml");
+        HandlerPart<T> part = new HandlerPart<T>("GET", requestUrl, mHdr, null, handler);
+        parts.add(part);
+        return part;
+    }
+
+    /**
+     * Adds a write operation. Consecutive write operations are sent in the same changeset.
+     *
+     * @param method     the HTTP method, e.g. POST, MERGE, DELETE
+     * @param requestUrl the request url relative to the site url
+     * @param body       the JSON request body, may be null
+     * @param etag       the If-Match value, may be null
+     * @param handler    the handler to parse the response, or null to keep the response body as string
+     * @return the part which holds the result after execution
+     */
+    public Part addOperation(String method, String requestUrl, String body, String etag, ServiceResponseUtil.ResponseHandler handler) {
+        if (method == null) {
+            throw new IllegalArgumentException("method");
+        }
+        if (requestUrl == null) {
+            throw new IllegalArgumentException("requestUrl");
+        }
+        Part part = new Part(method, requestUrl, getOperationHeaders(body, etag, handler != null), body, handler);
+        parts.add(part);
+        return part;
+    }
+
+    public Part addCreateListItem(String listId, String listItemJson) {
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        return addOperation("POST", "_api/web/lists('" + listId + "')/items", listItemJson, null, null);
+    }
+
+    /**
+     * Adds the creation of a list item, the created item is parsed by the handler.
+     *
+     * @param listId       the list id
+     * @param listItemJson the JSON request body of the list item
+     * @param handler      the handler to parse the created item, e.g. ServiceResponseUtil.ListItemHandler
+     * @return the part which holds the result after execution
+     */
+    public <T extends ServiceResponseUtil.ResponseHandler> HandlerPart<T> addCreateListItem(String listId, String listItemJson, T handler) {
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+        HandlerPart<T> part = new HandlerPart<T>("POST", "_api/web/lists('" + listId + "')/items",
+                getOperationHeaders(listItemJson, null, true), listItemJson, handler);
+        parts.add(part);
+        return part;
+    }
+
+    public Part addDeleteListItem(String listId, int itemId) {
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        return addOperation("DELETE", "_api/web/lists('" + listId + "')/items(" + itemId + ")", null, "*", null);
+    }
+
+    public HandlerPart<ServiceResponseUtil.ListItemHandler> addListItem(String listId, int itemId, List<IQueryOption> queryOptions) {
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        ServiceResponseUtil.ListItemHandler handler = new ServiceResponseUtil.ListItemHandler();
+        return add("_api/web/lists('" + listId + "')/items(" + itemId + ")" + toQueryString(queryOptions), handler);
+    }
+
+    public HandlerPart<ServiceResponseUtil.ListFieldValuesHandler> addFieldValuesAsHtml(String listId, int itemId, List<IQueryOption> queryOptions) {
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        ServiceResponseUtil.ListFieldValuesHandler handler = new ServiceResponseUtil.ListFieldValuesHandler();
+        return add("_api/web/lists('" + listId + "')/items(" + itemId + ")/FieldValuesAsHTML" + toQueryString(queryOptions), handler);
+    }
+
+    public HandlerPart<ServiceResponseUtil.FileVersionsHandler> addFileVersions(String filePath, List<IQueryOption> queryOptions) {
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath");
+        }
+        ServiceResponseUtil.FileVersionsHandler handler = new ServiceResponseUtil.FileVersionsHandler();
+        // same form as Service.getFileVersions() to support % and # in file path
+        StringBuilder requestUrl = new StringBuilder("_api/web/GetFileByServerRelativePath(decodedUrl=@v)/Versions?@v='" + Util.encodeUrl(Util.escapeQueryUrl(filePath)) + "'");
+        String sQuery = toQueryString(queryOptions);
+        if (sQuery.length() > 0) {
+            requestUrl.append("&");
+            requestUrl.append(sQuery);
+        }
+        return add(requestUrl.toString(), handler);
+    }
+
+    public HandlerPart<ServiceResponseUtil.RoleAssignmentHandler> addRoleAssignment(int iPrincipalId, List<IQueryOption> queryOptions) {
+        ServiceResponseUtil.RoleAssignmentHandler handler = new ServiceResponseUtil.RoleAssignmentHandler();
+        return add("_api/web/roleassignments/GetByPrincipalId('" + iPrincipalId + "')" + toQueryString(queryOptions), handler);
+    }
+
+    /**
+     * @param securableUrl the url of the securable object, e.g. _api/web/lists('id')/items(1)
+     */
+    public HandlerPart<ServiceResponseUtil.RoleAssignmentsHandler> addRoleAssignments(String securableUrl, List<IQueryOption> queryOptions) {
+        if (securableUrl == null) {
+            throw new IllegalArgumentException("securableUrl");
+        }
+        ServiceResponseUtil.RoleAssignmentsHandler handler = new ServiceResponseUtil.RoleAssignmentsHandler();
+        return add(securableUrl + "/roleassignments" + toQueryString(queryOptions), handler);
+    }
+
+    public List<Part> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    public int size() {
+        return parts.size();
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getMaxChangeSetSize() {
+        return maxChangeSetSize;
+    }
+
+    public void setMaxChangeSetSize(int maxChangeSetSize) {
+        if (maxChangeSetSize <= 0 || maxChangeSetSize > MAX_CHANGESET_SIZE) {
+            throw new IllegalArgumentException("The parameter maxChangeSetSize must be between 1 and " + MAX_CHANGESET_SIZE + ".");
+        }
+        this.maxChangeSetSize = maxChangeSetSize;
+    }
+
+    /**
+     * @return true if every part is executed and parsed successfully
+     */
+    public boolean isSuccess() {
+        for (Part part : parts) {
+            if (!part.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> getOperationHeaders(String body, String etag, boolean bParsed) {
+        Map<String, String> mHdr = new LinkedHashMap<String, String>();
+        if (bParsed) {
+            mHdr.put("Accept", "application/atom+xml");
+        }
+        if (body != null) {
+            mHdr.put("Content-Type", "application/json;odata=verbose");
+        }
+        if (etag != null) {
+            mHdr.put("If-Match", etag);
+        }
+        return mHdr;
+    }
+
+    private static String toQueryString(List<IQueryOption> queryOptions) {
+        StringBuilder sbQuery = new StringBuilder("");
+        Util.queryOptionsToString(sbQuery, queryOptions);
+        return sbQuery.toString();
+    }
+}
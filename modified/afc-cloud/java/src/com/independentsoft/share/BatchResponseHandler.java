@@ -0,0 +1,188 @@
+package com.independentsoft.share;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Split the multipart/mixed response of a $batch call and pass the body of each part to the handler
+ *              of the matching request. A failed part is recorded on the part and does not fail the other parts.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-24 23626  jefferson.brigino Created
+ * 2019-10-25 23626  jefferson.brigino Handle changeset responses
+ * 2019-11-16 23626  jefferson.brigino Measure the response stream of the request, record the parse of the parts
+ */
+class BatchResponseHandler
+        extends ServiceResponseUtil.ResponseHandler {
+
+    private static final String CRLF = "\r\n";
+
+    private final String siteUrl;
+    // one group per top level part of the request, i.e. a single GET or all the operations of a changeset
+    private final List<List<BatchRequest.Part>> groups;
+
+    BatchResponseHandler(String siteUrl, List<List<BatchRequest.Part>> groups) {
+        this.siteUrl = siteUrl;
+        this.groups = groups;
+    }
+
+    @Override
+    public void handle(InputStream is) throws Exception {
+        String sResponse = readString(RequestMetrics.measure(is));
+
+        // the response boundary is the first line, e.g. --batchresponse_6c1ab1f4-...
+        int iLineEnd = sResponse.indexOf(CRLF);
+        if (!sResponse.startsWith("--") || iLineEnd < 0) {
+            throw new ServiceException("Invalid batch response", null, siteUrl);
+        }
+        long lStart = System.nanoTime();
+        List<String> alPart = splitParts(sResponse, sResponse.substring(2, iLineEnd));
+
+        int iGroup = 0;
+        for (; iGroup < groups.size() && iGroup < alPart.size(); iGroup++) {
+            handleGroup(groups.get(iGroup), alPart.get(iGroup));
+        }
+
+        // the server stops at the first failed changeset, the rest of the requests are not executed
+        for (; iGroup < groups.size(); iGroup++) {
+            for (BatchRequest.Part part : groups.get(iGroup)) {
+                part.setResult(-1, new ServiceException("No response in batch", null, part.getRequestUrl()));
+            }
+        }
+        EventRecorder.recordParse("BatchResponseHandler.handle", siteUrl, lStart);
+    }
+
+    private void handleGroup(List<BatchRequest.Part> group, String sPart) {
+        int iHeaderEnd = sPart.indexOf(CRLF + CRLF);
+        String sHeader = iHeaderEnd < 0 ? sPart : sPart.substring(0, iHeaderEnd);
+        String sBoundary = getMultipartBoundary(sHeader);
+        if (sBoundary == null) {
+            // a single response, or the error response of the whole changeset
+            for (BatchRequest.Part part : group) {
+                handlePart(part, sPart);
+            }
+            return;
+        }
+
+        List<String> alPart = splitParts(sPart.substring(iHeaderEnd + CRLF.length() * 2), sBoundary);
+        for (int i = 0; i < group.size(); i++) {
+            BatchRequest.Part part = group.get(i);
+            if (i < alPart.size()) {
+                handlePart(part, alPart.get(i));
+            } else {
+                part.setResult(-1, new ServiceException("No response in changeset", null, part.getRequestUrl()));
+            }
+        }
+    }
+
+    private void handlePart(BatchRequest.Part part, String sPart) {
+        // MIME headers of the part, then the HTTP response: status line, headers and body
+        int iHttpStart = sPart.indexOf(CRLF + CRLF);
+        if (iHttpStart < 0) {
+            part.setResult(-1, new ServiceException("Invalid batch response part", null, part.getRequestUrl()));
+            return;
+        }
+        String sHttp = sPart.substring(iHttpStart + CRLF.length() * 2);
+        int iStatusEnd = sHttp.indexOf(CRLF);
+        String sStatusLine = iStatusEnd < 0 ? sHttp : sHttp.substring(0, iStatusEnd);
+        int iStatusCode = getStatusCode(sStatusLine);
+        int iBodyStart = sHttp.indexOf(CRLF + CRLF);
+        String sBody = iBodyStart < 0 ? "" : sHttp.substring(iBodyStart + CRLF.length() * 2);
+
+        if (iStatusCode < 200 || iStatusCode >= 300) {
+            part.setResponseBody(sBody);
+            part.setResult(iStatusCode, new ServiceException(sStatusLine + ": " + sBody, null, part.getRequestUrl()));
+            return;
+        }
+        if (part.getHandler() == null) {
+            part.setResponseBody(sBody);
+            part.setResult(iStatusCode, null);
+            return;
+        }
+        try {
+            part.getHandler().handle(new ByteArrayInputStream(sBody.getBytes("UTF-8")));
+            part.setResult(iStatusCode, null);
+        } catch (Throwable t) {
+            ServiceException e = t instanceof ServiceException ? (ServiceException) t
+                    : new ServiceException(t.getMessage(), t, part.getRequestUrl());
+            part.setResult(iStatusCode, e);
+        }
+    }
+
+    private static List<String> splitParts(String sMultipart, String sBoundary) {
+        List<String> alPart = new ArrayList<String>();
+        String sDelimiter = "--" + sBoundary;
+        int iStart = sMultipart.indexOf(sDelimiter);
+        while (iStart >= 0) {
+            iStart += sDelimiter.length();
+            if (sMultipart.startsWith("--", iStart)) {
+                // close delimiter
+                break;
+            }
+            iStart = sMultipart.indexOf(CRLF, iStart);
+            if (iStart < 0) {
+                break;
+            }
+            iStart += CRLF.length();
+            int iEnd = sMultipart.indexOf(CRLF + sDelimiter, iStart);
+            if (iEnd < 0) {
+                break;
+            }
+            alPart.add(sMultipart.substring(iStart, iEnd));
+            iStart = iEnd + CRLF.length();
+        }
+        return alPart;
+    }
+
+    private static String getMultipartBoundary(String sHeader) {
+        // Content-Type: multipart/mixed; boundary=changesetresponse_...
+        for (String sLine : sHeader.split(CRLF)) {
+            String sLower = sLine.toLowerCase();
+            if (!sLower.startsWith("content-type:") || !sLower.contains("multipart/mixed")) {
+                continue;
+            }
+            int iIndex = sLower.indexOf("boundary=");
+            if (iIndex < 0) {
+                return null;
+            }
+            String sBoundary = sLine.substring(iIndex + "boundary=".length()).trim();
+            int iEnd = sBoundary.indexOf(';');
+            if (iEnd >= 0) {
+                sBoundary = sBoundary.substring(0, iEnd).trim();
+            }
+            if (sBoundary.startsWith("\"") && sBoundary.endsWith("\"") && sBoundary.length() > 1) {
+                sBoundary = sBoundary.substring(1, sBoundary.length() - 1);
+            }
+            return sBoundary;
+        }
+        return null;
+    }
+
+    private static int getStatusCode(String sStatusLine) {
+        // HTTP/1.1 200 OK
+        String[] aToken = sStatusLine.split(" ");
+        if (aToken.length < 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(aToken[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readString(InputStream is) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int iRead;
+        while ((iRead = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, iRead);
+        }
+        return bos.toString("UTF-8");
+    }
+}
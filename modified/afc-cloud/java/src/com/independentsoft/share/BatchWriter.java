@@ -0,0 +1,137 @@
+package com.independentsoft.share;
+
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Writer of the multipart/mixed body of a $batch call. Requests and changesets are appended to a
+ *              single buffer as they are written, instead of concatenating the whole body again for each request.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-25 23626  jefferson.brigino Created
+ */
+public class BatchWriter {
+
+    private static final String CRLF = "\r\n";
+
+    private final String batchBoundary = UUID.randomUUID().toString();
+    private final StringBuilder sbBody;
+    private String changeSetBoundary;
+    private int changeSetSize;
+    private int requestCount;
+    private boolean isFinished;
+
+    public BatchWriter() {
+        this(8192);
+    }
+
+    /**
+     * @param capacity the initial capacity of the body buffer
+     */
+    public BatchWriter(int capacity) {
+        sbBody = new StringBuilder(capacity);
+    }
+
+    /**
+     * @return the batch boundary, without the batch_ prefix, to be passed to doSendBatchBoundaryRequest()
+     */
+    public String getBoundary() {
+        return batchBoundary;
+    }
+
+    /**
+     * @return number of requests written, including the requests in changesets
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of requests in the current changeset, or 0 if no changeset is open
+     */
+    public int getChangeSetSize() {
+        return changeSetSize;
+    }
+
+    public boolean isInChangeSet() {
+        return changeSetBoundary != null;
+    }
+
+    public void beginChangeSet() {
+        checkNotFinished();
+        if (changeSetBoundary != null) {
+            throw new IllegalStateException("Changeset already begun");
+        }
+        changeSetBoundary = UUID.randomUUID().toString();
+        changeSetSize = 0;
+        sbBody.append("--batch_").append(batchBoundary).append(CRLF)
+                .append("Content-Type: multipart/mixed; boundary=\"changeset_").append(changeSetBoundary).append("\"").append(CRLF)
+                .append("Content-Transfer-Encoding: binary").append(CRLF).append(CRLF);
+    }
+
+    public void endChangeSet() {
+        if (changeSetBoundary == null) {
+            throw new IllegalStateException("No changeset begun");
+        }
+        sbBody.append("--changeset_").append(changeSetBoundary).append("--").append(CRLF).append(CRLF);
+        changeSetBoundary = null;
+        changeSetSize = 0;
+    }
+
+    /**
+     * Writes a request, into the current changeset if one is begun. Only GET requests may be written outside a
+     * changeset.
+     *
+     * @param method     the HTTP method
+     * @param serviceUrl the absolute request url
+     * @param headers    the request headers, may be null
+     * @param body       the request body, may be null
+     */
+    public void writeRequest(String method, String serviceUrl, Map<String, String> headers, String body) {
+        checkNotFinished();
+        if (changeSetBoundary != null) {
+            sbBody.append("--changeset_").append(changeSetBoundary).append(CRLF);
+            changeSetSize++;
+        } else {
+            sbBody.append("--batch_").append(batchBoundary).append(CRLF);
+        }
+        sbBody.append("Content-Type: application/http").append(CRLF)
+                .append("Content-Transfer-Encoding: binary").append(CRLF).append(CRLF)
+                .append(method).append(" ").append(serviceUrl).append(" HTTP/1.1").append(CRLF);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sbBody.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+            }
+        }
+        sbBody.append(CRLF);
+        if (body != null) {
+            sbBody.append(body).append(CRLF);
+        }
+        sbBody.append(CRLF);
+        requestCount++;
+    }
+
+    /**
+     * Closes the open changeset and the batch.
+     *
+     * @return the request body
+     */
+    public String finish() {
+        if (!isFinished) {
+            if (changeSetBoundary != null) {
+                endChangeSet();
+            }
+            sbBody.append("--batch_").append(batchBoundary).append("--").append(CRLF);
+            isFinished = true;
+        }
+        return sbBody.toString();
+    }
+
+    private void checkNotFinished() {
+        if (isFinished) {
+            throw new IllegalStateException("Batch already finished");
+        }
+    }
+}
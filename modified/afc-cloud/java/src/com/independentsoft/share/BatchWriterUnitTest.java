@@ -0,0 +1,187 @@
+package com.independentsoft.share;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Behavior test of the $batch body written by BatchWriter and the response split by BatchResponseHandler:
+ *              the batch and changeset boundaries, the result of each part of a single response or a changeset, a
+ *              failed changeset, a part failed by its handler and the parts without a response. Run by main(), it
+ *              throws on the first failed check.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class BatchWriterUnitTest {
+
+    private static final String CRLF = "\r\n";
+    private static final String SITE_URL = "https://contoso.sharepoint.com/sites/a/";
+
+    public static void main(String[] args) throws Exception {
+        testWriter();
+        testWriterState();
+        testResponse();
+        testInvalidResponse();
+        System.out.println("[BatchWriterUnitTest] All tests passed");
+    }
+
+    private static void testWriter() {
+        BatchWriter writer = new BatchWriter();
+        Map<String, String> mHdr = new LinkedHashMap<String, String>();
+        mHdr.put("Accept", "application/atom+xml");
+        writer.writeRequest("GET", SITE_URL + "_api/web", mHdr, null);
+        writer.beginChangeSet();
+        writer.writeRequest("POST", SITE_URL + "_api/web/lists('x')/items", null, "{'Title':'a'}");
+        writer.writeRequest("DELETE", SITE_URL + "_api/web/lists('x')/items(1)", null, null);
+        check(writer.getChangeSetSize() == 2, "Changeset size, " + writer.getChangeSetSize());
+        String sBody = writer.finish();
+
+        String sBatch = "--batch_" + writer.getBoundary();
+        check(sBody.startsWith(sBatch + CRLF), "Body starts with the batch boundary");
+        check(sBody.endsWith(sBatch + "--" + CRLF), "Body ends with the close delimiter of the batch");
+        check(count(sBody, sBatch + CRLF) == 2, "One batch part for the GET and one for the changeset");
+        check(writer.getRequestCount() == 3, "Three requests written, " + writer.getRequestCount());
+        check(sBody.contains("GET " + SITE_URL + "_api/web HTTP/1.1" + CRLF + "Accept: application/atom+xml" + CRLF + CRLF),
+                "Request line and headers of the GET");
+        check(sBody.contains("{'Title':'a'}" + CRLF), "Body of the POST");
+
+        int iChangeSet = sBody.indexOf("boundary=\"changeset_");
+        check(iChangeSet > 0, "Changeset has its boundary");
+        String sChangeSet = "--" + sBody.substring(iChangeSet + "boundary=\"".length(), sBody.indexOf('"', iChangeSet + "boundary=\"".length()));
+        check(count(sBody, sChangeSet + CRLF) == 2, "One changeset part per operation");
+        check(sBody.indexOf(sChangeSet + "--" + CRLF) < sBody.lastIndexOf(sBatch + "--"), "Changeset is closed by finish");
+        check(writer.finish().equals(sBody), "Finish returns the same body again");
+    }
+
+    private static void testWriterState() {
+        BatchWriter writer = new BatchWriter();
+        writer.beginChangeSet();
+        try {
+            writer.beginChangeSet();
+            throw new IllegalStateException("Failed: nested changeset is rejected");
+        } catch (IllegalStateException e) {
+            check(!e.getMessage().startsWith("Failed"), e.getMessage());
+        }
+        writer.endChangeSet();
+        check(!writer.isInChangeSet() && writer.getChangeSetSize() == 0, "Changeset is ended");
+        writer.finish();
+        try {
+            writer.writeRequest("GET", SITE_URL + "_api/web", null, null);
+            throw new IllegalStateException("Failed: request after finish is rejected");
+        } catch (IllegalStateException e) {
+            check(!e.getMessage().startsWith("Failed"), e.getMessage());
+        }
+    }
+
+    private static void testResponse() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        BatchRequest.HandlerPart<BodyHandler> get = batchRequest.add("_api/web/lists('x')/items(1)", new BodyHandler(false));
+        BatchRequest.Part create1 = batchRequest.addCreateListItem("x", "{'Title':'a'}");
+        BatchRequest.Part create2 = batchRequest.addCreateListItem("x", "{'Title':'b'}");
+        BatchRequest.Part delete = batchRequest.addDeleteListItem("x", 9);
+        BatchRequest.HandlerPart<BodyHandler> failedParse = batchRequest.add("_api/web/lists('x')/items(2)", new BodyHandler(true));
+        BatchRequest.HandlerPart<BodyHandler> missing = batchRequest.add("_api/web/lists('x')/items(3)", new BodyHandler(false));
+
+        List<List<BatchRequest.Part>> alGroup = new ArrayList<List<BatchRequest.Part>>();
+        alGroup.add(Collections.<BatchRequest.Part>singletonList(get));
+        alGroup.add(Arrays.asList(create1, create2));
+        alGroup.add(Collections.singletonList(delete));
+        alGroup.add(Collections.<BatchRequest.Part>singletonList(failedParse));
+        alGroup.add(Collections.<BatchRequest.Part>singletonList(missing));
+
+        String sResponse = "--batchresponse_b" + CRLF
+                + httpPart("200 OK", "<entry>1</entry>")
+                + "--batchresponse_b" + CRLF
+                + "Content-Type: multipart/mixed; boundary=changesetresponse_c" + CRLF + CRLF
+                + "--changesetresponse_c" + CRLF
+                + httpPart("201 Created", "{\"Id\":1}")
+                + "--changesetresponse_c" + CRLF
+                + httpPart("201 Created", "{\"Id\":2}")
+                + "--changesetresponse_c--" + CRLF
+                // a failed changeset is answered by one error response
+                + "--batchresponse_b" + CRLF
+                + httpPart("412 Precondition Failed", "{\"error\":\"etag\"}")
+                + "--batchresponse_b" + CRLF
+                + httpPart("200 OK", "<entry>2</entry>")
+                + "--batchresponse_b--" + CRLF;
+        new BatchResponseHandler(SITE_URL, alGroup).handle(new ByteArrayInputStream(sResponse.getBytes("UTF-8")));
+
+        check(get.isSuccess() && get.getStatusCode() == 200, "GET part is successful");
+        check("<entry>1</entry>".equals(get.getHandler().body), "GET body is passed to its handler, " + get.getHandler().body);
+        check(create1.isSuccess() && create1.getStatusCode() == 201, "First operation of the changeset is successful");
+        check("{\"Id\":2}".equals(create2.getResponseBody()), "Body of an operation without handler is kept, " + create2.getResponseBody());
+        check(!delete.isSuccess() && delete.getStatusCode() == 412, "Failed changeset has the error status, " + delete.getStatusCode());
+        check(delete.getException() != null && "{\"error\":\"etag\"}".equals(delete.getResponseBody()), "Failed part has the error");
+        check(!failedParse.isSuccess() && failedParse.getStatusCode() == 200 && failedParse.getException() != null,
+                "Part failed by its handler has the exception");
+        check(!missing.isSuccess() && missing.getStatusCode() == -1 && missing.getException() != null,
+                "Part without response is failed, " + missing.getStatusCode());
+        check(!batchRequest.isSuccess(), "Batch is not successful");
+    }
+
+    private static void testInvalidResponse() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        BatchRequest.HandlerPart<BodyHandler> get = batchRequest.add("_api/web", new BodyHandler(false));
+        List<List<BatchRequest.Part>> alGroup = new ArrayList<List<BatchRequest.Part>>();
+        alGroup.add(Collections.<BatchRequest.Part>singletonList(get));
+        try {
+            new BatchResponseHandler(SITE_URL, alGroup).handle(new ByteArrayInputStream("<html/>".getBytes("UTF-8")));
+            throw new IllegalStateException("Failed: response without boundary is rejected");
+        } catch (ServiceException e) {
+            // expected
+        }
+        check(get.getStatusCode() == -1, "Part is not executed");
+    }
+
+    private static String httpPart(String sStatus, String sBody) {
+        return "Content-Type: application/http" + CRLF
+                + "Content-Transfer-Encoding: binary" + CRLF + CRLF
+                + "HTTP/1.1 " + sStatus + CRLF
+                + "Content-Type: application/json;odata=verbose;charset=utf-8" + CRLF + CRLF
+                + sBody + CRLF;
+    }
+
+    private static int count(String s, String sPattern) {
+        int iCount = 0;
+        for (int i = s.indexOf(sPattern); i >= 0; i = s.indexOf(sPattern, i + sPattern.length())) {
+            iCount++;
+        }
+        return iCount;
+    }
+
+    private static void check(boolean bCondition, String sMessage) {
+        if (!bCondition) {
+            throw new IllegalStateException("Failed: " + sMessage);
+        }
+    }
+
+    /**
+     * Keeps the body of the part, or fails to parse it.
+     */
+    private static class BodyHandler
+            extends ServiceResponseUtil.ResponseHandler {
+
+        private final boolean bFail;
+        private String body;
+
+        private BodyHandler(boolean bFail) {
+            this.bFail = bFail;
+        }
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            if (bFail) {
+                throw new IllegalArgumentException("Invalid entry");
+            }
+            body = new String(ListMetadataCache.readFully(is), "UTF-8");
+        }
+    }
+}
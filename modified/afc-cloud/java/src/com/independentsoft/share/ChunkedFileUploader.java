@@ -0,0 +1,297 @@
+package com.independentsoft.share;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Upload a large file by startupload / continueupload / finishupload. The source file is memory mapped
+ *              chunk by chunk, the next chunk is loaded while the current chunk is sent, the chunk size follows the
+ *              observed throughput, a failed chunk is retried and a failed or cancelled upload is cancelled on the
+ *              server by cancelupload.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-30 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Unmap each chunk once sent instead of leaving it to GC
+ * 2019-11-16 23626  jefferson.brigino Leave the chunks to GC, a stream of a chunk may still be read after it is sent
+ */
+public class ChunkedFileUploader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 10 * 1024 * 1024;
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 1024 * 1024;
+    // the request size limit of continueupload is 250MB
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 100 * 1024 * 1024;
+    public static final long DEFAULT_TARGET_CHUNK_TIME_MS = 15 * 1000;
+    public static final int DEFAULT_MAX_RETRY = 3;
+
+    private final Service service;
+    private final String siteUrl;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+    private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+    private long targetChunkTime = DEFAULT_TARGET_CHUNK_TIME_MS;
+    private int maxRetry = DEFAULT_MAX_RETRY;
+    private volatile boolean isCancelled;
+
+    public ChunkedFileUploader(Service service, String siteUrl) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        this.service = service;
+        this.siteUrl = siteUrl;
+    }
+
+    /**
+     * @param chunkSize    the size of the first chunk
+     * @param minChunkSize the minimum chunk size when adapting to throughput
+     * @param maxChunkSize the maximum chunk size when adapting to throughput
+     */
+    public void setChunkSize(int chunkSize, int minChunkSize, int maxChunkSize) {
+        if (minChunkSize <= 0 || minChunkSize > maxChunkSize || chunkSize < minChunkSize || chunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk size, min=" + minChunkSize + ", initial=" + chunkSize + ", max=" + maxChunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param targetChunkTime the time in ms to send one chunk, the chunk size is adjusted towards it
+     */
+    public void setTargetChunkTime(long targetChunkTime) {
+        if (targetChunkTime <= 0) {
+            throw new IllegalArgumentException("The parameter targetChunkTime must be positive.");
+        }
+        this.targetChunkTime = targetChunkTime;
+    }
+
+    public void setMaxRetry(int maxRetry) {
+        if (maxRetry < 0) {
+            throw new IllegalArgumentException("The parameter maxRetry must be non-negative.");
+        }
+        this.maxRetry = maxRetry;
+    }
+
+    /**
+     * Cancels the upload running in another thread. The upload stops after the current chunk.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * Uploads the file content.
+     *
+     * @param filePath  the file path
+     * @param source    the source file channel
+     * @param overwrite true to overwrite the existing file
+     * @throws ServiceException the service exception
+     */
+    public void upload(String filePath, FileChannel source, boolean overwrite) throws ServiceException {
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath");
+        }
+        if (source == null) {
+            throw new IllegalArgumentException("source");
+        }
+
+        long lFileSize;
+        try {
+            lFileSize = source.size();
+            if (lFileSize <= chunkSize) {
+                // small file, single request
+                MappedByteBuffer content = map(source, 0, lFileSize);
+                service.createFile(siteUrl, filePath, new ByteBufferInputStream(content), overwrite);
+                return;
+            }
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+
+        // the upload session works on an existing file
+        service.createFile(siteUrl, filePath, new byte[0], overwrite);
+
+        String sGuid = UUID.randomUUID().toString();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        boolean bStarted = false;
+        boolean bFinished = false;
+        Future<MappedByteBuffer> next = null;
+        try {
+            long lOffset = 0;
+            int iChunkSize = chunkSize;
+            next = reader.submit(new MapTask(source, 0, Math.min(iChunkSize, lFileSize)));
+            while (lOffset < lFileSize) {
+                if (isCancelled || Thread.currentThread().isInterrupted()) {
+                    throw new ServiceException("Upload cancelled: " + filePath, null);
+                }
+                MappedByteBuffer chunk = getChunk(next);
+                next = null;
+                long lNextOffset = lOffset + chunk.capacity();
+
+                Service.UpdateFileMode mode;
+                if (lOffset == 0) {
+                    mode = Service.UpdateFileMode.Start;
+                } else if (lNextOffset >= lFileSize) {
+                    mode = Service.UpdateFileMode.Finish;
+                } else {
+                    mode = Service.UpdateFileMode.Continue;
+                }
+
+                // load the next chunk while this chunk is sent, a small tail is merged into the last chunk
+                long lLeft = lFileSize - lNextOffset;
+                if (lLeft > 0) {
+                    long lNextSize = lLeft - iChunkSize < minChunkSize ? lLeft : iChunkSize;
+                    next = reader.submit(new MapTask(source, lNextOffset, lNextSize));
+                }
+
+                long lStart = System.currentTimeMillis();
+                sendChunk(filePath, chunk, mode, sGuid, lOffset);
+                long lElapsed = System.currentTimeMillis() - lStart;
+                // the mapping of a chunk is released when the buffer is collected. It is not unmapped by force, the
+                // stream of the chunk may still be held by ServiceInstance, e.g. for a retry, and reading an unmapped
+                // buffer crashes the JVM.
+                bStarted = true;
+                if (mode == Service.UpdateFileMode.Finish) {
+                    bFinished = true;
+                }
+
+                // applied from the chunk after the one already loaded
+                iChunkSize = adaptChunkSize(iChunkSize, lElapsed);
+                lOffset = lNextOffset;
+            }
+        } catch (ServiceException e) {
+            cancelUpload(filePath, sGuid, bStarted && !bFinished);
+            throw e;
+        } catch (Exception e) {
+            cancelUpload(filePath, sGuid, bStarted && !bFinished);
+            throw new ServiceException(e.getMessage(), e);
+        } finally {
+            // a chunk not started yet is not mapped at all
+            if (next != null) {
+                next.cancel(false);
+            }
+            reader.shutdownNow();
+        }
+    }
+
+    private void sendChunk(String filePath, MappedByteBuffer chunk, Service.UpdateFileMode mode, String sGuid, long lOffset)
+            throws ServiceException {
+        int iRetry = 0;
+        while (true) {
+            try {
+                service.updateFileContent(siteUrl, filePath, new ByteBufferInputStream(chunk.duplicate()), mode, sGuid, lOffset);
+                return;
+            } catch (ServiceException e) {
+                int iStatusCode = e.getStatusCode();
+                // client errors other than timeout and throttling are not recoverable, e.g. offset mismatch
+                boolean bRetryable = iStatusCode < 400 || iStatusCode >= 500 || iStatusCode == 408 || iStatusCode == 429;
+                if (!bRetryable || isCancelled || iRetry++ >= maxRetry) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int adaptChunkSize(int iChunkSize, long lElapsed) {
+        // at most double or halve per chunk to avoid oscillation on a single slow request
+        double dRatio = (double) targetChunkTime / Math.max(1, lElapsed);
+        dRatio = Math.max(0.5, Math.min(2.0, dRatio));
+        long lSize = (long) (iChunkSize * dRatio);
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, lSize));
+    }
+
+    private void cancelUpload(String filePath, String sGuid, boolean bStarted) {
+        if (!bStarted) {
+            return;
+        }
+        try {
+            service.updateFileContent(siteUrl, filePath, new ByteArrayInputStream(new byte[0]), Service.UpdateFileMode.Cancel, sGuid, 0);
+        } catch (Throwable t) {
+            // the session expires on the server anyway
+        }
+    }
+
+    private static MappedByteBuffer getChunk(Future<MappedByteBuffer> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            }
+            throw new ServiceException(t.getMessage(), t);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel source, long lOffset, long lSize) throws Exception {
+        return source.map(FileChannel.MapMode.READ_ONLY, lOffset, lSize);
+    }
+
+    private static class MapTask implements Callable<MappedByteBuffer> {
+
+        private final FileChannel source;
+        private final long offset;
+        private final long size;
+
+        private MapTask(FileChannel source, long offset, long size) {
+            this.source = source;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public MappedByteBuffer call() throws Exception {
+            // load the pages in this thread while the previous chunk is sent
+            return map(source, offset, size).load();
+        }
+    }
+
+    private static class ByteBufferInputStream
+            extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int iRead = Math.min(len, buffer.remaining());
+            buffer.get(b, off, iRead);
+            return iRead;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.independentsoft.share;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: In-memory recorder of the request and parse events, kept in a fixed size ring buffer so the latest
+ *              events of a live job can be dumped without printing debug output on every request. Only a volatile
+ *              read is done per event when the recorder is disabled, which is the default.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-13 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Removed the events of the response handler, which is no longer wrapped
+ * 2019-11-16 23626  jefferson.brigino Added the events of the response stream measured by RequestMetrics
+ */
+public final class EventRecorder {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_LARGE_PARSE_THRESHOLD_MS = 100;
+
+    public enum Type {
+        // the request is started, before waiting for the slot of the tenant
+        SENT,
+        // the first byte of the response body is read by the response handler
+        FIRST_BYTE,
+        // the response stream given to the response handler is closed
+        PARSED,
+        RETRIED,
+        THROTTLED,
+        // a parse took longer than the large parse threshold
+        LARGE_PARSE,
+        // the request returned or failed
+        COMPLETED
+    }
+
+    public static class Event {
+
+        private final long sequence;
+        private final long time = System.currentTimeMillis();
+        private final String threadName = Thread.currentThread().getName();
+        private final Type type;
+        private final String operation;
+        private final String siteUrl;
+        private final long duration;
+        private final long value;
+
+        private Event(long sequence, Type type, String operation, String siteUrl, long duration, long value) {
+            this.sequence = sequence;
+            this.type = type;
+            this.operation = operation;
+            this.siteUrl = siteUrl;
+            this.duration = duration;
+            this.value = value;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getSiteUrl() {
+            return siteUrl;
+        }
+
+        /**
+         * @return the duration in ns since the start of the request, the parse time of PARSED and LARGE_PARSE, or 0
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the bytes read of PARSED, the retry count of RETRIED, Retry-After in s of THROTTLED, the status
+         * code of COMPLETED, or 0
+         */
+        public long getValue() {
+            return value;
+        }
+    }
+
+    private static volatile boolean isEnabled;
+    private static volatile long largeParseThreshold = DEFAULT_LARGE_PARSE_THRESHOLD_MS * 1000000;
+    private static volatile AtomicReferenceArray<Event> events = new AtomicReferenceArray<Event>(DEFAULT_CAPACITY);
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private EventRecorder() {
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public static void setEnabled(boolean isEnabled) {
+        EventRecorder.isEnabled = isEnabled;
+    }
+
+    /**
+     * Sets the number of latest events kept, the recorded events are dropped.
+     */
+    public static synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The parameter capacity must be positive.");
+        }
+        events = new AtomicReferenceArray<Event>(capacity);
+    }
+
+    /**
+     * @param ms the minimum parse time in ms recorded as LARGE_PARSE
+     */
+    public static void setLargeParseThreshold(long ms) {
+        if (ms < 0) {
+            throw new IllegalArgumentException("The parameter ms must be non-negative.");
+        }
+        largeParseThreshold = ms * 1000000;
+    }
+
+    public static void record(Type type, String operation, String siteUrl, long duration, long value) {
+        if (!isEnabled) {
+            return;
+        }
+        AtomicReferenceArray<Event> buffer = events;
+        long lSequence = sequence.getAndIncrement();
+        buffer.set((int) (lSequence % buffer.length()), new Event(lSequence, type, operation, siteUrl, duration, value));
+    }
+
+    /**
+     * Records a LARGE_PARSE event if the parse took longer than the threshold. The operation and site url are taken
+     * from the request of the current thread if not given.
+     *
+     * @param startTime the System.nanoTime() at the start of the parse
+     */
+    public static void recordParse(String operation, String siteUrl, long startTime) {
+        if (!isEnabled) {
+            return;
+        }
+        long lDuration = System.nanoTime() - startTime;
+        if (lDuration < largeParseThreshold) {
+            return;
+        }
+        RequestMetrics metrics = RequestMetrics.getCurrent();
+        if (metrics != null) {
+            operation = operation == null ? metrics.getOperation() : operation + " " + metrics.getOperation();
+            siteUrl = siteUrl == null ? metrics.getSiteUrl() : siteUrl;
+        }
+        record(Type.LARGE_PARSE, operation, siteUrl, lDuration, 0);
+    }
+
+    /**
+     * @return the recorded events, oldest first
+     */
+    public static List<Event> getEvents() {
+        AtomicReferenceArray<Event> buffer = events;
+        long lEnd = sequence.get();
+        long lStart = Math.max(0, lEnd - buffer.length());
+        List<Event> alEvent = new ArrayList<Event>();
+        for (long l = lStart; l < lEnd; l++) {
+            Event event = buffer.get((int) (l % buffer.length()));
+            // skip the slots overwritten or not yet written in between
+            if (event != null && event.sequence == l) {
+                alEvent.add(event);
+            }
+        }
+        return alEvent;
+    }
+
+    public static void clear() {
+        AtomicReferenceArray<Event> buffer = events;
+        for (int i = 0; i < buffer.length(); i++) {
+            buffer.set(i, null);
+        }
+    }
+
+    /**
+     * Prints the recorded events, oldest first, one line per event with the duration in ms.
+     */
+    public static void dump(PrintStream out) {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (Event event : getEvents()) {
+            out.println(format.format(new Date(event.time))
+                    + "\t" + event.threadName
+                    + "\t" + event.type
+                    + "\t" + event.duration / 1000000
+                    + "\t" + event.value
+                    + "\t" + event.operation
+                    + "\t" + event.siteUrl);
+        }
+        out.flush();
+    }
+}
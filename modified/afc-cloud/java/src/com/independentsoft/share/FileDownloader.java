@@ -0,0 +1,415 @@
+package com.independentsoft.share;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Download file content into a channel without holding the content in heap. The content is copied
+ *              from the response stream through a direct buffer, a dropped connection is resumed with a Range
+ *              request from the last byte written, and a large file can be split into ranges downloaded
+ *              concurrently into a FileChannel. The support of Range by the server is probed by a request of one
+ *              byte before any range is downloaded, as the status and Content-Range are not exposed by
+ *              ServiceInstance.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-29 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Verify the content matches the range requested by each attempt
+ * 2019-11-16 23626  jefferson.brigino Measure the response stream of the request
+ * 2019-11-16 23626  jefferson.brigino Probe the support of Range before writing any content of a range
+ */
+public class FileDownloader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_MAX_RETRY = 5;
+
+    public static class DownloadException
+            extends ServiceException {
+
+        private final long persistedOffset;
+
+        DownloadException(ServiceException cause, long persistedOffset) {
+            super(cause.getMessage(), cause);
+            this.persistedOffset = persistedOffset;
+        }
+
+        /**
+         * @return the offset up to which the content is written without gap, to resume the download from
+         */
+        public long getPersistedOffset() {
+            return persistedOffset;
+        }
+    }
+
+    /**
+     * The response does not match the range requested, nothing it delivered is counted as written.
+     */
+    private static class RangeMismatchException
+            extends ServiceException {
+
+        private final boolean retryable;
+
+        private RangeMismatchException(String message, boolean retryable) {
+            super(message, null);
+            this.retryable = retryable;
+        }
+    }
+
+    private final Service service;
+    private final String siteUrl;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int threads = DEFAULT_THREADS;
+    private int maxRetry = DEFAULT_MAX_RETRY;
+    // null until probed, by the first download which needs a range
+    private volatile Boolean rangeSupported;
+
+    public FileDownloader(Service service, String siteUrl) {
+        if (service == null) {
+            throw new IllegalArgumentException("service");
+        }
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        this.service = service;
+        this.siteUrl = siteUrl;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The parameter bufferSize must be positive.");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param segmentSize the size of the ranges downloaded concurrently, a file not larger than two segments is
+     *                    downloaded in one range
+     */
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("The parameter segmentSize must be positive.");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The parameter threads must be positive.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param maxRetry the number of times a range is resumed after failure
+     */
+    public void setMaxRetry(int maxRetry) {
+        if (maxRetry < 0) {
+            throw new IllegalArgumentException("The parameter maxRetry must be non-negative.");
+        }
+        this.maxRetry = maxRetry;
+    }
+
+    /**
+     * Downloads the file into the file channel from the offset, e.g. the persisted offset of a failed download.
+     *
+     * @param filePath the file path
+     * @param channel  the file channel, written by position
+     * @param offset   the offset to start from
+     * @param fileSize the file size
+     * @return the number of bytes written
+     * @throws DownloadException if the download fails, with the offset to resume from
+     */
+    public long download(String filePath, FileChannel channel, long offset, long fileSize) throws DownloadException {
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath");
+        }
+        if (channel == null) {
+            throw new IllegalArgumentException("channel");
+        }
+        if (offset < 0 || fileSize < offset) {
+            throw new IllegalArgumentException("Invalid offset " + offset + " of file size " + fileSize);
+        }
+
+        List<Segment> alSegment = new ArrayList<Segment>();
+        long lRemaining = fileSize - offset;
+        if (threads == 1 || lRemaining <= segmentSize * 2) {
+            alSegment.add(new Segment(filePath, channel, offset, lRemaining));
+        } else {
+            for (long lStart = offset; lStart < fileSize; lStart += segmentSize) {
+                alSegment.add(new Segment(filePath, channel, lStart, Math.min(segmentSize, fileSize - lStart)));
+            }
+        }
+
+        if (offset > 0 || alSegment.size() > 1) {
+            try {
+                if (!isRangeSupported(filePath, fileSize)) {
+                    if (offset > 0) {
+                        throw new ServiceException("Range is not supported by the server, cannot resume " + filePath + " from " + offset, null);
+                    }
+                    // the whole file in one response without Range
+                    alSegment.clear();
+                    alSegment.add(new Segment(filePath, channel, 0, fileSize));
+                }
+            } catch (ServiceException e) {
+                throw new DownloadException(e, offset);
+            }
+        }
+
+        if (alSegment.size() == 1) {
+            try {
+                alSegment.get(0).call();
+            } catch (ServiceException e) {
+                throw new DownloadException(e, getPersistedOffset(alSegment));
+            }
+            return lRemaining;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, alSegment.size()));
+        try {
+            List<Future<Object>> alFuture = new ArrayList<Future<Object>>();
+            for (Segment segment : alSegment) {
+                alFuture.add(executor.submit(segment));
+            }
+            ServiceException exception = null;
+            for (Future<Object> future : alFuture) {
+                try {
+                    future.get();
+                } catch (CancellationException e) {
+                    // cancelled after the failure of another segment
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        exception = e.getCause() instanceof ServiceException ? (ServiceException) e.getCause()
+                                : new ServiceException(e.getCause().getMessage(), e.getCause());
+                        // no need to continue the other segments, the segments not started yet are cancelled too,
+                        // as shutdownNow() would leave their futures never done
+                        for (Future<Object> other : alFuture) {
+                            other.cancel(true);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    throw new DownloadException(new ServiceException(e.getMessage(), e), getPersistedOffset(alSegment));
+                }
+            }
+            if (exception != null) {
+                throw new DownloadException(exception, getPersistedOffset(alSegment));
+            }
+            return lRemaining;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloads the file into the channel sequentially from the offset. If the download fails, the content written
+     * to the channel after the persisted offset is not valid and must be discarded.
+     *
+     * @param filePath the file path
+     * @param channel  the channel
+     * @param offset   the offset to start from
+     * @param fileSize the file size
+     * @return the number of bytes written
+     * @throws DownloadException if the download fails, with the offset to resume from
+     */
+    public long download(String filePath, WritableByteChannel channel, long offset, long fileSize) throws DownloadException {
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath");
+        }
+        if (channel == null) {
+            throw new IllegalArgumentException("channel");
+        }
+        if (offset < 0 || fileSize < offset) {
+            throw new IllegalArgumentException("Invalid offset " + offset + " of file size " + fileSize);
+        }
+        Segment segment = new Segment(filePath, channel, offset, fileSize - offset);
+        try {
+            if (offset > 0 && !isRangeSupported(filePath, fileSize)) {
+                throw new ServiceException("Range is not supported by the server, cannot resume " + filePath + " from " + offset, null);
+            }
+            segment.call();
+        } catch (ServiceException e) {
+            throw new DownloadException(e, segment.start + segment.written);
+        }
+        return segment.written;
+    }
+
+    /**
+     * Requests the second byte of the file, a server ignoring Range returns the whole file instead of one byte. The
+     * result is kept for the later downloads.
+     */
+    private boolean isRangeSupported(String filePath, long fileSize) throws ServiceException {
+        if (rangeSupported == null) {
+            if (fileSize < 2) {
+                return true;
+            }
+            final int[] count = new int[1];
+            service.getFileRange(siteUrl, filePath, 1, 1, new ServiceResponseUtil.ResponseHandler() {
+                @Override
+                public void handle(InputStream is) throws Exception {
+                    // only the first bytes of a whole file are read
+                    byte[] b = new byte[2];
+                    count[0] = 0;
+                    int iRead;
+                    while (count[0] < b.length && (iRead = is.read(b, count[0], b.length - count[0])) >= 0) {
+                        count[0] += iRead;
+                    }
+                }
+            });
+            if (count[0] == 0) {
+                // dropped before the content, probed again by the next download
+                return true;
+            }
+            rangeSupported = count[0] == 1;
+        }
+        return rangeSupported;
+    }
+
+    private static long getPersistedOffset(List<Segment> alSegment) {
+        long lOffset = alSegment.get(0).start;
+        for (Segment segment : alSegment) {
+            if (segment.start != lOffset) {
+                break;
+            }
+            lOffset += segment.written;
+            if (segment.written < segment.length) {
+                break;
+            }
+        }
+        return lOffset;
+    }
+
+    private static boolean isRetryable(ServiceException e) {
+        // the exception of the handler may be wrapped by ServiceInstance
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RangeMismatchException) {
+                return ((RangeMismatchException) t).retryable;
+            }
+        }
+        int iStatusCode = e.getStatusCode();
+        // connection drop or server error, not a client error such as file not found
+        return iStatusCode < 400 || iStatusCode >= 500 || iStatusCode == 408 || iStatusCode == 429;
+    }
+
+    private class Segment implements Callable<Object> {
+
+        private final String filePath;
+        private final WritableByteChannel channel;
+        private final long start;
+        private final long length;
+        private volatile long written;
+
+        private Segment(String filePath, WritableByteChannel channel, long start, long length) {
+            this.filePath = filePath;
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public Object call() throws ServiceException {
+            int iRetry = 0;
+            while (written < length) {
+                long lWrittenBefore = written;
+                try {
+                    service.getFileRange(siteUrl, filePath, new SegmentHandler(this));
+                    if (written == lWrittenBefore) {
+                        throw new ServiceException("Unexpected end of content at " + (start + written) + " of " + filePath, null);
+                    }
+                } catch (ServiceException e) {
+                    if (Thread.currentThread().isInterrupted() || !isRetryable(e)) {
+                        throw e;
+                    }
+                    // progress made, the retry count is for consecutive failures only
+                    iRetry = written > lWrittenBefore ? 1 : iRetry + 1;
+                    if (iRetry > maxRetry) {
+                        throw e;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private class SegmentHandler
+            extends Service.FileRangeHandler {
+
+        private final Segment segment;
+        // the offset of the range in the request, -1 before the request is built
+        private volatile long requestedOffset = -1;
+
+        private SegmentHandler(Segment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        protected long getOffset() {
+            requestedOffset = segment.start + segment.written;
+            return requestedOffset;
+        }
+
+        @Override
+        protected long getLength() {
+            return segment.length - segment.written;
+        }
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            long lWrittenBefore = segment.written;
+            if (requestedOffset != segment.start + lWrittenBefore) {
+                // sent with the range of an earlier attempt, e.g. retried by ServiceInstance after a partial read
+                throw new RangeMismatchException("Range requested from " + requestedOffset + " instead of "
+                        + (segment.start + lWrittenBefore) + " of " + segment.filePath, true);
+            }
+            ReadableByteChannel in = Channels.newChannel(RequestMetrics.measure(is));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            FileChannel fileChannel = segment.channel instanceof FileChannel ? (FileChannel) segment.channel : null;
+            while (segment.written < segment.length) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                buffer.limit((int) Math.min(buffer.capacity(), segment.length - segment.written));
+                if (in.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of content at " + (segment.start + segment.written) + " of " + segment.filePath);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int iWritten = fileChannel != null ? fileChannel.write(buffer, segment.start + segment.written)
+                            : segment.channel.write(buffer);
+                    segment.written += iWritten;
+                }
+                buffer.clear();
+            }
+            // the support of Range is probed before, this is the check of a server which stops supporting it, e.g. a
+            // request routed to another server. The whole file is longer than the range unless the range is the rest
+            // of the file from 0, so any content left means Range is ignored. The bytes written are the range only
+            // if it starts from 0.
+            buffer.limit(1);
+            if (in.read(buffer) > 0) {
+                if (requestedOffset > 0) {
+                    segment.written = lWrittenBefore;
+                }
+                throw new RangeMismatchException("Content longer than the range from " + requestedOffset + " of "
+                        + segment.filePath + ", Range is not supported", false);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.independentsoft.share;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Behavior test of FileDownloader on a Service serving the ranges of a file from memory: the download by
+ *              concurrent ranges, the resume from an offset, a server ignoring Range detected by the probe before
+ *              anything is written, a dropped response resumed from the bytes written and a failure not retried. Run
+ *              by main(), it throws on the first failed check.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class FileDownloaderUnitTest {
+
+    private static final String SITE_URL = "https://contoso.sharepoint.com/sites/a";
+    private static final String FILE_PATH = "/sites/a/Shared Documents/file.bin";
+    private static final int FILE_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        testSegments();
+        testResume();
+        testRangeIgnored();
+        testResumeRangeIgnored();
+        testDropped();
+        testNotRetried();
+        testSequential();
+        System.out.println("[FileDownloaderUnitTest] All tests passed");
+    }
+
+    private static void testSegments() throws Exception {
+        RangeService service = new RangeService();
+        FileDownloader downloader = newDownloader(service);
+        byte[] content = download(downloader, 0);
+        check(Arrays.equals(service.file, content), "Content of the ranges is written in place");
+        check(service.probeCount.get() == 1, "Range is probed, " + service.probeCount.get());
+        check(service.requestCount.get() == 10, "One request per range, " + service.requestCount.get());
+
+        download(downloader, 0);
+        check(service.probeCount.get() == 1, "Probe result is kept by the downloader, " + service.probeCount.get());
+    }
+
+    private static void testResume() throws Exception {
+        RangeService service = new RangeService();
+        FileDownloader downloader = newDownloader(service);
+        downloader.setThreads(1);
+        byte[] content = download(downloader, 300);
+        check(Arrays.equals(Arrays.copyOfRange(service.file, 300, FILE_SIZE), Arrays.copyOfRange(content, 300, FILE_SIZE)),
+                "Content is written from the offset");
+        check(isZero(content, 0, 300), "Content before the offset is not written");
+    }
+
+    private static void testRangeIgnored() throws Exception {
+        RangeService service = new RangeService();
+        service.bIgnoreRange = true;
+        FileDownloader downloader = newDownloader(service);
+        byte[] content = download(downloader, 0);
+        check(Arrays.equals(service.file, content), "Whole file is written from one response");
+        check(service.requestCount.get() == 1, "No range requested after the probe, " + service.requestCount.get());
+
+        download(downloader, 0);
+        check(service.probeCount.get() == 1, "Unsupported Range is kept by the downloader, " + service.probeCount.get());
+    }
+
+    private static void testResumeRangeIgnored() throws Exception {
+        RangeService service = new RangeService();
+        service.bIgnoreRange = true;
+        FileDownloader downloader = newDownloader(service);
+        try {
+            download(downloader, 300);
+            throw new IllegalStateException("Failed: resume without Range is rejected");
+        } catch (FileDownloader.DownloadException e) {
+            check(e.getPersistedOffset() == 300, "Persisted offset is kept, " + e.getPersistedOffset());
+        }
+        check(service.requestCount.get() == 0, "Nothing is requested after the probe, " + service.requestCount.get());
+    }
+
+    private static void testDropped() throws Exception {
+        RangeService service = new RangeService();
+        service.iDropAfter = 50;
+        FileDownloader downloader = newDownloader(service);
+        downloader.setThreads(1);
+        byte[] content = download(downloader, 0);
+        check(Arrays.equals(service.file, content), "Dropped response is resumed from the bytes written");
+        check(service.requestCount.get() == 2, "Dropped range requested again, " + service.requestCount.get());
+        check(service.lastOffset == 50, "Range resumed from the bytes written, " + service.lastOffset);
+    }
+
+    private static void testNotRetried() throws Exception {
+        RangeService service = new RangeService();
+        service.iStatusCode = 404;
+        FileDownloader downloader = newDownloader(service);
+        downloader.setThreads(1);
+        try {
+            download(downloader, 0);
+            throw new IllegalStateException("Failed: file not found fails the download");
+        } catch (FileDownloader.DownloadException e) {
+            check(e.getPersistedOffset() == 0, "Nothing is persisted, " + e.getPersistedOffset());
+        }
+        check(service.requestCount.get() == 1, "Client error is not retried, " + service.requestCount.get());
+    }
+
+    private static void testSequential() throws Exception {
+        RangeService service = new RangeService();
+        FileDownloader downloader = newDownloader(service);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long lWritten = downloader.download(FILE_PATH, Channels.newChannel(out), 200, FILE_SIZE);
+        check(lWritten == FILE_SIZE - 200, "Rest of the file is written, " + lWritten);
+        check(Arrays.equals(Arrays.copyOfRange(service.file, 200, FILE_SIZE), out.toByteArray()),
+                "Content is written to the channel in order");
+    }
+
+    private static FileDownloader newDownloader(Service service) {
+        FileDownloader downloader = new FileDownloader(service, SITE_URL);
+        downloader.setSegmentSize(100);
+        downloader.setBufferSize(64);
+        downloader.setThreads(4);
+        downloader.setMaxRetry(2);
+        return downloader;
+    }
+
+    /**
+     * Downloads the file into a new file of zeros.
+     */
+    private static byte[] download(FileDownloader downloader, long lOffset) throws Exception {
+        File file = File.createTempFile("FileDownloaderUnitTest", ".bin");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(FILE_SIZE);
+            FileChannel channel = raf.getChannel();
+            downloader.download(FILE_PATH, channel, lOffset, FILE_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(FILE_SIZE);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            }
+            return buffer.array();
+        } finally {
+            raf.close();
+            file.delete();
+        }
+    }
+
+    private static boolean isZero(byte[] b, int iFrom, int iTo) {
+        for (int i = iFrom; i < iTo; i++) {
+            if (b[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void check(boolean bCondition, String sMessage) {
+        if (!bCondition) {
+            throw new IllegalStateException("Failed: " + sMessage);
+        }
+    }
+
+    /**
+     * Serves the ranges of a file in memory instead of sending the requests.
+     */
+    private static class RangeService
+            extends Service {
+
+        private final byte[] file = new byte[FILE_SIZE];
+        private final AtomicInteger probeCount = new AtomicInteger();
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private volatile boolean bIgnoreRange;
+        // the first response is dropped after this number of bytes, 0 for none
+        private volatile int iDropAfter;
+        private volatile int iStatusCode;
+        private volatile long lastOffset = -1;
+
+        private RangeService() {
+            super(SITE_URL, "user", "password", null);
+            for (int i = 0; i < file.length; i++) {
+                file[i] = (byte) (i % 251 + 1);
+            }
+        }
+
+        @Override
+        public void getFileRange(String siteUrl, String filePath, long offset, long length,
+                                 ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+            probeCount.incrementAndGet();
+            serve(offset, length, handler);
+        }
+
+        @Override
+        public void getFileRange(String siteUrl, String filePath, FileRangeHandler handler) throws ServiceException {
+            requestCount.incrementAndGet();
+            lastOffset = handler.getOffset();
+            serve(lastOffset, handler.getLength(), handler);
+        }
+
+        private void serve(long offset, long length, ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+            if (iStatusCode != 0) {
+                throw new StatusServiceException(iStatusCode);
+            }
+            int iFrom = bIgnoreRange ? 0 : (int) offset;
+            int iTo = bIgnoreRange ? file.length : (int) (length < 0 ? file.length : offset + length);
+            InputStream is = new ByteArrayInputStream(file, iFrom, iTo - iFrom);
+            if (iDropAfter > 0) {
+                is = new ByteArrayInputStream(file, iFrom, Math.min(iDropAfter, iTo - iFrom));
+                iDropAfter = 0;
+            }
+            try {
+                handler.handle(is);
+            } catch (ServiceException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ServiceException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class StatusServiceException
+            extends ServiceException {
+
+        private final int iStatusCode;
+
+        private StatusServiceException(int iStatusCode) {
+            super("HTTP " + iStatusCode, null);
+            this.iStatusCode = iStatusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return iStatusCode;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.independentsoft.share;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Streaming JSON reader for the JSON light (odata=nometadata) responses. The tokens are read one at a
+ *              time from the stream, so an entity is populated as its properties arrive without building a tree of
+ *              the whole response.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-08 23626  jefferson.brigino Created
+ */
+public class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+
+    private Token peeked;
+    // the text of the peeked name or value
+    private String value;
+    private final StringBuilder sb = new StringBuilder();
+
+    public JsonReader(InputStream is) throws IOException {
+        this(new InputStreamReader(is, "UTF-8"));
+    }
+
+    public JsonReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("in");
+        }
+        this.in = in;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (stack[stackSize - 1]) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                boolean bEmpty = stack[stackSize - 1] == EMPTY_OBJECT;
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (!bEmpty) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                value = readString();
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                // NONEMPTY_DOCUMENT
+                c = read();
+                while (isWhitespace(c)) {
+                    c = read();
+                }
+                if (c == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("Expected end of document");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                value = readString();
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                String sLiteral = readLiteral(c);
+                if ("null".equals(sLiteral)) {
+                    value = null;
+                    return peeked = Token.NULL;
+                }
+                if ("true".equals(sLiteral) || "false".equals(sLiteral)) {
+                    value = sLiteral;
+                    return peeked = Token.BOOLEAN;
+                }
+                throw syntaxError("Unexpected literal " + sLiteral);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    value = readNumber(c);
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * @return true if the current object or array has more elements
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return value;
+    }
+
+    /**
+     * Reads a string, number or boolean value as text, as the element text of the same property in Atom.
+     *
+     * @return the text of the value, or null for a null value
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN && token != Token.NULL) {
+            throw syntaxError("Expected value but was " + token);
+        }
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * Skips the next value, including all nested objects and arrays.
+     */
+    public void skipValue() throws IOException {
+        int iDepth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    iDepth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    iDepth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    iDepth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    iDepth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (iDepth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + peeked);
+        }
+        peeked = null;
+    }
+
+    private void push(int iScope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = iScope;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = read();
+        while (isWhitespace(c)) {
+            c = read();
+        }
+        if (c == -1) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        // byte order mark is skipped as whitespace
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\uFEFF';
+    }
+
+    private String readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        int iCode = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int iDigit = Character.digit(read(), 16);
+                            if (iDigit < 0) {
+                                throw syntaxError("Invalid unicode escape");
+                            }
+                            iCode = iCode * 16 + iDigit;
+                        }
+                        sb.append((char) iCode);
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append((char) c);
+                        break;
+                    default:
+                        throw syntaxError("Invalid escape");
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private String readNumber(int c) throws IOException {
+        sb.setLength(0);
+        while ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+            sb.append((char) c);
+            c = read();
+        }
+        if (c != -1) {
+            pos--;
+        }
+        return sb.toString();
+    }
+
+    private String readLiteral(int c) throws IOException {
+        sb.setLength(0);
+        while (c >= 'a' && c <= 'z') {
+            sb.append((char) c);
+            c = read();
+        }
+        if (c != -1) {
+            pos--;
+        }
+        return sb.toString();
+    }
+
+    private IOException syntaxError(String sMessage) {
+        return new IOException(sMessage + " in JSON response");
+    }
+}
@@ -0,0 +1,116 @@
+package com.independentsoft.share;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Response handlers of the JSON light (odata=nometadata) responses, the entities are populated while
+ *              the response is read from the stream. Each handler extends the Atom handler of the same entity, so the
+ *              state of the handler read by ServiceInstance, e.g. the retry option of SiteHandler, is kept.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-08 23626  jefferson.brigino Created
+ * 2019-11-16 23626  jefferson.brigino Measure the response stream of the request
+ * 2019-11-16 23626  jefferson.brigino Extend the Atom handlers, added the handler of site infos
+ */
+class JsonResponseHandler {
+
+    static final String ACCEPT_JSON_LIGHT = "application/json;odata=nometadata";
+
+    static class SiteHandler
+            extends ServiceResponseUtil.SiteHandler {
+
+        private Site site;
+
+        SiteHandler(boolean bRetryable) {
+            super(bRetryable);
+        }
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            JsonReader reader = new JsonReader(RequestMetrics.measure(is));
+            site = new Site();
+            site.parseJson(reader);
+        }
+
+        @Override
+        public Site getSite() {
+            return site;
+        }
+    }
+
+    static class SitesHandler
+            extends ServiceResponseUtil.SitesHandler {
+
+        private final List<Site> sites = new ArrayList<Site>();
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            JsonReader reader = new JsonReader(RequestMetrics.measure(is));
+            beginValue(reader);
+            while (reader.hasNext()) {
+                Site site = new Site();
+                site.parseJson(reader);
+                sites.add(site);
+            }
+            endValue(reader);
+        }
+
+        @Override
+        public List<Site> getSites() {
+            return sites;
+        }
+    }
+
+    static class SiteInfosHandler
+            extends ServiceResponseUtil.SiteInfosHandler {
+
+        private final List<SiteInfo> siteInfos = new ArrayList<SiteInfo>();
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            JsonReader reader = new JsonReader(RequestMetrics.measure(is));
+            beginValue(reader);
+            while (reader.hasNext()) {
+                SiteInfo siteInfo = new SiteInfo();
+                siteInfo.parseJson(reader);
+                siteInfos.add(siteInfo);
+            }
+            endValue(reader);
+        }
+
+        @Override
+        public List<SiteInfo> getSiteInfos() {
+            return siteInfos;
+        }
+    }
+
+    /**
+     * Moves the reader into the array of the entities in "value", the other properties before it such as
+     * odata.nextLink are not used.
+     */
+    private static void beginValue(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("value".equals(reader.nextName())) {
+                reader.beginArray();
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new IOException("No value in JSON response");
+    }
+
+    private static void endValue(JsonReader reader) throws IOException {
+        reader.endArray();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+    }
+}
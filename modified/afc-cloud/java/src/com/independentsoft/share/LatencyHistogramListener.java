@@ -0,0 +1,267 @@
+package com.independentsoft.share;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Request listener keeping a latency histogram per operation. The histogram has log-linear buckets as
+ *              HdrHistogram, 32 linear buckets per power of 2 of the latency in microseconds, so a percentile is
+ *              within about 3% of the recorded value with fixed memory and lock free recording.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-12 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Removed the network and parse time, the response handler is no longer measured
+ * 2019-11-16 23626  jefferson.brigino Added the network and parse time, bytes in of the requests measured by the stream
+ */
+public class LatencyHistogramListener
+        implements RequestListener {
+
+    // the operations over the limit are recorded as one
+    public static final int MAX_OPERATIONS = 1000;
+    public static final String OTHER_OPERATION = "(other)";
+
+    public static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        // 2^36 us, about 19 hours
+        private static final int MAX_VALUE_BITS = 36;
+        private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+        private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalValue = new AtomicLong();
+        private final AtomicLong maxValue = new AtomicLong();
+
+        /**
+         * @param value the value in us
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            } else if (value > MAX_VALUE) {
+                value = MAX_VALUE;
+            }
+            counts.incrementAndGet(getIndex(value));
+            count.incrementAndGet();
+            totalValue.addAndGet(value);
+            long lMax = maxValue.get();
+            while (value > lMax && !maxValue.compareAndSet(lMax, value)) {
+                lMax = maxValue.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the sum of the values in us
+         */
+        public long getTotal() {
+            return totalValue.get();
+        }
+
+        public long getMean() {
+            long lCount = count.get();
+            return lCount == 0 ? 0 : totalValue.get() / lCount;
+        }
+
+        public long getMax() {
+            return maxValue.get();
+        }
+
+        /**
+         * @param percentile the percentile, e.g. 99.9
+         * @return the highest value of the bucket at the percentile in us, or 0 if nothing is recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            long lCount = count.get();
+            if (lCount == 0) {
+                return 0;
+            }
+            long lTarget = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * lCount));
+            long lSum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                lSum += counts.get(i);
+                if (lSum >= lTarget) {
+                    return Math.min(getHighestValue(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        static int getIndex(long value) {
+            if (value < SUB_BUCKET_COUNT) {
+                return (int) value;
+            }
+            // value >>> iShift is between SUB_BUCKET_COUNT and 2 * SUB_BUCKET_COUNT - 1
+            int iShift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (iShift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> iShift) - SUB_BUCKET_COUNT);
+        }
+
+        static long getHighestValue(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int iShift = index / SUB_BUCKET_COUNT - 1;
+            long lBase = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+            return ((lBase + 1) << iShift) - 1;
+        }
+    }
+
+    public static class OperationStats {
+
+        private final String operation;
+        private final Histogram latency = new Histogram();
+        private final AtomicLong networkTime = new AtomicLong();
+        private final AtomicLong parseTime = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong retryCount = new AtomicLong();
+
+        private OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the histogram of the total time in us
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the total network time in us of the requests with the parse time measured
+         */
+        public long getNetworkTime() {
+            return networkTime.get();
+        }
+
+        /**
+         * @return the total parse time in us of the requests with the parse time measured
+         */
+        public long getParseTime() {
+            return parseTime.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        public long getRetryCount() {
+            return retryCount.get();
+        }
+    }
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+    private final long startTime = System.currentTimeMillis();
+
+    @Override
+    public void onRequest(RequestMetrics metrics) {
+        OperationStats stats = getOperationStats(metrics.getOperation());
+        stats.latency.record(metrics.getTotalTime() / 1000);
+        if (metrics.getParseTime() >= 0) {
+            stats.networkTime.addAndGet(metrics.getNetworkTime() / 1000);
+            stats.parseTime.addAndGet(metrics.getParseTime() / 1000);
+        }
+        if (metrics.getBytesIn() > 0) {
+            stats.bytesIn.addAndGet(metrics.getBytesIn());
+        }
+        if (metrics.getBytesOut() > 0) {
+            stats.bytesOut.addAndGet(metrics.getBytesOut());
+        }
+        if (!metrics.isSuccess()) {
+            stats.errorCount.incrementAndGet();
+        }
+        stats.retryCount.addAndGet(metrics.getRetryCount());
+    }
+
+    /**
+     * @return the operations ordered by the total time, highest first
+     */
+    public List<OperationStats> getOperations() {
+        List<OperationStats> alStats = new ArrayList<OperationStats>(operations.values());
+        Collections.sort(alStats, new Comparator<OperationStats>() {
+            @Override
+            public int compare(OperationStats o1, OperationStats o2) {
+                long l1 = o1.latency.getTotal();
+                long l2 = o2.latency.getTotal();
+                return l1 < l2 ? 1 : (l1 == l2 ? o1.operation.compareTo(o2.operation) : -1);
+            }
+        });
+        return alStats;
+    }
+
+    public OperationStats getOperationStats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            if (operations.size() >= MAX_OPERATIONS) {
+                operation = OTHER_OPERATION;
+            }
+            stats = new OperationStats(operation);
+            OperationStats existing = operations.putIfAbsent(operation, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Prints one line per operation, ordered by the total time, with the times in ms.
+     */
+    public void dump(PrintStream out) {
+        out.println("[LatencyHistogramListener] " + (System.currentTimeMillis() - startTime) / 1000 + "s since start");
+        out.println("count\terrors\tretries\tp50\tp90\tp99\tp99.9\tmax\ttotal\tnetwork\tparse\tbytesIn\tbytesOut\toperation");
+        for (OperationStats stats : getOperations()) {
+            Histogram latency = stats.latency;
+            out.println(latency.getCount()
+                    + "\t" + stats.getErrorCount()
+                    + "\t" + stats.getRetryCount()
+                    + "\t" + toMs(latency.getValueAtPercentile(50))
+                    + "\t" + toMs(latency.getValueAtPercentile(90))
+                    + "\t" + toMs(latency.getValueAtPercentile(99))
+                    + "\t" + toMs(latency.getValueAtPercentile(99.9))
+                    + "\t" + toMs(latency.getMax())
+                    + "\t" + toMs(latency.getTotal())
+                    + "\t" + toMs(stats.getNetworkTime())
+                    + "\t" + toMs(stats.getParseTime())
+                    + "\t" + stats.getBytesIn()
+                    + "\t" + stats.getBytesOut()
+                    + "\t" + stats.getOperation());
+        }
+        out.flush();
+    }
+
+    private static String toMs(long lUs) {
+        return String.valueOf(lUs / 1000) + "." + (lUs % 1000) / 100;
+    }
+}
@@ -0,0 +1,186 @@
+package com.independentsoft.share;
+
+import com.independentsoft.share.queryoptions.And;
+import com.independentsoft.share.queryoptions.Filter;
+import com.independentsoft.share.queryoptions.IFilterRestriction;
+import com.independentsoft.share.queryoptions.IQueryOption;
+import com.independentsoft.share.queryoptions.IsGreaterThan;
+import com.independentsoft.share.queryoptions.OrderBy;
+import com.independentsoft.share.queryoptions.PropertyOrder;
+import com.independentsoft.share.queryoptions.Top;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Pull based list item reader. Each item is parsed from the response stream when it is requested,
+ *              and the next page (ordered by Id) is requested when the current page is consumed.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-22 23626  jefferson.brigino Created
+ * 2019-11-09 23626  jefferson.brigino Use the shared XMLInputFactory
+ * 2019-11-16 23626  jefferson.brigino Record the parse of an item if it takes longer than the threshold
+ */
+public class ListItemIterator
+        implements Iterator<ListItem>, Closeable {
+
+    private final Service service;
+    private final String siteUrl;
+    private final String listId;
+    private final List<IFilterRestriction> restrictions;
+    private final List<IQueryOption> queryOptions;
+    private final int pageSize;
+
+    private InputStream inputStream;
+    private XMLStreamReader reader;
+    private ListItem next;
+    private int pageCount;
+    private int lastItemId = -1;
+    private boolean isLastPage;
+    private boolean isClosed;
+
+    ListItemIterator(Service service,
+                     String siteUrl,
+                     String listId,
+                     List<IFilterRestriction> restrictions,
+                     List<IQueryOption> queryOptions,
+                     int pageSize) {
+        this.service = service;
+        this.siteUrl = siteUrl;
+        this.listId = listId;
+        this.restrictions = restrictions != null ? restrictions : new ArrayList<IFilterRestriction>();
+        this.queryOptions = queryOptions != null ? queryOptions : new ArrayList<IQueryOption>();
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (isClosed) {
+            return false;
+        }
+        try {
+            next = readNext();
+        } catch (Exception e) {
+            close();
+            throw new ReadException(e);
+        }
+        if (next == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public ListItem next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ListItem listItem = next;
+        next = null;
+        return listItem;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the id of the last item returned, which can be used to resume the enumeration.
+     *
+     * @return the last item id, or -1 if nothing has been returned
+     */
+    public int getLastItemId() {
+        return lastItemId;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        next = null;
+        closePage();
+    }
+
+    private ListItem readNext() throws Exception {
+        while (true) {
+            if (reader == null) {
+                if (isLastPage) {
+                    return null;
+                }
+                openPage();
+            }
+            while (reader.hasNext()) {
+                reader.next();
+                if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("entry") && reader.getNamespaceURI().equals("http://www.w3.org/2005/Atom")) {
+                    // the item consumes its own inline entries and stops at its </entry>
+                    long lStart = System.nanoTime();
+                    ListItem listItem = new ListItem(reader);
+                    EventRecorder.recordParse("ListItem.parse", siteUrl, lStart);
+                    pageCount++;
+                    lastItemId = listItem.getId();
+                    return listItem;
+                }
+            }
+            closePage();
+            if (pageCount < pageSize) {
+                isLastPage = true;
+            }
+        }
+    }
+
+    private void openPage() throws Exception {
+        ArrayList<IFilterRestriction> alRestriction = new ArrayList<IFilterRestriction>(restrictions);
+        if (lastItemId >= 0) {
+            alRestriction.add(new IsGreaterThan("Id", lastItemId));
+        }
+        List<IQueryOption> pageOptions = new ArrayList<IQueryOption>(queryOptions);
+        if (alRestriction.size() > 1) {
+            pageOptions.add(new Filter(new And(alRestriction)));
+        } else if (alRestriction.size() > 0) {
+            pageOptions.add(new Filter(alRestriction.get(0)));
+        }
+        pageOptions.add(new Top(pageSize));
+        pageOptions.add(new OrderBy(new PropertyOrder("Id", false)));
+
+        pageCount = 0;
+        inputStream = service.getListItemsStream(siteUrl, listId, pageOptions);
+        reader = XmlReaderFactory.createXMLStreamReader(inputStream);
+    }
+
+    private void closePage() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+            }
+            reader = null;
+        }
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (Exception e) {
+            }
+            inputStream = null;
+        }
+    }
+
+    public static class ReadException
+            extends RuntimeException {
+
+        ReadException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
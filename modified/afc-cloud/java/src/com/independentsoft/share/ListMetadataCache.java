@@ -0,0 +1,336 @@
+package com.independentsoft.share;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Cache of the schema responses of the lists of a site, i.e. the field definitions and SchemaXml, and the
+ *              list entity requested with the properties not changed by the items, keyed by list id. The raw
+ *              responses are kept so they can be parsed again by the same handlers and persisted to disk between
+ *              runs, the file is written out of the lock of the cache. An entry is dropped when the list is reported
+ *              changed by the change token or it is older than the max age, and the least recently used lists are
+ *              evicted over the size limit.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-05 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Cache the schema responses only, invalidated by the change token instead of LastItemModifiedDate
+ * 2019-11-16 23626  jefferson.brigino Persist the entry out of the lock of the cache
+ */
+public class ListMetadataCache {
+
+    public static final int DEFAULT_MAX_LISTS = 500;
+
+    private static final int FILE_VERSION = 2;
+    private static final String FILE_EXTENSION = ".cache";
+
+    private static class Response {
+
+        private final byte[] body;
+        private final long cachedTime;
+
+        private Response(byte[] body, long cachedTime) {
+            this.body = body;
+            this.cachedTime = cachedTime;
+        }
+    }
+
+    private static class Entry {
+
+        private final String listId;
+        private final Map<String, Response> responses = new HashMap<String, Response>();
+
+        private Entry(String listId) {
+            this.listId = listId;
+        }
+    }
+
+    private final String siteUrl;
+    private final File directory;
+    private final int maxLists;
+    private long maxAge;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long hitCount;
+    private long missCount;
+    private long invalidateCount;
+
+    /**
+     * @param siteUrl   the site url
+     * @param maxLists  the maximum number of lists kept in memory
+     * @param directory the directory to persist the entries, or null to keep them in memory only
+     */
+    public ListMetadataCache(String siteUrl, final int maxLists, File directory) {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (maxLists <= 0) {
+            throw new IllegalArgumentException("The parameter maxLists must be positive.");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        }
+        this.siteUrl = siteUrl;
+        this.maxLists = maxLists;
+        this.directory = directory;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxLists;
+            }
+        };
+    }
+
+    public String getSiteUrl() {
+        return siteUrl;
+    }
+
+    public int getMaxLists() {
+        return maxLists;
+    }
+
+    /**
+     * @param maxAge the time in ms a response is used, 0 to keep it until the list is invalidated by the change
+     *               token, e.g. by ChangeTokenEngine. A max age must be set if the change token is not tracked.
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("The parameter maxAge must be non-negative.");
+        }
+        this.maxAge = maxAge;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of invalidations, read before a response is requested and passed to
+     * {@link #put(String, String, byte[], long)}
+     */
+    public synchronized long getInvalidateCount() {
+        return invalidateCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param listId the list id
+     * @param key    the request key, e.g. the kind of response with the query options
+     * @return the response, or null if not cached or older than the max age
+     */
+    public synchronized byte[] get(String listId, String key) {
+        Entry entry = getEntry(listId);
+        Response response = entry == null ? null : entry.responses.get(key);
+        if (response != null && maxAge > 0 && System.currentTimeMillis() - response.cachedTime >= maxAge) {
+            entry.responses.remove(key);
+            response = null;
+        }
+        if (response == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return response.body;
+    }
+
+    /**
+     * Caches the response of the list. The entry is written to the directory after the lock of the cache is released.
+     *
+     * @param invalidateCount the value of {@link #getInvalidateCount()} read before the response is requested, the
+     *                        response is not cached if the cache is invalidated since, as it may be outdated
+     */
+    public void put(String listId, String key, byte[] response, long invalidateCount) {
+        Entry entry;
+        synchronized (this) {
+            if (invalidateCount != this.invalidateCount) {
+                return;
+            }
+            entry = getEntry(listId);
+            if (entry == null) {
+                entry = new Entry(toKey(listId));
+                entries.put(entry.listId, entry);
+            }
+            entry.responses.put(key, new Response(response, System.currentTimeMillis()));
+        }
+        save(entry);
+    }
+
+    /**
+     * Drops the entry of the list, e.g. when the change token reports the list is changed.
+     *
+     * @param listId the list id
+     */
+    public synchronized void invalidate(String listId) {
+        String sKey = toKey(listId);
+        entries.remove(sKey);
+        if (directory != null) {
+            getFile(sKey).delete();
+        }
+        invalidateCount++;
+    }
+
+    /**
+     * Drops all entries, e.g. when the change token is missing or expired and the changes are unknown.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(FILE_EXTENSION)) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        invalidateCount++;
+    }
+
+    /**
+     * Reads the whole response, to be cached and then parsed by the handler.
+     */
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int iRead;
+        while ((iRead = is.read(buffer)) >= 0) {
+            out.write(buffer, 0, iRead);
+        }
+        return out.toByteArray();
+    }
+
+    private Entry getEntry(String listId) {
+        String sKey = toKey(listId);
+        Entry entry = entries.get(sKey);
+        if (entry == null && directory != null) {
+            // kept from a previous run, the change token since then is checked by the caller
+            entry = load(sKey);
+            if (entry != null) {
+                entries.put(sKey, entry);
+            }
+        }
+        return entry;
+    }
+
+    private Entry load(String sKey) {
+        File file = getFile(sKey);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            Entry entry = new Entry(sKey);
+            int iCount = in.readInt();
+            for (int i = 0; i < iCount; i++) {
+                String sResponseKey = in.readUTF();
+                long lCachedTime = in.readLong();
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                entry.responses.put(sResponseKey, new Response(response, lCachedTime));
+            }
+            return entry;
+        } catch (IOException e) {
+            // corrupted file, the list is requested again
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void save(Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        // one writer per entry, which writes the responses cached by the time it takes the snapshot
+        synchronized (entry) {
+            Map<String, Response> mResponse;
+            long lInvalidateCount;
+            synchronized (this) {
+                mResponse = new HashMap<String, Response>(entry.responses);
+                lInvalidateCount = invalidateCount;
+            }
+            File tempFile = null;
+            DataOutputStream out = null;
+            try {
+                tempFile = File.createTempFile(getFile(entry.listId).getName(), ".tmp", directory);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                out.writeInt(FILE_VERSION);
+                out.writeInt(mResponse.size());
+                for (Map.Entry<String, Response> response : mResponse.entrySet()) {
+                    out.writeUTF(response.getKey());
+                    out.writeLong(response.getValue().cachedTime);
+                    out.writeInt(response.getValue().body.length);
+                    out.write(response.getValue().body);
+                }
+                out.close();
+                out = null;
+                synchronized (this) {
+                    // the file of an invalidated list is deleted, it must not be written back by an earlier snapshot
+                    if (lInvalidateCount != invalidateCount) {
+                        tempFile.delete();
+                        return;
+                    }
+                    File file = getFile(entry.listId);
+                    if (!tempFile.renameTo(file)) {
+                        file.delete();
+                        tempFile.renameTo(file);
+                    }
+                }
+            } catch (IOException e) {
+                // the entry stays in memory, persistence is best effort
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private File getFile(String sKey) {
+        return new File(directory, sKey.replaceAll("[^0-9a-z\\-]", "") + FILE_EXTENSION);
+    }
+
+    private static String toKey(String s) {
+        String sKey = s.toLowerCase();
+        if (sKey.startsWith("{") && sKey.endsWith("}")) {
+            sKey = sKey.substring(1, sKey.length() - 1);
+        }
+        return sKey;
+    }
+}
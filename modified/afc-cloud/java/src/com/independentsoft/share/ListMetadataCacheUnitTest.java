@@ -0,0 +1,201 @@
+package com.independentsoft.share;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Behavior test of ListMetadataCache: the responses cached per list, a response requested before an
+ *              invalidation not cached, the invalidation of a list or all lists, the eviction of the least recently
+ *              used list, the max age and the entries persisted to the directory by concurrent writers. Run by
+ *              main(), it throws on the first failed check.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class ListMetadataCacheUnitTest {
+
+    private static final String SITE_URL = "https://contoso.sharepoint.com/sites/a";
+    private static final String LIST_ID = "{6B1C2F3E-0000-4000-8000-000000000001}";
+    private static final String OTHER_LIST_ID = "6b1c2f3e-0000-4000-8000-000000000002";
+
+    public static void main(String[] args) throws Exception {
+        testGetPut();
+        testStalePut();
+        testInvalidate();
+        testEviction();
+        testMaxAge();
+        testPersistence();
+        testConcurrentSave();
+        System.out.println("[ListMetadataCacheUnitTest] All tests passed");
+    }
+
+    private static void testGetPut() {
+        ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, null);
+        check(cache.get(LIST_ID, "/fields") == null, "Not cached yet");
+        cache.put(LIST_ID, "/fields", bytes("fields"), cache.getInvalidateCount());
+        check("fields".equals(string(cache.get(LIST_ID, "/fields"))), "Response is cached");
+        check("fields".equals(string(cache.get(LIST_ID.toLowerCase().substring(1, LIST_ID.length() - 1), "/fields"))),
+                "List id is not case sensitive, braces are ignored");
+        check(cache.get(LIST_ID, "/schemaxml") == null, "Other key of the list is not cached");
+        check(cache.getHitCount() == 2 && cache.getMissCount() == 2,
+                "Hits and misses counted, " + cache.getHitCount() + "/" + cache.getMissCount());
+    }
+
+    private static void testStalePut() {
+        ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, null);
+        long lInvalidateCount = cache.getInvalidateCount();
+        // the list is changed while its response is requested
+        cache.invalidate(LIST_ID);
+        cache.put(LIST_ID, "/fields", bytes("outdated"), lInvalidateCount);
+        check(cache.get(LIST_ID, "/fields") == null, "Response requested before the invalidation is not cached");
+    }
+
+    private static void testInvalidate() {
+        ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, null);
+        cache.put(LIST_ID, "/fields", bytes("a"), cache.getInvalidateCount());
+        cache.put(OTHER_LIST_ID, "/fields", bytes("b"), cache.getInvalidateCount());
+        cache.invalidate(LIST_ID);
+        check(cache.get(LIST_ID, "/fields") == null, "Invalidated list is dropped");
+        check(cache.get(OTHER_LIST_ID, "/fields") != null, "Other list is kept");
+        cache.clear();
+        check(cache.get(OTHER_LIST_ID, "/fields") == null && cache.size() == 0, "All lists are dropped by clear");
+    }
+
+    private static void testEviction() {
+        ListMetadataCache cache = new ListMetadataCache(SITE_URL, 2, null);
+        cache.put("list1", "/fields", bytes("1"), cache.getInvalidateCount());
+        cache.put("list2", "/fields", bytes("2"), cache.getInvalidateCount());
+        // list1 is used after list2, list2 is the least recently used
+        cache.get("list1", "/fields");
+        cache.put("list3", "/fields", bytes("3"), cache.getInvalidateCount());
+        check(cache.size() == 2, "Size is limited, " + cache.size());
+        check(cache.get("list2", "/fields") == null, "Least recently used list is evicted");
+        check(cache.get("list1", "/fields") != null && cache.get("list3", "/fields") != null, "Recent lists are kept");
+    }
+
+    private static void testMaxAge() throws Exception {
+        ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, null);
+        cache.setMaxAge(50);
+        cache.put(LIST_ID, "/fields", bytes("fields"), cache.getInvalidateCount());
+        check(cache.get(LIST_ID, "/fields") != null, "Response is used before max age");
+        Thread.sleep(100);
+        check(cache.get(LIST_ID, "/fields") == null, "Response is not used after max age");
+    }
+
+    private static void testPersistence() throws Exception {
+        File directory = createDirectory();
+        try {
+            ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, directory);
+            cache.put(LIST_ID, "/fields", bytes("fields"), cache.getInvalidateCount());
+            cache.put(LIST_ID, "/schemaxml", bytes("schema"), cache.getInvalidateCount());
+            cache.put(OTHER_LIST_ID, "/fields", bytes("other"), cache.getInvalidateCount());
+
+            ListMetadataCache loaded = new ListMetadataCache(SITE_URL, 10, directory);
+            check("fields".equals(string(loaded.get(LIST_ID, "/fields"))), "Response is loaded from the directory");
+            check("schema".equals(string(loaded.get(LIST_ID, "/schemaxml"))), "All responses of the list are loaded");
+
+            cache.invalidate(OTHER_LIST_ID);
+            loaded = new ListMetadataCache(SITE_URL, 10, directory);
+            check(loaded.get(OTHER_LIST_ID, "/fields") == null, "File of the invalidated list is deleted");
+            check(loaded.get(LIST_ID, "/fields") != null, "File of the other list is kept");
+
+            cache.clear();
+            loaded = new ListMetadataCache(SITE_URL, 10, directory);
+            check(loaded.get(LIST_ID, "/fields") == null, "Files are deleted by clear");
+            check(getTempFiles(directory).isEmpty(), "No temporary file is left");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void testConcurrentSave() throws Exception {
+        File directory = createDirectory();
+        try {
+            final ListMetadataCache cache = new ListMetadataCache(SITE_URL, 10, directory);
+            final int iKeys = 50;
+            List<Thread> alThread = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                final int iThread = i;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = iThread; j < iKeys; j += 4) {
+                            cache.put(LIST_ID, "/key" + j, bytes("value" + j), cache.getInvalidateCount());
+                        }
+                    }
+                });
+                alThread.add(thread);
+                thread.start();
+            }
+            for (Thread thread : alThread) {
+                thread.join();
+            }
+
+            ListMetadataCache loaded = new ListMetadataCache(SITE_URL, 10, directory);
+            for (int j = 0; j < iKeys; j++) {
+                check(("value" + j).equals(string(loaded.get(LIST_ID, "/key" + j))),
+                        "Response of every writer is persisted, missing /key" + j);
+            }
+            check(getTempFiles(directory).isEmpty(), "No temporary file is left");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("ListMetadataCacheUnitTest", "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        return directory;
+    }
+
+    private static List<File> getTempFiles(File directory) {
+        List<File> alFile = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    alFile.add(file);
+                }
+            }
+        }
+        return alFile;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static byte[] bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String string(byte[] bytes) {
+        try {
+            return bytes == null ? null : new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void check(boolean bCondition, String sMessage) {
+        if (!bCondition) {
+            throw new IllegalStateException("Failed: " + sMessage);
+        }
+    }
+}
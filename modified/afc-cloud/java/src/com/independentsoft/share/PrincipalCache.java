@@ -0,0 +1,223 @@
+package com.independentsoft.share;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Cache of the users, groups and role definitions of a site, shared by the restore threads. A missing
+ *              principal (404) is cached as well for a shorter time, the entries expire after a time to live, and
+ *              the threads asking for the same key at the same time wait for one request instead of sending one each.
+ *              The values are shared by the threads, Service caches the responses and parses them for each caller.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-11 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Throw a new exception to each caller of a failed load
+ * 2019-11-16 23626  jefferson.brigino The cached values are shared, only immutable values are cached, e.g. the responses
+ */
+public class PrincipalCache {
+
+    public static final long DEFAULT_TTL_MS = 30 * 60 * 1000;
+    public static final long DEFAULT_NEGATIVE_TTL_MS = 5 * 60 * 1000;
+
+    // expired entries are removed after every this number of loads
+    private static final int PURGE_INTERVAL = 256;
+
+    public interface Loader<T> {
+
+        T load() throws ServiceException;
+    }
+
+    private static class Entry {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private Object value;
+        private ServiceException exception;
+        // Long.MAX_VALUE while loading
+        private volatile long expireTime = Long.MAX_VALUE;
+
+        private boolean isExpired(long now) {
+            return expireTime <= now;
+        }
+    }
+
+    /**
+     * The failure of a cached or shared load, with the status of the failed request.
+     */
+    private static class CachedServiceException
+            extends ServiceException {
+
+        private final ServiceException exception;
+
+        private CachedServiceException(ServiceException exception) {
+            super(exception.getMessage(), exception);
+            this.exception = exception;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return exception.getStatusCode();
+        }
+
+        @Override
+        public boolean hasErrorResponse() {
+            return exception.hasErrorResponse();
+        }
+    }
+
+    private final String siteUrl;
+    private final long ttl;
+    private final long negativeTtl;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+
+    /**
+     * @param siteUrl     the site url
+     * @param ttl         the time to live of a found principal or role in ms
+     * @param negativeTtl the time to live of a missing principal or role in ms, 0 not to cache them
+     */
+    public PrincipalCache(String siteUrl, long ttl, long negativeTtl) {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The parameter ttl must be positive.");
+        }
+        if (negativeTtl < 0) {
+            throw new IllegalArgumentException("The parameter negativeTtl must be non-negative.");
+        }
+        this.siteUrl = siteUrl;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    public String getSiteUrl() {
+        return siteUrl;
+    }
+
+    /**
+     * Gets the cached value of the key, or loads it. Only one thread loads a key at a time, the other threads asking
+     * for the same key wait for its result.
+     *
+     * @param key    the key, e.g. "ensureUser:i:0#.f|membership|user@contoso.com"
+     * @param loader the request of the value
+     * @return the value, the same instance for all callers until it expires, it must not be modified
+     * @throws ServiceException the exception of the request, or the cached exception of a missing principal, a new
+     *                          instance for each caller with the failure of the request as cause
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Loader<T> loader) throws ServiceException {
+        if (key == null) {
+            throw new IllegalArgumentException("key");
+        }
+        if (loader == null) {
+            throw new IllegalArgumentException("loader");
+        }
+
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+                Entry newEntry = new Entry();
+                boolean isOwner = entry == null ? entries.putIfAbsent(key, newEntry) == null : entries.replace(key, entry, newEntry);
+                if (!isOwner) {
+                    // loaded or replaced by another thread in between
+                    continue;
+                }
+                missCount.incrementAndGet();
+                load(key, newEntry, loader);
+                entry = newEntry;
+            } else if (entry.latch.getCount() > 0) {
+                waitCount.incrementAndGet();
+                try {
+                    entry.latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceException(e.getMessage(), e);
+                }
+            } else {
+                hitCount.incrementAndGet();
+            }
+
+            if (entry.exception != null) {
+                // the cached failure is shared, each caller gets its own exception
+                throw new CachedServiceException(entry.exception);
+            }
+            return (T) entry.value;
+        }
+    }
+
+    public void invalidate(String key) {
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of times a thread waited for the request of another thread
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    private void load(String key, Entry entry, Loader<?> loader) {
+        try {
+            entry.value = loader.load();
+            entry.expireTime = System.currentTimeMillis() + ttl;
+        } catch (ServiceException e) {
+            entry.exception = e;
+            if (negativeTtl > 0 && e.getStatusCode() == 404) {
+                entry.expireTime = System.currentTimeMillis() + negativeTtl;
+            } else {
+                // not cached, the waiting threads share the failure and the next call retries
+                entry.expireTime = 0;
+                entries.remove(key, entry);
+            }
+        } catch (RuntimeException e) {
+            entry.exception = new ServiceException(e.getMessage(), e);
+            entry.expireTime = 0;
+            entries.remove(key, entry);
+        } finally {
+            entry.latch.countDown();
+        }
+
+        if (loadCount.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purge();
+        }
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                // only if not replaced by a new load in between
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.independentsoft.share;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Behavior test of PrincipalCache: one load per key for concurrent callers, the negative cache of a
+ *              missing principal, the failures not cached, the expiry and the invalidation. Run by main(), it throws
+ *              on the first failed check.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class PrincipalCacheUnitTest {
+
+    public static void main(String[] args) throws Exception {
+        testConcurrentLoad();
+        testMissingCached();
+        testFailureNotCached();
+        testExpiry();
+        testInvalidate();
+        System.out.println("[PrincipalCacheUnitTest] All tests passed");
+    }
+
+    private static void testConcurrentLoad() throws Exception {
+        final PrincipalCache cache = new PrincipalCache("https://contoso.sharepoint.com", 60000, 60000);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final PrincipalCache.Loader<String> loader = new PrincipalCache.Loader<String>() {
+            @Override
+            public String load() throws ServiceException {
+                loadCount.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "user";
+            }
+        };
+
+        int iThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(iThreads);
+        try {
+            List<Future<String>> alFuture = new ArrayList<Future<String>>();
+            for (int i = 0; i < iThreads; i++) {
+                alFuture.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return cache.get("GET user", loader);
+                    }
+                }));
+            }
+            await(loading);
+            // the other threads wait for the load in progress
+            long lDeadline = System.currentTimeMillis() + 5000;
+            while (cache.getWaitCount() < iThreads - 1 && System.currentTimeMillis() < lDeadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<String> future : alFuture) {
+                check("user".equals(future.get()), "Concurrent callers get the loaded value");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        check(loadCount.get() == 1, "One load for concurrent callers, loaded " + loadCount.get());
+        check(cache.getMissCount() == 1, "One miss, " + cache.getMissCount());
+        check(cache.getWaitCount() == iThreads - 1, "Other callers waited, " + cache.getWaitCount());
+
+        cache.get("GET user", loader);
+        check(loadCount.get() == 1 && cache.getHitCount() == 1, "Loaded value is cached");
+    }
+
+    private static void testMissingCached() throws Exception {
+        PrincipalCache cache = new PrincipalCache("https://contoso.sharepoint.com", 60000, 60000);
+        CountingLoader loader = new CountingLoader(404);
+        ServiceException first = getFailure(cache, "GET missing", loader);
+        ServiceException second = getFailure(cache, "GET missing", loader);
+        check(loader.count == 1, "Missing principal is cached, loaded " + loader.count);
+        check(first.getStatusCode() == 404 && second.getStatusCode() == 404, "Cached failure keeps the status");
+        check(first != second, "Each caller gets its own exception");
+
+        PrincipalCache noNegative = new PrincipalCache("https://contoso.sharepoint.com", 60000, 0);
+        loader = new CountingLoader(404);
+        getFailure(noNegative, "GET missing", loader);
+        getFailure(noNegative, "GET missing", loader);
+        check(loader.count == 2, "Missing principal is not cached without negative ttl, loaded " + loader.count);
+    }
+
+    private static void testFailureNotCached() throws Exception {
+        PrincipalCache cache = new PrincipalCache("https://contoso.sharepoint.com", 60000, 60000);
+        CountingLoader loader = new CountingLoader(500);
+        ServiceException e = getFailure(cache, "GET user", loader);
+        check(e.getStatusCode() == 500, "Failure keeps the status");
+        getFailure(cache, "GET user", loader);
+        check(loader.count == 2, "Failure other than 404 is not cached, loaded " + loader.count);
+        check(cache.size() == 0, "Failed entry is removed");
+    }
+
+    private static void testExpiry() throws Exception {
+        PrincipalCache cache = new PrincipalCache("https://contoso.sharepoint.com", 50, 50);
+        CountingLoader loader = new CountingLoader(0);
+        cache.get("GET user", loader);
+        cache.get("GET user", loader);
+        check(loader.count == 1, "Value is cached before expiry");
+        Thread.sleep(100);
+        cache.get("GET user", loader);
+        check(loader.count == 2, "Value is loaded again after expiry, loaded " + loader.count);
+
+        loader = new CountingLoader(404);
+        getFailure(cache, "GET missing", loader);
+        Thread.sleep(100);
+        getFailure(cache, "GET missing", loader);
+        check(loader.count == 2, "Missing principal is loaded again after negative ttl, loaded " + loader.count);
+    }
+
+    private static void testInvalidate() throws Exception {
+        PrincipalCache cache = new PrincipalCache("https://contoso.sharepoint.com", 60000, 60000);
+        CountingLoader loader = new CountingLoader(0);
+        cache.get("GET user", loader);
+        cache.get("GET role", loader);
+        cache.invalidate("GET user");
+        cache.get("GET user", loader);
+        cache.get("GET role", loader);
+        check(loader.count == 3, "Only the invalidated key is loaded again, loaded " + loader.count);
+        cache.clear();
+        check(cache.size() == 0, "Cache is empty after clear");
+        cache.get("GET role", loader);
+        check(loader.count == 4, "Value is loaded again after clear, loaded " + loader.count);
+    }
+
+    private static ServiceException getFailure(PrincipalCache cache, String sKey, CountingLoader loader) {
+        try {
+            cache.get(sKey, loader);
+        } catch (ServiceException e) {
+            return e;
+        }
+        throw new IllegalStateException("ServiceException expected for " + sKey);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void check(boolean bCondition, String sMessage) {
+        if (!bCondition) {
+            throw new IllegalStateException("Failed: " + sMessage);
+        }
+    }
+
+    /**
+     * Counts the loads, fails with the status if not 0.
+     */
+    private static class CountingLoader
+            implements PrincipalCache.Loader<String> {
+
+        private final int iStatusCode;
+        private int count;
+
+        private CountingLoader(int iStatusCode) {
+            this.iStatusCode = iStatusCode;
+        }
+
+        @Override
+        public String load() throws ServiceException {
+            count++;
+            if (iStatusCode != 0) {
+                throw new StatusServiceException(iStatusCode);
+            }
+            return "value" + count;
+        }
+    }
+
+    private static class StatusServiceException
+            extends ServiceException {
+
+        private final int iStatusCode;
+
+        private StatusServiceException(int iStatusCode) {
+            super("HTTP " + iStatusCode, null);
+            this.iStatusCode = iStatusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return iStatusCode;
+        }
+    }
+}
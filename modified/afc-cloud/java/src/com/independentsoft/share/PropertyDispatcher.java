@@ -0,0 +1,74 @@
+package com.independentsoft.share;
+
+import javax.xml.stream.XMLStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Dispatch the elements of an entity to the parse code by one namespace check and one hash lookup on the
+ *              local name, instead of comparing the local name and namespace with every property in turn. The parser
+ *              registers its properties with int constants and switches on the returned constant.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-07 23626  jefferson.brigino Created
+ * 2019-11-08 23626  jefferson.brigino Added lookup by property name for JSON responses
+ */
+final class PropertyDispatcher {
+
+    static final String NS_DATA_SERVICES = "http://schemas.microsoft.com/ado/2007/08/dataservices";
+    static final String NS_METADATA = "http://schemas.microsoft.com/ado/2007/08/dataservices/metadata";
+    static final String NS_ATOM = "http://www.w3.org/2005/Atom";
+
+    static final int UNKNOWN = -1;
+
+    private final String namespace;
+    private final Map<String, Integer> properties = new HashMap<String, Integer>();
+
+    /**
+     * @param namespace the namespace of the properties, e.g. NS_DATA_SERVICES
+     */
+    PropertyDispatcher(String namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * Registers a property, only called when the parser class is initialized.
+     *
+     * @return this dispatcher
+     */
+    PropertyDispatcher add(String localName, int property) {
+        if (properties.put(localName, property) != null) {
+            throw new IllegalArgumentException("Duplicate property " + localName);
+        }
+        return this;
+    }
+
+    /**
+     * @return the property constant if the reader is at the start element of a registered property, else UNKNOWN
+     */
+    int getProperty(XMLStreamReader reader) {
+        if (!reader.isStartElement() || !namespace.equals(reader.getNamespaceURI())) {
+            return UNKNOWN;
+        }
+        return getProperty(reader.getLocalName());
+    }
+
+    /**
+     * @param name the local name in Atom, or the property name in JSON
+     * @return the property constant, or UNKNOWN if not registered
+     */
+    int getProperty(String name) {
+        Integer property = properties.get(name);
+        return property == null ? UNKNOWN : property;
+    }
+
+    static boolean isStartElement(XMLStreamReader reader, String localName, String namespace) {
+        return reader.isStartElement() && localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+
+    static boolean isEndElement(XMLStreamReader reader, String localName, String namespace) {
+        return reader.isEndElement() && localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+}
@@ -0,0 +1,16 @@
+package com.independentsoft.share;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Receives the metrics of each request sent by Service, set by Service.Callback.setRequestListener().
+ *              Called by the thread which sent the request after it is completed, so it must be thread-safe and
+ *              return quickly.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-12 23626  jefferson.brigino Created
+ */
+public interface RequestListener {
+
+    void onRequest(RequestMetrics metrics);
+}
@@ -0,0 +1,304 @@
+package com.independentsoft.share;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Metrics of one request sent by Service, from the outermost doSendRequest, doSendRawRequest or
+ *              doSendBatchBoundaryRequest call until it returns. The response handler is called by ServiceInstance
+ *              and is passed on as it is, so the total time includes the time spent in the handler. The bytes read,
+ *              the first byte time and the parse time are measured by the stream of measure(), which is used by the
+ *              response handlers of this package. They are unknown for the handlers of ServiceResponseUtil and the
+ *              stream returned by doSendRawRequest, which is read by the caller after the request ends.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-12 23626  jefferson.brigino Created
+ * 2019-11-13 23626  jefferson.brigino Record the request events to EventRecorder
+ * 2019-11-15 23626  jefferson.brigino Measure around the request without replacing the response handler
+ * 2019-11-16 23626  jefferson.brigino Measure the bytes read, first byte and parse time by the stream given to the handler
+ * 2019-11-16 23626  jefferson.brigino Record the first byte and parsed events of the measured stream
+ */
+public class RequestMetrics {
+
+    // the arguments in parentheses, e.g. lists('id') or items(1), with '' as an escaped quote
+    private static final Pattern ARGUMENTS = Pattern.compile("\\((?:'(?:[^']|'')*'|[^)'])*\\)");
+
+    private static final ThreadLocal<RequestMetrics> current = new ThreadLocal<RequestMetrics>();
+
+    private final String operation;
+    private final String method;
+    private final String siteUrl;
+    private final String requestUrl;
+    private final long bytesOut;
+    private final long startTime = System.nanoTime();
+
+    private long bytesIn = -1;
+    private long firstByteTime = -1;
+    private long parseTime = -1;
+    // the stream of the current attempt not yet closed
+    private MeasuredInputStream measuring;
+    private long totalTime;
+    private int retryCount;
+    private int statusCode;
+    private Throwable exception;
+
+    private RequestMetrics(String method, String siteUrl, String requestUrl, long bytesOut) {
+        this.operation = getOperationName(method, requestUrl);
+        this.method = method;
+        this.siteUrl = siteUrl;
+        this.requestUrl = requestUrl;
+        this.bytesOut = bytesOut;
+    }
+
+    /**
+     * @return the operation name of the request url, e.g. "GET _api/web/lists()/items()" for
+     * "GET _api/web/lists('id')/items(1)?$select=Id"
+     */
+    public static String getOperationName(String method, String requestUrl) {
+        if (requestUrl == null) {
+            return method;
+        }
+        int iQuery = requestUrl.indexOf('?');
+        String sPath = iQuery < 0 ? requestUrl : requestUrl.substring(0, iQuery);
+        return method + " " + ARGUMENTS.matcher(sPath).replaceAll("()");
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getSiteUrl() {
+        return siteUrl;
+    }
+
+    public String getRequestUrl() {
+        return requestUrl;
+    }
+
+    /**
+     * @return the status code of the failure, or 0 if unknown: the status of a successful response, e.g. 200 or 206,
+     * is not exposed by ServiceInstance, and a failure without response, e.g. a timeout, has no status
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    public Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * @return number of characters of the request body, or -1 if sent from a stream
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return number of bytes of the response body read by the response handler, or -1 if not measured
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return the time in ns from the start of the request until the first byte of the response body of the last
+     * attempt is read, or -1 if not measured
+     */
+    public long getFirstByteTime() {
+        return firstByteTime;
+    }
+
+    /**
+     * @return the time in ns spent in the response handler from the response stream given to it until it is closed, of
+     * all attempts, or -1 if not measured
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return the total time less the parse time in ns, including the waiting time for retry, or -1 if the parse time
+     * is not measured
+     */
+    public long getNetworkTime() {
+        return parseTime < 0 ? -1 : totalTime - parseTime;
+    }
+
+    /**
+     * @return the total time in ns, including the waiting time for retry and the time in the response handler
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * @return number of retries of ServiceInstance decided by Service.Callback, and the retries in the queue of the
+     * tenant after throttled. The retries of a callback overriding getMsSleepTimeForNextRetry() without calling
+     * Service.Callback are not counted.
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics{" +
+                "operation='" + operation + '\'' +
+                ", statusCode=" + statusCode +
+                ", bytesOut=" + bytesOut +
+                ", bytesIn=" + bytesIn +
+                ", firstByteTime=" + firstByteTime / 1000000 + "ms" +
+                ", parseTime=" + parseTime / 1000000 + "ms" +
+                ", totalTime=" + totalTime / 1000000 + "ms" +
+                ", retryCount=" + retryCount +
+                '}';
+    }
+
+    /**
+     * Starts the metrics of a request on the current thread.
+     *
+     * @param bytesOut number of characters of the request body, or -1 if sent from a stream
+     * @return the metrics, or null if a request is already started by an outer overload
+     */
+    static RequestMetrics start(String method, String siteUrl, String requestUrl, long bytesOut) {
+        if (current.get() != null) {
+            return null;
+        }
+        RequestMetrics metrics = new RequestMetrics(method, siteUrl, requestUrl, bytesOut);
+        current.set(metrics);
+        EventRecorder.record(EventRecorder.Type.SENT, metrics.operation, siteUrl, 0, bytesOut);
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the request sent by the current thread, or null
+     */
+    static RequestMetrics getCurrent() {
+        return current.get();
+    }
+
+    void addRetry() {
+        retryCount++;
+        EventRecorder.record(EventRecorder.Type.RETRIED, operation, siteUrl, System.nanoTime() - startTime, retryCount);
+    }
+
+    /**
+     * Measures the response stream given to a response handler by the request of the current thread. The parse time
+     * is from now until the stream is closed, the handler of the next attempt is called, or the request ends.
+     *
+     * @param is the response stream
+     * @return the stream counting the bytes read, or is if no request is measured on the current thread
+     */
+    static InputStream measure(InputStream is) {
+        RequestMetrics metrics = current.get();
+        if (metrics == null || is == null || is instanceof MeasuredInputStream) {
+            return is;
+        }
+        if (metrics.measuring != null) {
+            metrics.measuring.finish();
+        }
+        metrics.measuring = new MeasuredInputStream(metrics, is);
+        return metrics.measuring;
+    }
+
+    /**
+     * Ends the metrics of the request on the current thread.
+     *
+     * @param t the exception of the request, or null if successful
+     */
+    void end(Throwable t) {
+        current.remove();
+        if (measuring != null) {
+            measuring.finish();
+        }
+        totalTime = System.nanoTime() - startTime;
+        exception = t;
+        if (t instanceof ServiceException) {
+            statusCode = ((ServiceException) t).getStatusCode();
+        }
+        EventRecorder.record(EventRecorder.Type.COMPLETED, operation, siteUrl, totalTime, statusCode);
+    }
+
+    private static class MeasuredInputStream
+            extends FilterInputStream {
+
+        private final RequestMetrics metrics;
+        private final long startTime = System.nanoTime();
+        private long count;
+        private boolean bFinished;
+
+        private MeasuredInputStream(RequestMetrics metrics, InputStream in) {
+            super(in);
+            this.metrics = metrics;
+            metrics.firstByteTime = -1;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int iRead = super.read(b, off, len);
+            if (iRead > 0) {
+                onRead(iRead);
+            }
+            return iRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long lSkipped = super.skip(n);
+            if (lSkipped > 0) {
+                onRead(lSkipped);
+            }
+            return lSkipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            super.close();
+        }
+
+        private void onRead(long lRead) {
+            if (count == 0 && !bFinished) {
+                metrics.firstByteTime = System.nanoTime() - metrics.startTime;
+                EventRecorder.record(EventRecorder.Type.FIRST_BYTE, metrics.operation, metrics.siteUrl, metrics.firstByteTime, 0);
+            }
+            count += lRead;
+        }
+
+        private void finish() {
+            if (bFinished) {
+                return;
+            }
+            bFinished = true;
+            long lParseTime = System.nanoTime() - startTime;
+            metrics.parseTime = Math.max(0, metrics.parseTime) + lParseTime;
+            metrics.bytesIn = Math.max(0, metrics.bytesIn) + count;
+            EventRecorder.record(EventRecorder.Type.PARSED, metrics.operation, metrics.siteUrl, lParseTime, count);
+            if (metrics.measuring == this) {
+                metrics.measuring = null;
+            }
+        }
+    }
+}
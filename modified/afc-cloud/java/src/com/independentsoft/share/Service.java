@@ -1,16 +1,36 @@
 package com.independentsoft.share;
 
 import com.ahsay.afc.cloud.office365.sharepoint.Constant;
+import com.independentsoft.share.queryoptions.Expand;
+import com.independentsoft.share.queryoptions.IFilterRestriction;
 import com.independentsoft.share.queryoptions.IQueryOption;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
 import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
 import java.text.ParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /*
  * Copyright (c) 2018 Ahsay Systems Corporation Limited. All Rights Reserved.
@@ -38,6 +58,35 @@ import java.util.List;
  * 2019-07-15 24258  nicholas.leung    Support to get single role assignment by id
  * 2019-08-19 24468  gavin.fu          For createTeamSite, use "Lcid" instead of "SPSiteLanguage"
  * 2019-10-19 23626  jefferson.brigino Modified accessors to public getTopNavigationBar, getQuickLaunch, getNavigationNodeChildren
+ * 2019-10-22 23626  jefferson.brigino Added list item iterator to stream list items one entry at a time
+ * 2019-10-23 23626  jefferson.brigino Added methods to get current change token and site collection changes
+ * 2019-10-24 23626  jefferson.brigino Added method to execute independent GET requests by batch
+ * 2019-10-25 23626  jefferson.brigino Used BatchWriter for batch body and split batch at changeset limit
+ * 2019-10-27 23626  jefferson.brigino Send requests under the shared concurrency limit of the tenant
+ * 2019-10-29 23626  jefferson.brigino Added method to get a byte range of file content
+ * 2019-10-31 23626  jefferson.brigino Stream document content in createFileByAuthorDll
+ * 2019-11-02 23626  jefferson.brigino Added option to get site collections with concurrent search paging
+ * 2019-11-05 23626  jefferson.brigino Added list metadata cache for getList, getListByTitle, getListByUrl and getListFields
+ * 2019-11-08 23626  jefferson.brigino Added opt-in JSON light response mode for getSite and getSites
+ * 2019-11-11 23626  jefferson.brigino Added principal and role definition cache shared by the threads of a site
+ * 2019-11-12 23626  jefferson.brigino Report the metrics of each request to the request listener of the callback
+ * 2019-11-13 23626  jefferson.brigino Record the request events when EventRecorder is enabled
+ * 2019-11-15 23626  jefferson.brigino Parse the current change token with StAX
+ * 2019-11-15 23626  jefferson.brigino Made the concurrency limit of the tenant opt-in, count a throttled response once
+ * 2019-11-15 23626  jefferson.brigino Added file range request with the range read for each attempt
+ * 2019-11-15 23626  jefferson.brigino Send createFileByAuthorDll by author.dll request with the version of the server, without retry
+ * 2019-11-15 23626  jefferson.brigino Read the total rows of site collection search from the response
+ * 2019-11-15 23626  jefferson.brigino Cache the list schema only, used by getListFields and getListSchemaXml
+ * 2019-11-15 23626  jefferson.brigino Get the principal cache of a site without the lock of the service
+ * 2019-11-15 23626  jefferson.brigino Pass the response handler as it is when the request is measured
+ * 2019-11-16 23626  jefferson.brigino Send createFileByAuthorDll by the buffered request unless the streamed one is enabled
+ * 2019-11-16 23626  jefferson.brigino Detect the throttled response from the exception, bound the retries of the callback and the queue
+ * 2019-11-16 23626  jefferson.brigino Measure the response stream of the handlers of the list cache and site collection search
+ * 2019-11-16 23626  jefferson.brigino Use JSON light response for getSite without retry and getSiteInfos
+ * 2019-11-16 23626  jefferson.brigino Cache getList requested with the properties not changed by its items
+ * 2019-11-16 23626  jefferson.brigino Added to get the navigation nodes with the children expanded in the same response
+ * 2019-11-16 23626  jefferson.brigino Cache the principal responses, parsed for each caller, clear them when the role inheritance is changed
+ * 2019-11-16 23626  jefferson.brigino Added the changeset size of createListItems and deleteListItems with the result of each item
  */
 public class Service
         extends ServiceInstance {
@@ -49,6 +98,52 @@ public class Service
         public String getPrintDebugName() {
             return "Service";
         }
+
+        // [Start] 23626: Throttled requests wait in the queue of the tenant instead of sleeping in retry
+        @Override
+        public int getMsSleepTimeForNextRetry(int iRetryCount, Exception fault) {
+            ThrottleController controller = ThrottleController.getCurrent();
+            boolean bThrottled = controller != null && ThrottleController.isThrottled(fault);
+            if (bThrottled && ThrottleController.isQueueRetry()) {
+                // -1 stops the retry of ServiceInstance, the same as the retry policy returning -1 for a response
+                // not worth retrying. The exception is thrown to Service, which counts the throttled response
+                // and retries after the slot is acquired again.
+                ThrottleController.handOver();
+                ThrottleController.setLastCounted(false);
+                return -1;
+            }
+            if (bThrottled) {
+                // the retry is done by ServiceInstance, the throttled response is counted here, Service does not
+                // count it again when it is thrown
+                controller.onThrottled((ServiceException) fault);
+            }
+            ThrottleController.setLastCounted(bThrottled);
+            // 23626: Count the retry in the metrics of the request, the retries in the queue of the tenant are counted
+            // in the retry count to bound the retries of both
+            // return super.getMsSleepTimeForNextRetry(iRetryCount, fault);
+            int iSleepTime = super.getMsSleepTimeForNextRetry(iRetryCount + ThrottleController.getQueueRetryCount(), fault);
+            RequestMetrics metrics = RequestMetrics.getCurrent();
+            if (metrics != null && iSleepTime >= 0) {
+                metrics.addRetry();
+            }
+            return iSleepTime;
+        }
+        // [End] 23626
+
+        // [Start] 23626: Structured metrics of each request
+        private volatile RequestListener requestListener;
+
+        public RequestListener getRequestListener() {
+            return requestListener;
+        }
+
+        /**
+         * @param requestListener the listener of the metrics of each request, e.g. LatencyHistogramListener, or null
+         */
+        public void setRequestListener(RequestListener requestListener) {
+            this.requestListener = requestListener;
+        }
+        // [End] 23626
     }
 
     public Service(String siteUrl, String username, String password, String region) {
@@ -72,6 +167,596 @@ public class Service
         return (Callback) callback;
     }
 
+    // [Start] 23626: Share the concurrency limit of the tenant between all threads
+    private static final int MAX_THROTTLE_RETRY = 10;
+
+    // opt-in, as it limits the requests in flight to the tenant from all the threads of the process
+    private boolean isThrottleEnabled = false;
+
+    private interface Sender<T> {
+
+        T send() throws Exception;
+    }
+
+    public boolean isThrottleEnabled() {
+        return isThrottleEnabled;
+    }
+
+    /**
+     * A throttled response is retried in the queue of the tenant when the callback is Service.Callback, or a subclass
+     * calling super.getMsSleepTimeForNextRetry() for it. A callback overriding it without calling super keeps its own
+     * retry policy: ServiceInstance retries the throttled response with the slot held, and the throttled response is
+     * counted by the controller only when it is thrown, without any retry in the queue.
+     *
+     * @param isThrottleEnabled true to send requests under the concurrency limit of the tenant, see
+     *                          ThrottleController.setLimits() to size the limit for the number of threads
+     */
+    public void setThrottleEnabled(boolean isThrottleEnabled) {
+        this.isThrottleEnabled = isThrottleEnabled;
+    }
+
+    /**
+     * Gets the throttle controller of the tenant, e.g. to monitor the current limit and queue depth.
+     *
+     * @return the throttle controller shared by all requests to the host of the site url
+     */
+    public ThrottleController getThrottleController(String siteUrl) {
+        return ThrottleController.getInstance(siteUrl);
+    }
+
+    @Override
+    protected void doSendRequest(final String siteUrl, final String method, final String requestUrl,
+                                 final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, null, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendRequest(siteUrl, method, requestUrl, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                 final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendRequest(siteUrl, method, requestUrl, requestBody, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                 final String xHttpMethod, final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendRequest(siteUrl, method, requestUrl, requestBody, xHttpMethod, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                 final String xHttpMethod, final String etag,
+                                 final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendRequest(siteUrl, method, requestUrl, requestBody, xHttpMethod, etag, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                 final String xHttpMethod, final String etag, final InputStream stream,
+                                 final boolean bBinary, final boolean bNoRetry,
+                                 final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, stream);
+        // a consumed stream cannot be sent again
+        sendThrottled(siteUrl, stream == null, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendRequest(siteUrl, method, requestUrl, requestBody, xHttpMethod, etag, stream, bBinary, bNoRetry, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected InputStream doSendRawRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                           final String xHttpMethod, final String etag, final InputStream stream,
+                                           final boolean bBinary, final boolean bNoRetry) throws Exception {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, stream);
+        // the slot is released when the response is returned, not when the stream is consumed
+        return sendThrottled(siteUrl, stream == null, metrics, new Sender<InputStream>() {
+            @Override
+            public InputStream send() throws Exception {
+                return Service.super.doSendRawRequest(siteUrl, method, requestUrl, requestBody, xHttpMethod, etag, stream, bBinary, bNoRetry);
+            }
+        });
+    }
+
+    @Override
+    protected void doSendBatchBoundaryRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                              final String batchBoundary,
+                                              final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendBatchBoundaryRequest(siteUrl, method, requestUrl, requestBody, batchBoundary, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendCustomizeRequest(final String siteUrl, final String method, final String requestUrl, final String requestBody,
+                                          final ServiceInstance.RequestType requestType,
+                                          final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, requestUrl, requestBody, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendCustomizeRequest(siteUrl, method, requestUrl, requestBody, requestType, handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void doSendAuthorDllRequest(final String siteUrl, final String method, final String command,
+                                          final ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        final RequestMetrics metrics = startRequest(siteUrl, method, AUTHOR_DLL_URL, command, null);
+        sendThrottled(siteUrl, true, metrics, new Sender<Object>() {
+            @Override
+            public Object send() throws Exception {
+                Service.super.doSendAuthorDllRequest(siteUrl, method, command, handler);
+                return null;
+            }
+        });
+    }
+
+    private <T> T sendThrottled(String siteUrl, boolean bQueueRetry, RequestMetrics metrics, Sender<T> sender) throws ServiceException {
+        Throwable failure = null;
+        try {
+            return sendThrottled(siteUrl, bQueueRetry, sender);
+        } catch (ServiceException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (metrics != null) {
+                endRequest(metrics, failure);
+            }
+        }
+    }
+
+    private <T> T sendThrottled(String siteUrl, boolean bQueueRetry, Sender<T> sender) throws ServiceException {
+        try {
+            if (!isThrottleEnabled || siteUrl == null || ThrottleController.getCurrent() != null) {
+                // the overloads may call each other, the slot is acquired by the outermost one
+                return sender.send();
+            }
+            ThrottleController controller = ThrottleController.getInstance(siteUrl);
+            ThrottleController.setCurrent(controller, bQueueRetry);
+            try {
+                while (true) {
+                    controller.acquire();
+                    boolean bSuccess = false;
+                    try {
+                        T t = sender.send();
+                        bSuccess = true;
+                        return t;
+                    } catch (ServiceException e) {
+                        if (!ThrottleController.isThrottled(e)) {
+                            throw e;
+                        }
+                        // detected from the status of the exception, also when the callback overrides the retry
+                        // policy without calling Callback.getMsSleepTimeForNextRetry()
+                        if (!ThrottleController.isLastCounted()) {
+                            controller.onThrottled(e);
+                        }
+                        // not handed over: retried by the retry policy of the callback, which has given up already
+                        if (!ThrottleController.isHandedOver() || ThrottleController.getQueueRetryCount() >= MAX_THROTTLE_RETRY) {
+                            throw e;
+                        }
+                        ThrottleController.addQueueRetry();
+                        // 23626: Count the retry in the metrics of the request
+                        RequestMetrics metrics = RequestMetrics.getCurrent();
+                        if (metrics != null) {
+                            metrics.addRetry();
+                        }
+                    } finally {
+                        controller.release(bSuccess);
+                    }
+                }
+            } finally {
+                ThrottleController.setCurrent(null, false);
+            }
+        } catch (ServiceException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e.getMessage(), e);
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Starts the metrics of the request if there is a request listener or the event recorder is enabled, and no request
+     * is started by an outer overload.
+     */
+    private RequestMetrics startRequest(String siteUrl, String method, String requestUrl, String requestBody, InputStream stream) {
+        if (getCallback().getRequestListener() == null && !EventRecorder.isEnabled()) {
+            return null;
+        }
+        long lBytesOut = requestBody != null ? requestBody.length() : (stream != null ? -1 : 0);
+        return RequestMetrics.start(method, siteUrl, requestUrl, lBytesOut);
+    }
+
+    private void endRequest(RequestMetrics metrics, Throwable t) {
+        metrics.end(t);
+        RequestListener listener = getCallback().getRequestListener();
+        if (listener != null) {
+            try {
+                listener.onRequest(metrics);
+            } catch (RuntimeException e) {
+                // the failure of the listener does not fail the request
+                if (callback.isDebug()) {
+                    callback.printDebug("endRequest", metrics.getSiteUrl(), metrics.getRequestUrl(), String.valueOf(e));
+                }
+            }
+        }
+    }
+    // [End] 23626
+
+    // [Start] 23626: Cache the list and field definitions per site
+    private int listMetadataCacheSize;
+    private java.io.File listMetadataCacheDirectory;
+    private final Map<String, ListMetadataCache> listMetadataCaches = new HashMap<String, ListMetadataCache>();
+
+    /**
+     * Enables the list schema cache used by getListFields and getListSchemaXml, and by getList when $select has none of
+     * ItemCount and LastItem*Date, the properties changed by the items. The cached responses are kept until
+     * invalidateListMetadata() is called for the list, see ChangeTokenEngine, or the max age of
+     * ListMetadataCache is reached. getListByTitle and getListByUrl are not cached, the title or url is resolved to a
+     * list by the server and a list renamed or created again with the same title is not reported by the change token
+     * of the cached list id.
+     *
+     * @param maxLists  the maximum number of lists cached per site, 0 to disable the cache
+     * @param directory the directory to persist the cache between runs, or null to keep it in memory only
+     */
+    public synchronized void setListMetadataCache(int maxLists, java.io.File directory) {
+        if (maxLists < 0) {
+            throw new IllegalArgumentException("The parameter maxLists must be non-negative.");
+        }
+        this.listMetadataCacheSize = maxLists;
+        this.listMetadataCacheDirectory = directory;
+        listMetadataCaches.clear();
+    }
+
+    /**
+     * @return the list metadata cache of the site, or null if the cache is disabled
+     */
+    public synchronized ListMetadataCache getListMetadataCache(String siteUrl) {
+        if (listMetadataCacheSize <= 0 || siteUrl == null) {
+            return null;
+        }
+        String sKey = siteUrl.toLowerCase();
+        if (sKey.endsWith("/")) {
+            sKey = sKey.substring(0, sKey.length() - 1);
+        }
+        ListMetadataCache cache = listMetadataCaches.get(sKey);
+        if (cache == null) {
+            java.io.File directory = listMetadataCacheDirectory == null ? null
+                    : new java.io.File(listMetadataCacheDirectory, getListMetadataDirectoryName(sKey));
+            cache = new ListMetadataCache(siteUrl, listMetadataCacheSize, directory);
+            listMetadataCaches.put(sKey, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cached definitions of the list, e.g. when the list is reported changed by the change token.
+     */
+    public void invalidateListMetadata(String siteUrl, String listId) {
+        ListMetadataCache cache = getListMetadataCache(siteUrl);
+        if (cache != null && listId != null) {
+            cache.invalidate(listId);
+        }
+    }
+
+    /**
+     * Drops the cached definitions of all lists of the site, e.g. when the change token is missing or expired.
+     */
+    public void invalidateListMetadata(String siteUrl) {
+        ListMetadataCache cache = getListMetadataCache(siteUrl);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    // the readable part of the site url is not unique, e.g. a-b and a_b, the digest of the whole url is appended
+    private static String getListMetadataDirectoryName(String sKey) {
+        String sName = sKey.replaceFirst("^https?://", "").replaceAll("[^0-9a-z]+", "_");
+        if (sName.length() > 64) {
+            sName = sName.substring(0, 64);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(sKey.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(sName).append('_');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            // SHA-1 and UTF-8 are always supported
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private byte[] getCachedListResponse(ListMetadataCache cache, String siteUrl, String listId, String path,
+                                         List<IQueryOption> queryOptions, String name) throws ServiceException {
+        StringBuilder sbQuery = new StringBuilder("");
+        Util.queryOptionsToString(sbQuery, queryOptions);
+        String sKey = path + sbQuery;
+        byte[] response = cache.get(listId, sKey);
+        if (response != null) {
+            return response;
+        }
+
+        long lInvalidateCount = cache.getInvalidateCount();
+        StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')" + path);
+        requestUrl.append(sbQuery);
+        if (callback.isDebug()) {
+            callback.printDebug(name, siteUrl, requestUrl.toString());
+        }
+        final byte[][] body = new byte[1][];
+        doSendRequest(siteUrl, "GET", requestUrl.toString(), new ServiceResponseUtil.ResponseHandler() {
+            @Override
+            public void handle(InputStream is) throws Exception {
+                body[0] = ListMetadataCache.readFully(RequestMetrics.measure(is));
+            }
+        });
+        if (body[0] == null) {
+            throw new ServiceException("No response of " + name, null, requestUrl.toString());
+        }
+        cache.put(listId, sKey, body[0], lInvalidateCount);
+        return body[0];
+    }
+
+    // the properties of the list changed by its items, a list requested with any of them is not cached
+    private static final Set<String> LIST_ITEM_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "itemcount", "lastitemmodifieddate", "lastitemdeleteddate", "lastitemusermodifieddate"));
+
+    /**
+     * @param sQuery the query options of the list request, e.g. ?$select=Id,Title,BaseTemplate
+     * @return true if the list is requested with $select of its own properties only, none of them changed by the
+     * items, e.g. not without $select, not with * or any expanded property
+     */
+    private static boolean isListCacheable(String sQuery) {
+        int iSelect = sQuery.indexOf("$select=");
+        if (iSelect < 0 || sQuery.indexOf("$expand=") >= 0) {
+            return false;
+        }
+        int iEnd = sQuery.indexOf('&', iSelect);
+        String sSelect = sQuery.substring(iSelect + "$select=".length(), iEnd < 0 ? sQuery.length() : iEnd);
+        try {
+            sSelect = URLDecoder.decode(sSelect, "UTF-8");
+        } catch (Exception e) {
+            return false;
+        }
+        for (String sProperty : sSelect.split(",")) {
+            sProperty = sProperty.trim().toLowerCase();
+            if (sProperty.length() == 0 || sProperty.equals("*") || sProperty.indexOf('/') >= 0
+                    || LIST_ITEM_PROPERTIES.contains(sProperty)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void parseCachedResponse(ServiceResponseUtil.ResponseHandler handler, byte[] response) throws ServiceException {
+        try {
+            handler.handle(new ByteArrayInputStream(response));
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+    }
+    // [End] 23626
+
+    // [Start] 23626: Cache the users, groups and role definitions per site
+    private volatile long principalCacheTtl;
+    private volatile long principalCacheNegativeTtl;
+    // not guarded by the lock of the service, it is taken by every cached request of every thread
+    private final ConcurrentMap<String, PrincipalCache> principalCaches = new ConcurrentHashMap<String, PrincipalCache>();
+
+    /**
+     * Enables the principal cache used by ensureUser, getUserByEmail, getGroup, getRole and getPrincipalRoleDefinition.
+     * The responses are cached, each call returns a new object parsed from the cached response. The cache of a site
+     * is cleared when its groups, roles, role assignments or role inheritance are changed through this service.
+     *
+     * @param ttl         the time to live of a found principal or role in ms, 0 to disable the cache
+     * @param negativeTtl the time to live of a missing principal or role in ms, 0 not to cache them
+     */
+    public synchronized void setPrincipalCache(long ttl, long negativeTtl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("The parameter ttl must be non-negative.");
+        }
+        if (negativeTtl < 0) {
+            throw new IllegalArgumentException("The parameter negativeTtl must be non-negative.");
+        }
+        this.principalCacheTtl = ttl;
+        this.principalCacheNegativeTtl = negativeTtl;
+        principalCaches.clear();
+    }
+
+    /**
+     * @return the principal cache of the site, or null if the cache is disabled
+     */
+    public PrincipalCache getPrincipalCache(String siteUrl) {
+        long ttl = principalCacheTtl;
+        if (ttl <= 0 || siteUrl == null) {
+            return null;
+        }
+        String sKey = siteUrl.toLowerCase();
+        if (sKey.endsWith("/")) {
+            sKey = sKey.substring(0, sKey.length() - 1);
+        }
+        PrincipalCache cache = principalCaches.get(sKey);
+        if (cache == null) {
+            PrincipalCache newCache = new PrincipalCache(siteUrl, ttl, principalCacheNegativeTtl);
+            cache = principalCaches.putIfAbsent(sKey, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cached principals and roles of the site, e.g. after the groups or role definitions are changed.
+     */
+    public void clearPrincipalCache(String siteUrl) {
+        PrincipalCache cache = getPrincipalCache(siteUrl);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Sends the user request, or parses its response from the principal cache. The request body is part of the key, as
+     * the login name of EnsureUser, which is not case sensitive.
+     */
+    private User getCachedUser(String siteUrl, String method, String requestUrl, String requestBody)
+            throws ServiceException {
+        ServiceResponseUtil.UserHandler handler = new ServiceResponseUtil.UserHandler();
+        sendCachedPrincipalRequest(siteUrl, method, requestUrl, requestBody, handler);
+        return handler.getUser();
+    }
+
+    private Group getCachedGroup(String siteUrl, String requestUrl) throws ServiceException {
+        ServiceResponseUtil.GroupHandler handler = new ServiceResponseUtil.GroupHandler();
+        sendCachedPrincipalRequest(siteUrl, "GET", requestUrl, null, handler);
+        return handler.getGroup();
+    }
+
+    private Role getCachedRole(String siteUrl, String requestUrl) throws ServiceException {
+        ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
+        sendCachedPrincipalRequest(siteUrl, "GET", requestUrl, null, handler);
+        return handler.getRole();
+    }
+
+    /**
+     * The response is cached instead of the parsed object, which is mutable. Each caller gets its own object parsed
+     * from the shared response.
+     */
+    private void sendCachedPrincipalRequest(final String siteUrl, final String method, final String requestUrl,
+                                            final String requestBody, ServiceResponseUtil.ResponseHandler handler)
+            throws ServiceException {
+        PrincipalCache cache = getPrincipalCache(siteUrl);
+        if (cache == null) {
+            if (requestBody == null) {
+                doSendRequest(siteUrl, method, requestUrl, handler);
+            } else {
+                doSendRequest(siteUrl, method, requestUrl, requestBody, handler);
+            }
+            return;
+        }
+        PrincipalCache.Loader<byte[]> loader = new PrincipalCache.Loader<byte[]>() {
+            @Override
+            public byte[] load() throws ServiceException {
+                final byte[][] body = new byte[1][];
+                ServiceResponseUtil.ResponseHandler bufferHandler = new ServiceResponseUtil.ResponseHandler() {
+                    @Override
+                    public void handle(InputStream is) throws Exception {
+                        body[0] = ListMetadataCache.readFully(RequestMetrics.measure(is));
+                    }
+                };
+                if (requestBody == null) {
+                    doSendRequest(siteUrl, method, requestUrl, bufferHandler);
+                } else {
+                    doSendRequest(siteUrl, method, requestUrl, requestBody, bufferHandler);
+                }
+                if (body[0] == null) {
+                    throw new ServiceException("No response of " + requestUrl, null, requestUrl);
+                }
+                return body[0];
+            }
+        };
+        String sKey = method + " " + requestUrl + (requestBody == null ? "" : " " + requestBody.toLowerCase());
+        parseCachedResponse(handler, cache.get(sKey, loader));
+    }
+    // [End] 23626
+
+    // [Start] 23626: Opt-in JSON light responses, smaller than Atom on the wire and faster to parse
+    private boolean isJsonLight;
+
+    public boolean isJsonLight() {
+        return isJsonLight;
+    }
+
+    /**
+     * JSON light is used by the site reads getSite, getSites and getSiteInfos, whose entities are parsed in this
+     * package. The list, item, folder, file and role assignment reads keep Atom, as their entities are parsed by the
+     * library from Atom only.
+     *
+     * @param isJsonLight true to request application/json;odata=nometadata instead of Atom on the site reads, a request
+     *                    with expanded properties still uses Atom
+     */
+    public void setJsonLight(boolean isJsonLight) {
+        this.isJsonLight = isJsonLight;
+    }
+
+    private boolean isJsonLight(List<IQueryOption> queryOptions) {
+        if (!isJsonLight) {
+            return false;
+        }
+        if (queryOptions != null) {
+            for (IQueryOption queryOption : queryOptions) {
+                // the expanded properties are kept as raw Atom by the entities
+                if (queryOption instanceof Expand) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void doSendJsonRequest(String siteUrl, String requestUrl, ServiceResponseUtil.ResponseHandler handler)
+            throws ServiceException {
+        ServiceInstance.RequestType requestType = new ServiceInstance.RequestType() {
+            @Override
+            protected Map<String, String> getHeaders() {
+                Map<String, String> mHdr = new LinkedHashMap<String, String>();
+                mHdr.put("Accept", JsonResponseHandler.ACCEPT_JSON_LIGHT);
+                return mHdr;
+            }
+        };
+        doSendCustomizeRequest(siteUrl, "GET", requestUrl, null, requestType, handler);
+    }
+    // [End] 23626
+
     /**
      * Gets the folders.
      *
@@ -262,6 +947,14 @@ public class Service
         */
         StringBuilder sbQuery = new StringBuilder("");
         Util.queryOptionsToString(sbQuery, queryOptions);
+        // [Start] 23626: Use the cached list requested with the properties not changed by its items
+        ListMetadataCache cache = getListMetadataCache(siteUrl);
+        if (cache != null && isListCacheable(sbQuery.toString())) {
+            ServiceResponseUtil.ListHandler handler = new ServiceResponseUtil.ListHandler();
+            parseCachedResponse(handler, getCachedListResponse(cache, siteUrl, listId, "", queryOptions, "getList"));
+            return handler.getList();
+        }
+        // [End] 23626
         StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')");
         requestUrl.append(sbQuery);
         if (callback.isDebug()) {
@@ -427,6 +1120,55 @@ public class Service
         return handler.getListItems();
     }
 
+    // [Start] 23626: Stream list items one entry at a time instead of materializing the whole page
+    /**
+     * Gets the list items as an iterator. Items are parsed from the response when requested and the pages are
+     * requested in Id order, so only one item is held in memory at a time. The iterator must be closed if it
+     * is not read to the end.
+     *
+     * @param listId       the list id
+     * @param restrictions the filter restrictions, or null
+     * @param queryOptions the expand / select options, must not contain filter, top or order by
+     * @param pageSize     the number of items per request
+     * @return the list item iterator
+     */
+    public ListItemIterator getListItemIterator(String siteUrl,
+                                                String listId,
+                                                List<IFilterRestriction> restrictions,
+                                                List<IQueryOption> queryOptions,
+                                                int pageSize) {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The parameter pageSize must be positive.");
+        }
+
+        return new ListItemIterator(this, siteUrl, listId, restrictions, queryOptions, pageSize);
+    }
+
+    InputStream getListItemsStream(String siteUrl, String listId, List<IQueryOption> queryOptions)
+            throws ServiceException {
+        StringBuilder sbQuery = new StringBuilder("");
+        Util.queryOptionsToString(sbQuery, queryOptions);
+        StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')/items");
+        requestUrl.append(sbQuery);
+        if (callback.isDebug()) {
+            callback.printDebug("getListItemsStream", siteUrl, requestUrl.toString());
+        }
+        try {
+            return doSendRawRequest(siteUrl, "GET", requestUrl.toString(), null, null, null, null, false, false);
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e, requestUrl.toString());
+        }
+    }
+    // [End] 23626
+
     /**
      * Suggest.
      *
@@ -973,26 +1715,172 @@ public class Service
         return siteCollections;
     }
 
-    private List<Site> getSiteCollections(String siteUrl, int offset, int size) throws Exception {
+    // [Start] 23626: Request the search pages concurrently once the total rows is known
+    /**
+     * Gets the site collections by search with the pages after the first one requested concurrently. The result is
+     * deduplicated by Path. If the total rows reported by the first page is not reliable, the pages are requested
+     * sequentially as getSiteCollections(siteUrl).
+     *
+     * @param concurrency the maximum number of pages requested at the same time
+     * @return the site collections
+     * @throws Exception the exception
+     */
+    public List<Site> getSiteCollections(String siteUrl, int concurrency) throws Exception {
         if (siteUrl == null) {
             throw new IllegalArgumentException("siteUrl");
         }
+        if (concurrency <= 1) {
+            return getSiteCollections(siteUrl);
+        }
 
-        // ref: https://docs.microsoft.com/en-us/SharePoint/technical-reference/crawled-and-managed-properties-overview
-        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal'&trimduplicates=false&startrow=" + offset + "&rowlimit=" + size;
-        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
-        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal+AND+-SPSiteURL:portals'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
-        // 22234: Use "trimduplicates=false" to get all results
-        // StringBuilder requestUrl = "/_api/search/query?querytext='contentclass:STS_Site'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
+        final int iSize = 500;
+        Map<String, Site> mSiteCollection = new LinkedHashMap<String, Site>();
+        SearchPageHandler firstPage = searchSiteCollections(siteUrl, 0, iSize);
+        List<Site> scs = toSiteCollections(firstPage.getSearchResult());
+        addSiteCollections(mSiteCollection, scs);
+        if (scs.size() < iSize) {
+            return new ArrayList<Site>(mSiteCollection.values());
+        }
+
+        int iTotalRows = firstPage.getTotalRows();
+        int iOffset = iSize;
+        if (iTotalRows > iSize) {
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            try {
+                // keep a bounded window of pages in flight, and merge them in order of startrow
+                LinkedList<Future<List<Site>>> llFuture = new LinkedList<Future<List<Site>>>();
+                boolean bLastPage = false;
+                while (!bLastPage && (iOffset < iTotalRows || !llFuture.isEmpty())) {
+                    while (iOffset < iTotalRows && llFuture.size() < concurrency) {
+                        final String sSiteUrl = siteUrl;
+                        final int iStartRow = iOffset;
+                        llFuture.add(executor.submit(new Callable<List<Site>>() {
+                            @Override
+                            public List<Site> call() throws Exception {
+                                return getSiteCollections(sSiteUrl, iStartRow, iSize);
+                            }
+                        }));
+                        iOffset += iSize;
+                    }
+                    List<Site> page;
+                    try {
+                        page = llFuture.removeFirst().get();
+                    } catch (ExecutionException e) {
+                        Throwable t = e.getCause();
+                        if (t instanceof Exception) {
+                            throw (Exception) t;
+                        }
+                        throw new ServiceException(t.getMessage(), t);
+                    }
+                    addSiteCollections(mSiteCollection, page);
+                    if (page.size() < iSize) {
+                        // total rows over estimated, the pages after it are empty
+                        bLastPage = true;
+                        iOffset = Integer.MAX_VALUE;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // total rows under estimated or not reported, continue sequentially
+        while (iOffset != Integer.MAX_VALUE) {
+            List<Site> page = getSiteCollections(siteUrl, iOffset, iSize);
+            if (page == null) {
+                break;
+            }
+            addSiteCollections(mSiteCollection, page);
+            if (page.size() < iSize) {
+                break;
+            }
+            iOffset += iSize;
+        }
+        return new ArrayList<Site>(mSiteCollection.values());
+    }
+
+    private static void addSiteCollections(Map<String, Site> mSiteCollection, List<Site> scs) {
+        if (scs == null) {
+            return;
+        }
+        for (Site siteCollection : scs) {
+            String sKey = siteCollection.getUrl() != null ? siteCollection.getUrl().toLowerCase() : null;
+            if (!mSiteCollection.containsKey(sKey)) {
+                mSiteCollection.put(sKey, siteCollection);
+            }
+        }
+    }
+
+    private SearchPageHandler searchSiteCollections(String siteUrl, int offset, int size) throws Exception {
         StringBuilder requestUrl = new StringBuilder("/_api/search/query?querytext='contentclass:STS_Site'&selectproperties='Path,webTemplate'&trimduplicates=false&startrow=" + offset + "&rowlimit=" + size);
         if (callback.isDebug()) {
             callback.printDebug("getSiteCollections", siteUrl, requestUrl.toString());
         }
+        SearchPageHandler handler = new SearchPageHandler();
+        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
+        return handler;
+    }
+
+    /**
+     * Parses the search result, and reads the TotalRows of RelevantResults from the same response, which is not
+     * exposed by SearchResult.
+     */
+    private static class SearchPageHandler
+            extends ServiceResponseUtil.ResponseHandler {
+
+        private final ServiceResponseUtil.SearchResultHandler searchResultHandler = new ServiceResponseUtil.SearchResultHandler();
+        private int totalRows = -1;
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            byte[] response = ListMetadataCache.readFully(RequestMetrics.measure(is));
+            long lStart = System.nanoTime();
+            searchResultHandler.handle(new ByteArrayInputStream(response));
+            totalRows = parseTotalRows(response);
+            EventRecorder.recordParse("SearchResult.parse", null, lStart);
+        }
+
+        private SearchResult getSearchResult() {
+            return searchResultHandler.getSearchResult();
+        }
+
+        /**
+         * @return the total rows of the query, or -1 if not reported
+         */
+        private int getTotalRows() {
+            return totalRows;
+        }
 
+        // <d:RelevantResults>...<d:TotalRows m:type="Edm.Int32">1234</d:TotalRows>...</d:RelevantResults>
+        private static int parseTotalRows(byte[] response) throws XMLStreamException {
+            XMLStreamReader reader = XmlReaderFactory.createXMLStreamReader(new ByteArrayInputStream(response));
+            try {
+                boolean bRelevantResults = false;
+                while (reader.hasNext()) {
+                    int iEvent = reader.next();
+                    if (iEvent == XMLStreamConstants.START_ELEMENT && PropertyDispatcher.NS_DATA_SERVICES.equals(reader.getNamespaceURI())) {
+                        if ("RelevantResults".equals(reader.getLocalName())) {
+                            bRelevantResults = true;
+                        } else if (bRelevantResults && "TotalRows".equals(reader.getLocalName())) {
+                            try {
+                                return Integer.parseInt(reader.getElementText().trim());
+                            } catch (NumberFormatException e) {
+                                return -1;
+                            }
+                        }
+                    } else if (iEvent == XMLStreamConstants.END_ELEMENT && "RelevantResults".equals(reader.getLocalName())) {
+                        bRelevantResults = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return -1;
+        }
+    }
+
+    private static List<Site> toSiteCollections(SearchResult searchResult) {
         ArrayList<Site> siteCollections = new ArrayList<Site>();
-        ServiceResponseUtil.SearchResultHandler handler = new ServiceResponseUtil.SearchResultHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        SearchResult searchResult = handler.getSearchResult();
         if (searchResult != null) {
             SimpleDataTable table = searchResult.getPrimaryQueryResult().getRelevantResult().getTable();
             for (SimpleDataRow row : table.getRows()) {
@@ -1011,6 +1899,23 @@ public class Service
         }
         return siteCollections;
     }
+    // [End] 23626
+
+    private List<Site> getSiteCollections(String siteUrl, int offset, int size) throws Exception {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+
+        // ref: https://docs.microsoft.com/en-us/SharePoint/technical-reference/crawled-and-managed-properties-overview
+        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal'&trimduplicates=false&startrow=" + offset + "&rowlimit=" + size;
+        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
+        // String requestUrl = "/_api/search/query?querytext='contentclass:STS_Site+AND+-SPSiteURL:personal+AND+-SPSiteURL:portals'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
+        // 22234: Use "trimduplicates=false" to get all results
+        // StringBuilder requestUrl = "/_api/search/query?querytext='contentclass:STS_Site'&selectproperties='Path'&trimduplicates=true&startrow=" + offset + "&rowlimit=" + size;
+        // [Start] 23626: Moved to searchSiteCollections() and toSiteCollections() to share with concurrent paging
+        return toSiteCollections(searchSiteCollections(siteUrl, offset, size).getSearchResult());
+        // [End] 23626
+    }
     // [End] 23411
 
     /**
@@ -1045,6 +1950,13 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getSite", siteUrl, requestUrl.toString());
         }
+        // [Start] 23626: Opt-in JSON light response
+        if (isJsonLight(queryOptions)) {
+            JsonResponseHandler.SiteHandler jsonHandler = new JsonResponseHandler.SiteHandler(bRetryable);
+            doSendJsonRequest(siteUrl, requestUrl.toString(), jsonHandler);
+            return jsonHandler.getSite();
+        }
+        // [End] 23626
         // Added retry option to handle
         ServiceResponseUtil.SiteHandler handler = new ServiceResponseUtil.SiteHandler(bRetryable);
         doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
@@ -1087,6 +1999,13 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getSites", siteUrl, requestUrl.toString());
         }
+        // [Start] 23626: Opt-in JSON light response
+        if (isJsonLight(queryOptions)) {
+            JsonResponseHandler.SitesHandler jsonHandler = new JsonResponseHandler.SitesHandler();
+            doSendJsonRequest(siteUrl, requestUrl.toString(), jsonHandler);
+            return jsonHandler.getSites();
+        }
+        // [End] 23626
         ServiceResponseUtil.SitesHandler handler = new ServiceResponseUtil.SitesHandler();
         doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
         return handler.getSites();
@@ -1126,6 +2045,13 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getSiteInfos", siteUrl, requestUrl.toString());
         }
+        // [Start] 23626: Opt-in JSON light response
+        if (isJsonLight(queryOptions)) {
+            JsonResponseHandler.SiteInfosHandler jsonHandler = new JsonResponseHandler.SiteInfosHandler();
+            doSendJsonRequest(siteUrl, requestUrl.toString(), jsonHandler);
+            return jsonHandler.getSiteInfos();
+        }
+        // [End] 23626
         ServiceResponseUtil.SiteInfosHandler handler = new ServiceResponseUtil.SiteInfosHandler();
         doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
         return handler.getSiteInfos();
@@ -1313,6 +2239,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("BreakRoleInheritance");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role assignments may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -1362,6 +2290,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("BreakRoleInheritance");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role assignments may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -1411,6 +2341,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("BreakRoleInheritance");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role assignments may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -1434,9 +2366,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("ensureUser", siteUrl, requestUrl.toString(), requestBody);
         }
-        ServiceResponseUtil.UserHandler handler = new ServiceResponseUtil.UserHandler();
-        doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
-        return handler.getUser();
+        // 23626: Cached, only one EnsureUser request for the concurrent calls of the same login name
+        return getCachedUser(siteUrl, "POST", requestUrl.toString(), requestBody);
     }
 
     /**
@@ -1548,12 +2479,106 @@ public class Service
         requestUrl.append(sbQuery);
         String requestBody = query.toString();
         if (callback.isDebug()) {
-            callback.printDebug("getChanges", siteUrl, requestUrl.toString(), requestBody);
+            callback.printDebug("getChanges", siteUrl, requestUrl.toString(), requestBody);
+        }
+        ServiceResponseUtil.ChangesHandler handler = new ServiceResponseUtil.ChangesHandler();
+        doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
+        return handler.getChanges();
+    }
+
+    // [Start] 23626: Support change token driven incremental backup
+    /**
+     * Gets the changes of the whole site collection, including the sub sites.
+     *
+     * @param query the query
+     * @return the changes
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public List<Change> getSiteCollectionChanges(String siteUrl, ChangeQuery query) throws ServiceException {
+        if (query == null) {
+            throw new IllegalArgumentException("query");
+        }
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+
+        StringBuilder requestUrl = new StringBuilder("_api/site/GetChanges");
+        String requestBody = query.toString();
+        if (callback.isDebug()) {
+            callback.printDebug("getSiteCollectionChanges", siteUrl, requestUrl.toString(), requestBody);
+        }
+        ServiceResponseUtil.ChangesHandler handler = new ServiceResponseUtil.ChangesHandler();
+        doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
+        return handler.getChanges();
+    }
+
+    /**
+     * Gets the current change token of the site collection.
+     *
+     * @return the change token string value
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public String getCurrentChangeToken(String siteUrl) throws ServiceException {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+
+        StringBuilder requestUrl = new StringBuilder("_api/site/CurrentChangeToken");
+        if (callback.isDebug()) {
+            callback.printDebug("getCurrentChangeToken", siteUrl, requestUrl.toString());
+        }
+        ServiceResponseUtil.StringHandler handler = new ServiceResponseUtil.StringHandler();
+        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
+        return getChangeTokenValue(handler.getString(), requestUrl.toString());
+    }
+
+    /**
+     * Gets the current change token of the list.
+     *
+     * @param listId the list id
+     * @return the change token string value
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public String getCurrentChangeToken(String siteUrl, String listId) throws ServiceException {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (listId == null) {
+            throw new IllegalArgumentException("listId");
+        }
+
+        StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')/CurrentChangeToken");
+        if (callback.isDebug()) {
+            callback.printDebug("getCurrentChangeToken", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.ChangesHandler handler = new ServiceResponseUtil.ChangesHandler();
-        doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
-        return handler.getChanges();
+        ServiceResponseUtil.StringHandler handler = new ServiceResponseUtil.StringHandler();
+        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
+        return getChangeTokenValue(handler.getString(), requestUrl.toString());
+    }
+
+    private static String getChangeTokenValue(String sXml, String requestUrl) throws ServiceException {
+        // <d:CurrentChangeToken m:type="SP.ChangeToken"><d:StringValue>1;3;...</d:StringValue></d:CurrentChangeToken>
+        if (sXml == null) {
+            return null;
+        }
+        try {
+            XMLStreamReader reader = XmlReaderFactory.createXMLStreamReader(new StringReader(sXml));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "StringValue".equals(reader.getLocalName())
+                            && PropertyDispatcher.NS_DATA_SERVICES.equals(reader.getNamespaceURI())) {
+                        return reader.getElementText().trim();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new ServiceException(e.getMessage(), e, requestUrl);
+        }
+        return null;
     }
+    // [End] 23626
 
     /**
      * Gets the list item changes.
@@ -1718,6 +2743,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("ResetRoleInheritance");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role assignments may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -2239,9 +3266,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getUserByEmail", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.UserHandler handler = new ServiceResponseUtil.UserHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getUser();
+        // 23626: Cached per site
+        return getCachedUser(siteUrl, "GET", requestUrl.toString(), null);
     }
 
     /**
@@ -2427,6 +3453,8 @@ public class Service
         }
         ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
         return handler.getRole();
     }
 
@@ -2449,6 +3477,8 @@ public class Service
             callback.printDebug("deleteRole", siteUrl, requestUrl.toString());
         }
         doSendRequest(siteUrl, "POST", requestUrl.toString(), null, "DELETE", null);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
     }
 
     /**
@@ -2474,6 +3504,8 @@ public class Service
             callback.printDebug("updateRole", siteUrl, requestUrl.toString(), requestBody);
         }
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, "MERGE", null);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
     }
 
     /**
@@ -2499,6 +3531,8 @@ public class Service
             callback.printDebug("updateRole", siteUrl, requestUrl.toString(), requestBody);
         }
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, "MERGE", null);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
     }
 
     /**
@@ -2523,6 +3557,8 @@ public class Service
         }
         ServiceResponseUtil.GroupHandler handler = new ServiceResponseUtil.GroupHandler();
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, handler);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
         return handler.getGroup();
     }
 
@@ -2549,6 +3585,8 @@ public class Service
             callback.printDebug("updateGroup", siteUrl, requestUrl.toString(), requestBody);
         }
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, "MERGE", null);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
     }
 
     public void updateGroup(String siteUrl, int groupId, String requestBody) throws ServiceException {
@@ -2567,6 +3605,8 @@ public class Service
             callback.printDebug("updateGroup", siteUrl, requestUrl.toString(), requestBody);
         }
         doSendRequest(siteUrl, "POST", requestUrl.toString(), requestBody, "MERGE", null);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
     }
 
     /**
@@ -2587,6 +3627,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("RemoveById");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -2611,6 +3653,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("RemoveByLoginName");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached groups and roles may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -2638,9 +3682,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getGroup", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.GroupHandler handler = new ServiceResponseUtil.GroupHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getGroup();
+        // 23626: Cached per site
+        return getCachedGroup(siteUrl, requestUrl.toString());
     }
 
     /**
@@ -2733,9 +3776,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getGroup", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.GroupHandler handler = new ServiceResponseUtil.GroupHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getGroup();
+        // 23626: Cached per site
+        return getCachedGroup(siteUrl, requestUrl.toString());
     }
 
     /**
@@ -2906,6 +3948,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("AddRoleAssignment");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role definitions of the principal are changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -2928,6 +3972,8 @@ public class Service
         }
         ServiceResponseUtil.BooleanHandler handler = new ServiceResponseUtil.BooleanHandler("RemoveRoleAssignment");
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role definitions of the principal are changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -3295,6 +4341,226 @@ public class Service
         return handler.getNavigationNodes();
     }
 
+    // [Start] 23626: Get the navigation nodes with the children expanded in the same response
+    /**
+     * Gets the top navigation bar with the children expanded by the query options, e.g.
+     * SharePointQueryUtils.NavigationNode.getTreeOption().
+     *
+     * @param queryOptions the query options
+     * @param mChildren    the map to put the expanded children of each node by the node id, at all levels
+     * @return the top navigation bar
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public List<NavigationNode> getTopNavigationBar(String siteUrl, List<IQueryOption> queryOptions,
+                                                    Map<Integer, List<NavigationNode>> mChildren) throws ServiceException {
+        return getNavigationNodeTree(siteUrl, "_api/web/Navigation/TopNavigationBar", -1, queryOptions, mChildren, "getTopNavigationBar");
+    }
+
+    /**
+     * Gets the quick launch with the children expanded by the query options, e.g.
+     * SharePointQueryUtils.NavigationNode.getTreeOption().
+     *
+     * @param queryOptions the query options
+     * @param mChildren    the map to put the expanded children of each node by the node id, at all levels
+     * @return the quick launch
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public List<NavigationNode> getQuickLaunch(String siteUrl, List<IQueryOption> queryOptions,
+                                               Map<Integer, List<NavigationNode>> mChildren) throws ServiceException {
+        return getNavigationNodeTree(siteUrl, "_api/web/Navigation/QuickLaunch", -1, queryOptions, mChildren, "getQuickLaunch");
+    }
+
+    /**
+     * Gets the navigation node children with their children expanded by the query options, e.g.
+     * SharePointQueryUtils.NavigationNode.getTreeOption().
+     *
+     * @param id           the id
+     * @param queryOptions the query options
+     * @param mChildren    the map to put the expanded children of each node by the node id, at all levels
+     * @return the navigation node children
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public List<NavigationNode> getNavigationNodeChildren(String siteUrl, int id, List<IQueryOption> queryOptions,
+                                                          Map<Integer, List<NavigationNode>> mChildren) throws ServiceException {
+        if (id <= 0) {
+            throw new IllegalArgumentException("Invalid node id");
+        }
+        return getNavigationNodeTree(siteUrl, "_api/web/Navigation/GetNodeById(" + id + ")/Children", id, queryOptions, mChildren,
+                "getNavigationNodeChildren");
+    }
+
+    private List<NavigationNode> getNavigationNodeTree(String siteUrl, String path, int parentId, List<IQueryOption> queryOptions,
+                                                       Map<Integer, List<NavigationNode>> mChildren, String name) throws ServiceException {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (mChildren == null) {
+            throw new IllegalArgumentException("mChildren");
+        }
+
+        StringBuilder sbQuery = new StringBuilder("");
+        Util.queryOptionsToString(sbQuery, queryOptions);
+        StringBuilder requestUrl = new StringBuilder(path);
+        requestUrl.append(sbQuery);
+        if (callback.isDebug()) {
+            callback.printDebug(name, siteUrl, requestUrl.toString());
+        }
+        NavigationTreeHandler handler = new NavigationTreeHandler(siteUrl, parentId, mChildren, requestUrl.toString());
+        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
+        return handler.getNavigationNodes();
+    }
+
+    /**
+     * Parses the navigation nodes by NavigationNodesHandler, and the children expanded inline in the same response,
+     * which are not exposed by NavigationNode, by NavigationNodesHandler again level by level.
+     */
+    private static class NavigationTreeHandler
+            extends ServiceResponseUtil.ResponseHandler {
+
+        private final String siteUrl;
+        private final int parentId;
+        private final Map<Integer, List<NavigationNode>> mChildren;
+        private final String requestUrl;
+        private List<NavigationNode> navigationNodes;
+
+        private NavigationTreeHandler(String siteUrl, int parentId, Map<Integer, List<NavigationNode>> mChildren, String requestUrl) {
+            this.siteUrl = siteUrl;
+            this.parentId = parentId;
+            this.mChildren = mChildren;
+            this.requestUrl = requestUrl;
+        }
+
+        @Override
+        public void handle(InputStream is) throws Exception {
+            navigationNodes = parseNodes(ListMetadataCache.readFully(RequestMetrics.measure(is)), parentId);
+        }
+
+        private List<NavigationNode> getNavigationNodes() {
+            return navigationNodes;
+        }
+
+        private List<NavigationNode> parseNodes(byte[] feed, int iParentId) throws Exception {
+            ServiceResponseUtil.NavigationNodesHandler handler = new ServiceResponseUtil.NavigationNodesHandler(siteUrl, iParentId);
+            handler.handle(new ByteArrayInputStream(feed));
+            List<NavigationNode> alNode = handler.getNavigationNodes();
+            List<byte[]> alChildren = getInlineChildren(feed);
+            int iNode = alNode == null ? 0 : alNode.size();
+            if (iNode != alChildren.size()) {
+                // the children are matched to the nodes by position, they must not be given to the wrong node
+                throw new ServiceException("Parsed " + iNode + " navigation nodes of " + alChildren.size()
+                        + " entries, the expanded children cannot be matched", null, requestUrl);
+            }
+            for (int i = 0; i < iNode; i++) {
+                if (alChildren.get(i) != null) {
+                    NavigationNode navigationNode = alNode.get(i);
+                    mChildren.put(navigationNode.getId(), parseNodes(alChildren.get(i), navigationNode.getId()));
+                }
+            }
+            return alNode;
+        }
+
+        /**
+         * @return one element per entry of the feed, the inline feed of its Children as a document, or null if the
+         * children are not expanded
+         */
+        // <feed><entry><link rel=".../related/Children" title="Children"><m:inline><feed>...</feed></m:inline></link>
+        private static List<byte[]> getInlineChildren(byte[] feed) throws XMLStreamException {
+            List<byte[]> alChildren = new ArrayList<byte[]>();
+            XMLStreamReader reader = XmlReaderFactory.createXMLStreamReader(new ByteArrayInputStream(feed));
+            try {
+                int iDepth = 0;
+                while (reader.hasNext()) {
+                    int iEvent = reader.next();
+                    if (iEvent == XMLStreamConstants.START_ELEMENT) {
+                        iDepth++;
+                        if (iDepth == 2 && PropertyDispatcher.isStartElement(reader, "entry", PropertyDispatcher.NS_ATOM)) {
+                            alChildren.add(null);
+                        } else if (iDepth == 3 && !alChildren.isEmpty()
+                                && PropertyDispatcher.isStartElement(reader, "link", PropertyDispatcher.NS_ATOM)
+                                && "Children".equals(reader.getAttributeValue(null, "title"))) {
+                            alChildren.set(alChildren.size() - 1, copyInlineFeed(reader));
+                            // at the end of the link
+                            iDepth--;
+                        }
+                    } else if (iEvent == XMLStreamConstants.END_ELEMENT) {
+                        iDepth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return alChildren;
+        }
+
+        /**
+         * Copies the inline feed of the link at the reader into a document, the reader is left at the end of the link.
+         *
+         * @return the feed, or null if the link has no inline feed
+         */
+        private static byte[] copyInlineFeed(XMLStreamReader reader) throws XMLStreamException {
+            byte[] feed = null;
+            int iDepth = 1;
+            while (iDepth > 0 && reader.hasNext()) {
+                int iEvent = reader.next();
+                if (iEvent == XMLStreamConstants.START_ELEMENT) {
+                    if (PropertyDispatcher.isStartElement(reader, "feed", PropertyDispatcher.NS_ATOM)) {
+                        // consumed until the end of the feed
+                        feed = copyElement(reader);
+                    } else {
+                        iDepth++;
+                    }
+                } else if (iEvent == XMLStreamConstants.END_ELEMENT) {
+                    iDepth--;
+                }
+            }
+            return feed;
+        }
+
+        private static byte[] copyElement(XMLStreamReader reader) throws XMLStreamException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLOutputFactory factory = XMLOutputFactory.newInstance();
+            // the namespaces declared on the outer elements are declared again where used
+            factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+            XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            int iDepth = 0;
+            while (true) {
+                int iEvent = reader.getEventType();
+                if (iEvent == XMLStreamConstants.START_ELEMENT) {
+                    iDepth++;
+                    writer.writeStartElement(toString(reader.getPrefix()), reader.getLocalName(), toString(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String sNamespace = reader.getAttributeNamespace(i);
+                        if (sNamespace == null || sNamespace.length() == 0) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(toString(reader.getAttributePrefix(i)), sNamespace, reader.getAttributeLocalName(i),
+                                    reader.getAttributeValue(i));
+                        }
+                    }
+                } else if (iEvent == XMLStreamConstants.CHARACTERS || iEvent == XMLStreamConstants.CDATA
+                        || iEvent == XMLStreamConstants.SPACE) {
+                    writer.writeCharacters(reader.getText());
+                } else if (iEvent == XMLStreamConstants.END_ELEMENT) {
+                    iDepth--;
+                    writer.writeEndElement();
+                    if (iDepth == 0) {
+                        break;
+                    }
+                }
+                reader.next();
+            }
+            writer.writeEndDocument();
+            writer.close();
+            return out.toByteArray();
+        }
+
+        private static String toString(String s) {
+            return s == null ? "" : s;
+        }
+    }
+    // [End] 23626
+
     /**
      * Checks if is shared navigation.
      *
@@ -3508,9 +4774,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getRole", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getRole();
+        // 23626: Cached per site
+        return getCachedRole(siteUrl, requestUrl.toString());
     }
 
     /**
@@ -3532,9 +4797,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getRole", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getRole();
+        // 23626: Cached per site
+        return getCachedRole(siteUrl, requestUrl.toString());
     }
 
     /**
@@ -3553,9 +4817,8 @@ public class Service
         if (callback.isDebug()) {
             callback.printDebug("getRole", siteUrl, requestUrl.toString());
         }
-        ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getRole();
+        // 23626: Cached per site
+        return getCachedRole(siteUrl, requestUrl.toString());
     }
 
     /**
@@ -4234,6 +5497,15 @@ public class Service
             throw new IllegalArgumentException("siteUrl");
         }
 
+        // [Start] 23626: Serve the definition from the list metadata cache
+        ListMetadataCache cache = getListMetadataCache(siteUrl);
+        if (cache != null) {
+            ServiceResponseUtil.FieldsHandler handler = new ServiceResponseUtil.FieldsHandler();
+            parseCachedResponse(handler, getCachedListResponse(cache, siteUrl, listId, "/Fields", queryOptions, "getListFields"));
+            return handler.getFields();
+        }
+        // [End] 23626
+
         StringBuilder sbQuery = new StringBuilder("");
         Util.queryOptionsToString(sbQuery, queryOptions);
         StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')/Fields");
@@ -4477,6 +5749,15 @@ public class Service
             throw new IllegalArgumentException("siteUrl");
         }
 
+        // [Start] 23626: Serve the schema from the list metadata cache
+        ListMetadataCache cache = getListMetadataCache(siteUrl);
+        if (cache != null) {
+            ServiceResponseUtil.ListSchemaXmlHandler handler = new ServiceResponseUtil.ListSchemaXmlHandler();
+            parseCachedResponse(handler, getCachedListResponse(cache, siteUrl, listId, "/SchemaXml", null, "getListSchemaXml"));
+            return handler.getListSchemaXml();
+        }
+        // [End] 23626
+
         StringBuilder requestUrl = new StringBuilder("_api/web/lists('" + listId + "')/SchemaXml");
         if (callback.isDebug()) {
             callback.printDebug("getListSchemaXml", siteUrl, requestUrl.toString());
@@ -5451,6 +6732,90 @@ public class Service
         }
     }
 
+    // [Start] 23626: Get a byte range of the file content to resume or split a download
+    /**
+     * Handler of a file range which gives the range to request. The range is read again when the request is built
+     * for each attempt, so a retry after a partial read requests the bytes not read yet.
+     */
+    public abstract static class FileRangeHandler
+            extends ServiceResponseUtil.ResponseHandler {
+
+        /**
+         * @return the first byte of the range to request
+         */
+        protected abstract long getOffset();
+
+        /**
+         * @return the number of bytes to request, or -1 for the rest of the file
+         */
+        protected abstract long getLength();
+    }
+
+    /**
+     * Gets a byte range of the file content. The response body is passed to the handler as a stream.
+     *
+     * @param filePath the file path
+     * @param offset   the first byte of the range
+     * @param length   the number of bytes, or -1 for the rest of the file
+     * @param handler  the handler of the content stream
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public void getFileRange(String siteUrl, String filePath, long offset, long length, ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("The parameter offset must be non-negative.");
+        }
+        final String sRange = getRangeHeader(offset, length);
+        getFileRange(siteUrl, filePath, new ServiceInstance.RequestType() {
+            @Override
+            protected Map<String, String> getHeaders() {
+                Map<String, String> mHdr = new LinkedHashMap<String, String>();
+                mHdr.put("Range", sRange);
+                return mHdr;
+            }
+        }, handler);
+    }
+
+    /**
+     * Gets a byte range of the file content, the range is given by the handler for each attempt.
+     *
+     * @param filePath the file path
+     * @param handler  the handler of the range and the content stream
+     * @throws com.independentsoft.share.ServiceException the service exception
+     */
+    public void getFileRange(String siteUrl, String filePath, final FileRangeHandler handler) throws ServiceException {
+        getFileRange(siteUrl, filePath, new ServiceInstance.RequestType() {
+            @Override
+            protected Map<String, String> getHeaders() {
+                Map<String, String> mHdr = new LinkedHashMap<String, String>();
+                mHdr.put("Range", getRangeHeader(handler.getOffset(), handler.getLength()));
+                return mHdr;
+            }
+        }, handler);
+    }
+
+    private void getFileRange(String siteUrl, String filePath, ServiceInstance.RequestType requestType, ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (filePath == null) {
+            throw new IllegalArgumentException("filePath");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+
+        StringBuilder requestUrl = new StringBuilder("_api/web/GetFileByServerRelativePath(decodedUrl=@v)/$value?@v='" + Util.encodeUrl(Util.escapeQueryUrl(filePath)) + "'");
+        if (callback.isDebug()) {
+            callback.printDebug("getFileRange", siteUrl, requestUrl.toString());
+        }
+        doSendCustomizeRequest(siteUrl, "GET", requestUrl.toString(), null, requestType, handler);
+    }
+
+    private static String getRangeHeader(long offset, long length) {
+        return "bytes=" + offset + "-" + (length < 0 ? "" : String.valueOf(offset + length - 1));
+    }
+    // [End] 23626
+
     /**
      * Gets the input stream.
      *
@@ -7370,38 +8735,51 @@ public class Service
      * @throws com.independentsoft.share.ServiceException the service exception
      */
     public List<ListItem> createListItems(String siteUrl, String listId, List<String> listItems) throws ServiceException {
+        // [Start] 23626: Split at the changeset limit, the result of each item is in its part
+        List<BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>> alPart =
+                createListItems(siteUrl, listId, listItems, BatchRequest.MAX_CHANGESET_SIZE);
+        List<ListItem> alCreated = new ArrayList<ListItem>();
+        for (BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler> part : alPart) {
+            if (part.isSuccess() && part.getHandler().getListItem() != null) {
+                alCreated.add(part.getHandler().getListItem());
+            }
+        }
+        return alCreated;
+        // [End] 23626
+    }
+
+    // [Start] 23626: Split the list items in changesets of the given size with the result of each item
+    /**
+     * Creates the list items by batch, sent in changesets of at most maxChangeSetSize items, one changeset per $batch
+     * call. A changeset is atomic but the changesets are not, the items of a failed changeset are not created while
+     * the items of the other changesets may be.
+     *
+     * @param listId           the list id
+     * @param listItems        the JSON request body of each list item
+     * @param maxChangeSetSize the number of items per changeset, 1 to BatchRequest.MAX_CHANGESET_SIZE
+     * @return the part of each list item in the same order, with its status and the created item in its handler
+     * @throws com.independentsoft.share.ServiceException if a $batch call fails
+     */
+    public List<BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>> createListItems(String siteUrl, String listId,
+                                                                                         List<String> listItems, int maxChangeSetSize)
+            throws ServiceException {
         if (siteUrl == null) {
             throw new IllegalArgumentException("siteUrl");
         }
+        if (listItems == null) {
+            throw new IllegalArgumentException("listItems");
+        }
 
-        StringBuilder requestUrl = new StringBuilder("_api/$batch");
-        String createListItemRequestUrl = "_api/web/lists('" + listId + "')/items";
-        String serviceUrl = siteUrl.endsWith("/") ? siteUrl + createListItemRequestUrl : siteUrl + "/" + createListItemRequestUrl;
-        String sBatchBoundary = UUID.randomUUID().toString();
-        String sChangeSetBoundary = UUID.randomUUID().toString();
-        String sCommonChangeSetBoundary = "--changeset_" + sChangeSetBoundary + "\r\n" +
-                "Content-Type: application/http" + "\r\n" +
-                "Content-Transfer-Encoding: binary" + "\r\n\r\n" +
-                "POST " + serviceUrl + " HTTP/1.1" + "\r\n" +
-                "Content-Type: application/json;odata=verbose";
-        String sBatchBody = "";
-        for (String slistItem : listItems) {
-            sBatchBody += sCommonChangeSetBoundary + "\r\n\r\n" +
-                    slistItem + "\r\n\r\n";
-        }
-        String requestBody = "--batch_" + sBatchBoundary + "\r\n" +
-                "Content-Type: multipart/mixed; boundary=\"changeset_" + sChangeSetBoundary + "\"" + "\r\n" +
-                "Content-Transfer-Encoding: binary" + "\r\n\r\n" +
-                sBatchBody +
-                "--changeset_" + sChangeSetBoundary + "--" + "\r\n\r\n" +
-                "--batch_" + sBatchBoundary + "--";
-        if (callback.isDebug()) {
-            callback.printDebug("createListItems", siteUrl, requestUrl.toString(), requestBody);
-        }
-        ServiceResponseUtil.CreatedListItemsHandler handler = new ServiceResponseUtil.CreatedListItemsHandler();
-        doSendBatchBoundaryRequest(siteUrl, "POST", requestUrl.toString(), requestBody, sBatchBoundary, handler);
-        return handler.getListItems();
+        BatchRequest batchRequest = newChangeSetBatchRequest(maxChangeSetSize);
+        List<BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>> alPart =
+                new ArrayList<BatchRequest.HandlerPart<ServiceResponseUtil.ListItemHandler>>();
+        for (String sListItem : listItems) {
+            alPart.add(batchRequest.addCreateListItem(listId, sListItem, new ServiceResponseUtil.ListItemHandler()));
+        }
+        executeBatch(siteUrl, batchRequest);
+        return alPart;
     }
+    // [End] 23626
 
     /**
      * Delete list items by batch.
@@ -7412,37 +8790,122 @@ public class Service
      * @throws com.independentsoft.share.ServiceException the service exception
      */
     public boolean deleteListItems(String siteUrl, String listId, List<ListItem> listItems) throws ServiceException {
+        // [Start] 23626: Split at the changeset limit, the result of each item is in its part
+        List<BatchRequest.Part> alPart = deleteListItems(siteUrl, listId, listItems, BatchRequest.MAX_CHANGESET_SIZE);
+        for (BatchRequest.Part part : alPart) {
+            if (!part.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+        // [End] 23626
+    }
+
+    // [Start] 23626: Split the list items in changesets of the given size with the result of each item
+    /**
+     * Deletes the list items by batch, sent in changesets of at most maxChangeSetSize items, one changeset per $batch
+     * call. A changeset is atomic but the changesets are not, the items of a failed changeset are not deleted while
+     * the items of the other changesets may be.
+     *
+     * @param listId           the list id
+     * @param listItems        the list items
+     * @param maxChangeSetSize the number of items per changeset, 1 to BatchRequest.MAX_CHANGESET_SIZE
+     * @return the part of each list item in the same order, with its status
+     * @throws com.independentsoft.share.ServiceException if a $batch call fails
+     */
+    public List<BatchRequest.Part> deleteListItems(String siteUrl, String listId, List<ListItem> listItems, int maxChangeSetSize)
+            throws ServiceException {
         if (siteUrl == null) {
             throw new IllegalArgumentException("siteUrl");
         }
+        if (listItems == null) {
+            throw new IllegalArgumentException("listItems");
+        }
 
-        StringBuilder requestUrl = new StringBuilder("_api/$batch");
-        String createListItemRequestUrl = "_api/web/lists('" + listId + "')/items";
-        String serviceUrl = siteUrl.endsWith("/") ? siteUrl + createListItemRequestUrl : siteUrl + "/" + createListItemRequestUrl;
-        String sBatchBoundary = UUID.randomUUID().toString();
-        String sChangeSetBoundary = UUID.randomUUID().toString();
-        String sCommonChangeSetBoundary = "--changeset_" + sChangeSetBoundary + "\r\n" +
-                "Content-Type: application/http" + "\r\n" +
-                "Content-Transfer-Encoding: binary" + "\r\n\r\n";
-        String sBatchBody = "";
+        BatchRequest batchRequest = newChangeSetBatchRequest(maxChangeSetSize);
+        List<BatchRequest.Part> alPart = new ArrayList<BatchRequest.Part>();
         for (ListItem listItem : listItems) {
-            sBatchBody += sCommonChangeSetBoundary +
-                    "DELETE " + serviceUrl + "(" + listItem.getId() + ")" + " HTTP/1.1" + "\r\n" +
-                    "If-Match: *" + "\r\n\r\n";
+            alPart.add(batchRequest.addDeleteListItem(listId, listItem.getId()));
+        }
+        executeBatch(siteUrl, batchRequest);
+        return alPart;
+    }
+
+    /**
+     * @return the batch request sending one changeset per $batch call, as the server does not execute the changesets
+     * after a failed one in the same call
+     */
+    private static BatchRequest newChangeSetBatchRequest(int maxChangeSetSize) {
+        if (maxChangeSetSize <= 0 || maxChangeSetSize > BatchRequest.MAX_CHANGESET_SIZE) {
+            throw new IllegalArgumentException("The parameter maxChangeSetSize must be between 1 and " + BatchRequest.MAX_CHANGESET_SIZE + ".");
+        }
+        BatchRequest batchRequest = new BatchRequest(maxChangeSetSize);
+        batchRequest.setMaxChangeSetSize(maxChangeSetSize);
+        return batchRequest;
+    }
+    // [End] 23626
+
+    // [Start] 23626: Send independent requests through $batch to save round trips
+    /**
+     * Executes the requests by batch. GET requests are sent as individual parts and consecutive write operations are
+     * sent in changesets. The result of each request is recorded in its part, a failed request does not fail the
+     * requests in other parts.
+     *
+     * @param batchRequest the batch request
+     * @return true if all requests are successful
+     * @throws com.independentsoft.share.ServiceException if a $batch call fails
+     */
+    public boolean executeBatch(String siteUrl, BatchRequest batchRequest) throws ServiceException {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        if (batchRequest == null) {
+            throw new IllegalArgumentException("batchRequest");
+        }
+
+        List<BatchRequest.Part> parts = batchRequest.getParts();
+        for (int i = 0; i < parts.size(); i += batchRequest.getMaxRequests()) {
+            executeBatch(siteUrl, parts.subList(i, Math.min(i + batchRequest.getMaxRequests(), parts.size())), batchRequest.getMaxChangeSetSize());
+        }
+        return batchRequest.isSuccess();
+    }
+
+    private void executeBatch(String siteUrl, List<BatchRequest.Part> parts, int iMaxChangeSetSize) throws ServiceException {
+        StringBuilder requestUrl = new StringBuilder("_api/$batch");
+        String sSiteUrl = siteUrl.endsWith("/") ? siteUrl : siteUrl + "/";
+        BatchWriter batchWriter = new BatchWriter();
+        List<List<BatchRequest.Part>> alGroup = new ArrayList<List<BatchRequest.Part>>();
+        List<BatchRequest.Part> alChangeSet = null;
+        for (BatchRequest.Part part : parts) {
+            if (part.isGet()) {
+                // GET requests are not allowed in changeset, each one is a top level part
+                if (batchWriter.isInChangeSet()) {
+                    batchWriter.endChangeSet();
+                    alChangeSet = null;
+                }
+                alGroup.add(Collections.singletonList(part));
+            } else {
+                if (batchWriter.getChangeSetSize() >= iMaxChangeSetSize) {
+                    batchWriter.endChangeSet();
+                    alChangeSet = null;
+                }
+                if (!batchWriter.isInChangeSet()) {
+                    batchWriter.beginChangeSet();
+                    alChangeSet = new ArrayList<BatchRequest.Part>();
+                    alGroup.add(alChangeSet);
+                }
+                alChangeSet.add(part);
+            }
+            batchWriter.writeRequest(part.getMethod(), sSiteUrl + part.getRequestUrl(), part.getHeaders(), part.getBody());
         }
-        String requestBody = "--batch_" + sBatchBoundary + "\r\n" +
-                "Content-Type: multipart/mixed; boundary=\"changeset_" + sChangeSetBoundary + "\"" + "\r\n" +
-                "Content-Transfer-Encoding: binary" + "\r\n\r\n" +
-                sBatchBody +
-                "--changeset_" + sChangeSetBoundary + "--" + "\r\n\r\n" +
-                "--batch_" + sBatchBoundary + "--";
+        String requestBody = batchWriter.finish();
         if (callback.isDebug()) {
-            callback.printDebug("deleteListItems", siteUrl, requestUrl.toString(), requestBody);
+            callback.printDebug("executeBatch", siteUrl, requestUrl.toString(), requestBody);
         }
-        ServiceResponseUtil.DeletedListItemsHandler handler = new ServiceResponseUtil.DeletedListItemsHandler();
-        doSendBatchBoundaryRequest(siteUrl, "POST", requestUrl.toString(), requestBody, sBatchBoundary, handler);
-        return handler.isSuccess();
+        BatchResponseHandler handler = new BatchResponseHandler(siteUrl, alGroup);
+        doSendBatchBoundaryRequest(siteUrl, "POST", requestUrl.toString(), requestBody, batchWriter.getBoundary(), handler);
     }
+    // [End] 23626
 
     /**
      * Gets the list content types.
@@ -7663,6 +9126,8 @@ public class Service
         }
         ServiceResponseUtil.DeletedListItemsHandler handler = new ServiceResponseUtil.DeletedListItemsHandler();
         doSendRequest(siteUrl, "POST", requestUrl.toString(), handler);
+        // 23626: The cached role assignments may be changed
+        clearPrincipalCache(siteUrl);
         return handler.isSuccess();
     }
 
@@ -7883,6 +9348,34 @@ public class Service
         return alDefinition;
     }
 
+    private static final String AUTHOR_DLL_URL = "_vti_bin/_vti_aut/author.dll";
+    // the version in the method echoed by the server, e.g. <p>method=open service:16.0.0.19019
+    private static final Pattern AUTHOR_DLL_VERSION_PATTERN = Pattern.compile("method=[^:<]*:([0-9]+(\\.[0-9]+)*)");
+
+    // sent when the server does not report its version in the response of open service
+    private static final String DEFAULT_AUTHOR_DLL_VERSION = "15.0.0.0";
+
+    // FrontPage RPC version of each site, by the site key
+    private final Map<String, String> mAuthorDllVersion = new ConcurrentHashMap<String, String>();
+
+    // opt-in, the streamed document is not sent with the vermeer content type, see setAuthorDllStreamEnabled()
+    private boolean isAuthorDllStreamEnabled = false;
+
+    public boolean isAuthorDllStreamEnabled() {
+        return isAuthorDllStreamEnabled;
+    }
+
+    /**
+     * @param isAuthorDllStreamEnabled true to stream the document of createFileByAuthorDll after the RPC header
+     *                                 instead of converting it to a string. The stream overload of ServiceInstance
+     *                                 takes no RequestType, so the streamed request is sent with the binary content
+     *                                 type instead of the vermeer content type, and it is not retried. Enable it only
+     *                                 for the servers verified to accept it.
+     */
+    public void setAuthorDllStreamEnabled(boolean isAuthorDllStreamEnabled) {
+        this.isAuthorDllStreamEnabled = isAuthorDllStreamEnabled;
+    }
+
     public void createFolderByAuthorDll(String sSiteUrl, String sPath) throws ServiceException {
         String method = "create+url-directories";
         String command = "urldirs=[[url=" + Util.encodeUrl(sPath) + "]]";
@@ -7893,6 +9386,19 @@ public class Service
         String method = "put+document";
         String command = "keep_checked_out=false" +
                 "&comment=";
+        // [Start] 23626: Stream the document after the RPC header instead of converting it to string, if enabled
+        if (isAuthorDllStreamEnabled) {
+            if (is == null) {
+                throw new IllegalArgumentException("stream");
+            }
+            if (overwrite) {
+                command += "&put_option=overwrite";
+            }
+            command += "&document=[document_name=" + FilePath + "]]";
+            doSendAuthorDllRequest(sSiteUrl, method, command, is, null);
+            return;
+        }
+        // [End] 23626
         try {
             if (overwrite) {
                 command += "&put_option=overwrite";
@@ -7907,6 +9413,71 @@ public class Service
         doSendAuthorDllRequest(sSiteUrl, method, command, null);
     }
 
+    /**
+     * Sends an author.dll request with the document streamed as raw bytes after the RPC header. The RPC version is
+     * the one reported by the server, or DEFAULT_AUTHOR_DLL_VERSION if not reported. The request is not retried, the
+     * document stream is consumed by the first attempt.
+     *
+     * @param siteUrl  the site url
+     * @param method   the RPC method, e.g. put+document
+     * @param command  the RPC parameters
+     * @param document the document content
+     * @param handler  the response handler, may be null
+     * @throws ServiceException the service exception
+     */
+    protected void doSendAuthorDllRequest(String siteUrl, String method, String command, InputStream document,
+                                          ServiceResponseUtil.ResponseHandler handler) throws ServiceException {
+        if (document == null) {
+            throw new IllegalArgumentException("document");
+        }
+        // the document follows the line feed after the header
+        String sHeader = "method=" + method + ":" + getAuthorDllVersion(siteUrl) + "&service_name=/&" + command + "\n";
+        InputStream stream;
+        try {
+            stream = new SequenceInputStream(new ByteArrayInputStream(sHeader.getBytes("UTF-8")), document);
+        } catch (IOException e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+        if (callback.isDebug()) {
+            callback.printDebug("doSendAuthorDllRequest", siteUrl, AUTHOR_DLL_URL, sHeader);
+        }
+        doSendRequest(siteUrl, "POST", AUTHOR_DLL_URL, null, null, null, stream, true, true, handler);
+    }
+
+    private String getAuthorDllVersion(String siteUrl) throws ServiceException {
+        String sKey = getSiteKey(siteUrl);
+        String sVersion = mAuthorDllVersion.get(sKey);
+        if (sVersion != null) {
+            return sVersion;
+        }
+        // open service is sent by the base request, which owns the version, and the server replies with its own
+        ServiceResponseUtil.StringHandler handler = new ServiceResponseUtil.StringHandler();
+        doSendAuthorDllRequest(siteUrl, "open+service", "", handler);
+        String sResponse = handler.getString();
+        Matcher matcher = AUTHOR_DLL_VERSION_PATTERN.matcher(sResponse == null ? "" : sResponse);
+        if (matcher.find()) {
+            sVersion = matcher.group(1);
+        } else {
+            if (callback.isDebug()) {
+                callback.printDebug("getAuthorDllVersion", siteUrl, AUTHOR_DLL_URL, "No version in response of open service, use " + DEFAULT_AUTHOR_DLL_VERSION);
+            }
+            sVersion = DEFAULT_AUTHOR_DLL_VERSION;
+        }
+        mAuthorDllVersion.put(sKey, sVersion);
+        return sVersion;
+    }
+
+    /**
+     * @return the key of the site url for the per site state, not case sensitive and without the trailing slash
+     */
+    private static String getSiteKey(String siteUrl) {
+        String sKey = siteUrl.toLowerCase();
+        if (sKey.endsWith("/")) {
+            sKey = sKey.substring(0, sKey.length() - 1);
+        }
+        return sKey;
+    }
+
     public Role getPrincipalRoleDefinition(String siteUrl, int sPrincipalId) throws ServiceException {
         if (siteUrl == null) {
             throw new IllegalArgumentException("siteUrl");
@@ -7918,9 +9489,8 @@ public class Service
             System.out.println("[Service.getPrincipalRoleDefinition] siteUrl: " + siteUrl + ", requestUrl: " + requestUrl);
         }
 
-        ServiceResponseUtil.RoleHandler handler = new ServiceResponseUtil.RoleHandler();
-        doSendRequest(siteUrl, "GET", requestUrl.toString(), handler);
-        return handler.getRole();
+        // 23626: Cached per site
+        return getCachedRole(siteUrl, requestUrl.toString());
     }
 
     public CurrentThemeInfo getCurrentThemeInfo(String siteUrl)
@@ -21,6 +21,10 @@ import java.util.Map;
  * 2019-05-06 23535  nicholas.leung    Support timezone
  * 2019-07-15 24258  nicholas.leung    Support site properities
  * 2019-10-18 23626  jefferson.brigino Added siteLogoUrl for support on backup and restore
+ * 2019-11-07 23626  jefferson.brigino Dispatch the properties by one lookup instead of comparing each name
+ * 2019-11-08 23626  jefferson.brigino Support parsing from JSON light response
+ * 2019-11-13 23626  jefferson.brigino Record a large parse to EventRecorder
+ * 2019-11-16 23626  jefferson.brigino Record a large parse of JSON light response
  */
 public class Site
         extends RawXmlEntity
@@ -33,6 +37,59 @@ public class Site
     // 23535: Support timezone
     public static final String ATTR_TIMEZONE = "AttrTz";
 
+    // [Start] 23626: Properties dispatched by local name
+    private static final int PROP_ALLOW_RSS_FEEDS = 0;
+    private static final int PROP_APP_INSTANCE_ID = 1;
+    private static final int PROP_CONFIGURATION = 2;
+    private static final int PROP_CREATED = 3;
+    private static final int PROP_CUSTOM_MASTER_URL = 4;
+    private static final int PROP_DESCRIPTION = 5;
+    private static final int PROP_DOCUMENT_LIBRARY_CALLOUT_OFFICE_WEB_APP_PREVIEWERS_DISABLED = 6;
+    private static final int PROP_ENABLE_MINIMAL_DOWNLOAD = 7;
+    private static final int PROP_ID = 8;
+    private static final int PROP_LANGUAGE = 9;
+    private static final int PROP_LAST_ITEM_MODIFIED_DATE = 10;
+    private static final int PROP_MASTER_URL = 11;
+    private static final int PROP_QUICK_LAUNCH_ENABLED = 12;
+    private static final int PROP_RECYCLE_BIN_ENABLED = 13;
+    private static final int PROP_SERVER_RELATIVE_URL = 14;
+    private static final int PROP_SYNDICATION_ENABLED = 15;
+    private static final int PROP_TITLE = 16;
+    private static final int PROP_TREE_VIEW_ENABLED = 17;
+    private static final int PROP_UI_VERSION = 18;
+    private static final int PROP_UI_VERSION_CONFIGURATION_ENABLED = 19;
+    private static final int PROP_OVERWRITE_TRANSLATIONS_ON_CHANGE = 20;
+    private static final int PROP_URL = 21;
+    private static final int PROP_WEB_TEMPLATE = 22;
+    private static final int PROP_SITE_LOGO_URL = 23;
+
+    private static final PropertyDispatcher PROPERTIES = new PropertyDispatcher(PropertyDispatcher.NS_DATA_SERVICES)
+            .add("AllowRssFeeds", PROP_ALLOW_RSS_FEEDS)
+            .add("AppInstanceId", PROP_APP_INSTANCE_ID)
+            .add("Configuration", PROP_CONFIGURATION)
+            .add("Created", PROP_CREATED)
+            .add("CustomMasterUrl", PROP_CUSTOM_MASTER_URL)
+            .add("Description", PROP_DESCRIPTION)
+            .add("DocumentLibraryCalloutOfficeWebAppPreviewersDisabled", PROP_DOCUMENT_LIBRARY_CALLOUT_OFFICE_WEB_APP_PREVIEWERS_DISABLED)
+            .add("EnableMinimalDownload", PROP_ENABLE_MINIMAL_DOWNLOAD)
+            .add("Id", PROP_ID)
+            .add("Language", PROP_LANGUAGE)
+            .add("LastItemModifiedDate", PROP_LAST_ITEM_MODIFIED_DATE)
+            .add("MasterUrl", PROP_MASTER_URL)
+            .add("QuickLaunchEnabled", PROP_QUICK_LAUNCH_ENABLED)
+            .add("RecycleBinEnabled", PROP_RECYCLE_BIN_ENABLED)
+            .add("ServerRelativeUrl", PROP_SERVER_RELATIVE_URL)
+            .add("SyndicationEnabled", PROP_SYNDICATION_ENABLED)
+            .add("Title", PROP_TITLE)
+            .add("TreeViewEnabled", PROP_TREE_VIEW_ENABLED)
+            .add("UIVersion", PROP_UI_VERSION)
+            .add("UIVersionConfigurationEnabled", PROP_UI_VERSION_CONFIGURATION_ENABLED)
+            .add("OverwriteTranslationsOnChange", PROP_OVERWRITE_TRANSLATIONS_ON_CHANGE)
+            .add("Url", PROP_URL)
+            .add("WebTemplate", PROP_WEB_TEMPLATE)
+            .add("SiteLogoUrl", PROP_SITE_LOGO_URL);
+    // [End] 23626
+
     private boolean allowRssFeeds;
     private String appInstanceId;
     private int configuration;
@@ -85,118 +142,21 @@ public class Site
     @Override
     protected void parse(AttributeType attrType, XMLStreamReader reader)
             throws XMLStreamException, ParseException {
+        // 23626: Record the parse if it takes longer than the threshold
+        long lStart = System.nanoTime();
         while (reader.hasNext()) {
-            if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("inline") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+            if (PropertyDispatcher.isStartElement(reader, "inline", PropertyDispatcher.NS_METADATA)) {
                 parseInline(reader);
-            } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("properties") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+            } else if (PropertyDispatcher.isStartElement(reader, "properties", PropertyDispatcher.NS_METADATA)) {
                 while (reader.hasNext()) {
-                    if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("AllowRssFeeds") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            allowRssFeeds = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("AppInstanceId") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        appInstanceId = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Configuration") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            configuration = Integer.parseInt(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Created") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            createdTime = Util.parseDate(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("CustomMasterUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        customMasterUrl = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Description") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        description = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("DocumentLibraryCalloutOfficeWebAppPreviewersDisabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isDocumentLibraryCalloutOfficeWebAppPreviewersDisabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("EnableMinimalDownload") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            enableMinimalDownload = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Id") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        id = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Language") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            language = Locale.getInstance(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("LastItemModifiedDate") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            lastItemModifiedTime = Util.parseDate(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("MasterUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        masterUrl = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("QuickLaunchEnabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isQuickLaunchEnabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("RecycleBinEnabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isRecycleBinEnabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("ServerRelativeUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        serverRelativeUrl = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("SyndicationEnabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isSyndicationEnabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Title") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        title = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("TreeViewEnabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isTreeViewEnabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("UIVersion") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            uiVersion = Integer.parseInt(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("UIVersionConfigurationEnabled") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isUIVersionConfigurationEnabled = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("OverwriteTranslationsOnChange") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            isOverwriteTranslationsOnChange = Boolean.parseBoolean(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Url") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        url = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("WebTemplate") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        webTemplate = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("SiteLogoUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        siteLogoUrl = reader.getElementText();
+                    // [Start] 23626: Dispatch the properties by one namespace check and one lookup
+                    int property = PROPERTIES.getProperty(reader);
+                    if (property != PropertyDispatcher.UNKNOWN) {
+                        setProperty(property, reader.getElementText());
                     }
+                    // [End] 23626
 
-                    if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("properties") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+                    if (PropertyDispatcher.isEndElement(reader, "properties", PropertyDispatcher.NS_METADATA)) {
                         break;
                     } else {
                         reader.next();
@@ -204,19 +164,147 @@ public class Site
                 }
             }
 
-            if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("entry") && reader.getNamespaceURI().equals("http://www.w3.org/2005/Atom")) {
+            if (PropertyDispatcher.isEndElement(reader, "entry", PropertyDispatcher.NS_ATOM)) {
                 break;
             } else {
                 reader.next();
             }
         }
+        EventRecorder.recordParse("Site.parse", null, lStart);
     }
 
+    // [Start] 23626: Set a property from the element text in Atom or the value in JSON
+    private void setProperty(int property, String value) throws ParseException {
+        switch (property) {
+            case PROP_ALLOW_RSS_FEEDS:
+                if (value != null && value.length() > 0) {
+                    allowRssFeeds = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_APP_INSTANCE_ID:
+                appInstanceId = value;
+                break;
+            case PROP_CONFIGURATION:
+                if (value != null && value.length() > 0) {
+                    configuration = Integer.parseInt(value);
+                }
+                break;
+            case PROP_CREATED:
+                if (value != null && value.length() > 0) {
+                    createdTime = Util.parseDate(value);
+                }
+                break;
+            case PROP_CUSTOM_MASTER_URL:
+                customMasterUrl = value;
+                break;
+            case PROP_DESCRIPTION:
+                description = value;
+                break;
+            case PROP_DOCUMENT_LIBRARY_CALLOUT_OFFICE_WEB_APP_PREVIEWERS_DISABLED:
+                if (value != null && value.length() > 0) {
+                    isDocumentLibraryCalloutOfficeWebAppPreviewersDisabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_ENABLE_MINIMAL_DOWNLOAD:
+                if (value != null && value.length() > 0) {
+                    enableMinimalDownload = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_ID:
+                id = value;
+                break;
+            case PROP_LANGUAGE:
+                if (value != null && value.length() > 0) {
+                    language = Locale.getInstance(value);
+                }
+                break;
+            case PROP_LAST_ITEM_MODIFIED_DATE:
+                if (value != null && value.length() > 0) {
+                    lastItemModifiedTime = Util.parseDate(value);
+                }
+                break;
+            case PROP_MASTER_URL:
+                masterUrl = value;
+                break;
+            case PROP_QUICK_LAUNCH_ENABLED:
+                if (value != null && value.length() > 0) {
+                    isQuickLaunchEnabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_RECYCLE_BIN_ENABLED:
+                if (value != null && value.length() > 0) {
+                    isRecycleBinEnabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_SERVER_RELATIVE_URL:
+                serverRelativeUrl = value;
+                break;
+            case PROP_SYNDICATION_ENABLED:
+                if (value != null && value.length() > 0) {
+                    isSyndicationEnabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_TITLE:
+                title = value;
+                break;
+            case PROP_TREE_VIEW_ENABLED:
+                if (value != null && value.length() > 0) {
+                    isTreeViewEnabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_UI_VERSION:
+                if (value != null && value.length() > 0) {
+                    uiVersion = Integer.parseInt(value);
+                }
+                break;
+            case PROP_UI_VERSION_CONFIGURATION_ENABLED:
+                if (value != null && value.length() > 0) {
+                    isUIVersionConfigurationEnabled = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_OVERWRITE_TRANSLATIONS_ON_CHANGE:
+                if (value != null && value.length() > 0) {
+                    isOverwriteTranslationsOnChange = Boolean.parseBoolean(value);
+                }
+                break;
+            case PROP_URL:
+                url = value;
+                break;
+            case PROP_WEB_TEMPLATE:
+                webTemplate = value;
+                break;
+            case PROP_SITE_LOGO_URL:
+                siteLogoUrl = value;
+                break;
+        }
+    }
+
+    /**
+     * Populates the site from an entity of a JSON light (odata=nometadata) response. Expanded properties are not
+     * read, they are only kept by the Atom response.
+     */
+    void parseJson(JsonReader reader) throws IOException, ParseException {
+        long lStart = System.nanoTime();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int property = PROPERTIES.getProperty(reader.nextName());
+            JsonReader.Token token = reader.peek();
+            if (property == PropertyDispatcher.UNKNOWN || token == JsonReader.Token.BEGIN_OBJECT || token == JsonReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+            } else {
+                setProperty(property, reader.nextString());
+            }
+        }
+        reader.endObject();
+        EventRecorder.recordParse("Site.parseJson", null, lStart);
+    }
+    // [End] 23626
+
     // [Start] 22014: Parse more information
     private void parseInline(XMLStreamReader reader)
             throws XMLStreamException, ParseException {
         while (reader.hasNext()) {
-            if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("entry") && reader.getNamespaceURI().equals("http://www.w3.org/2005/Atom")) {
+            if (PropertyDispatcher.isStartElement(reader, "entry", PropertyDispatcher.NS_ATOM)) {
                 while (reader.hasNext()) {
                     if (reader.isStartElement() && reader.getLocalName() != null && reader.getLocalName().equals("id")) {
                         String id = reader.getElementText();
@@ -224,14 +312,14 @@ public class Site
                             parseRegionalSettings(reader);
                         }
                     }
-                    if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("entry") && reader.getNamespaceURI().equals("http://www.w3.org/2005/Atom")) {
+                    if (PropertyDispatcher.isEndElement(reader, "entry", PropertyDispatcher.NS_ATOM)) {
                         break;
                     } else {
                         reader.next();
                     }
                 }
             }
-            if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("inline") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+            if (PropertyDispatcher.isEndElement(reader, "inline", PropertyDispatcher.NS_METADATA)) {
                 break;
             } else {
                 reader.next();
@@ -249,7 +337,7 @@ public class Site
                     timeZone.parse(reader);
                 }
             }
-            if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("inline") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+            if (PropertyDispatcher.isEndElement(reader, "inline", PropertyDispatcher.NS_METADATA)) {
                 break;
             } else {
                 reader.next();
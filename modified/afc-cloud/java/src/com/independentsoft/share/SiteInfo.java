@@ -1,8 +1,8 @@
 package com.independentsoft.share;
 
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.util.Date;
@@ -14,6 +14,10 @@ import java.util.Date;
  *
  * Date        Task  Author            Changes
  * 2019-10-18  23626 jefferson.brigino Added field siteLogoUrl
+ * 2019-11-07  23626 jefferson.brigino Dispatch the properties by one lookup instead of comparing each name
+ * 2019-11-09  23626 jefferson.brigino Use the shared XMLInputFactory
+ * 2019-11-16  23626 jefferson.brigino Record the parse if it takes longer than the threshold
+ * 2019-11-16  23626 jefferson.brigino Support parsing from JSON light response
  */
 
 public class SiteInfo {
@@ -31,6 +35,33 @@ public class SiteInfo {
     // 23626: Added siteLogoUrl for support on backup and restore
     private String siteLogoUrl;
 
+    // [Start] 23626: Properties dispatched by local name
+    private static final int PROP_CONFIGURATION = 0;
+    private static final int PROP_CREATED = 1;
+    private static final int PROP_DESCRIPTION = 2;
+    private static final int PROP_ID = 3;
+    private static final int PROP_LANGUAGE = 4;
+    private static final int PROP_LAST_ITEM_MODIFIED_DATE = 5;
+    private static final int PROP_SERVER_RELATIVE_URL = 6;
+    private static final int PROP_TITLE = 7;
+    private static final int PROP_WEB_TEMPLATE = 8;
+    private static final int PROP_WEB_TEMPLATE_ID = 9;
+    private static final int PROP_SITE_LOGO_URL = 10;
+
+    private static final PropertyDispatcher PROPERTIES = new PropertyDispatcher(PropertyDispatcher.NS_DATA_SERVICES)
+            .add("Configuration", PROP_CONFIGURATION)
+            .add("Created", PROP_CREATED)
+            .add("Description", PROP_DESCRIPTION)
+            .add("Id", PROP_ID)
+            .add("Language", PROP_LANGUAGE)
+            .add("LastItemModifiedDate", PROP_LAST_ITEM_MODIFIED_DATE)
+            .add("ServerRelativeUrl", PROP_SERVER_RELATIVE_URL)
+            .add("Title", PROP_TITLE)
+            .add("WebTemplate", PROP_WEB_TEMPLATE)
+            .add("WebTemplateId", PROP_WEB_TEMPLATE_ID)
+            .add("SiteLogoUrl", PROP_SITE_LOGO_URL);
+    // [End] 23626
+
     /**
      * Instantiates a new site info.
      */
@@ -38,8 +69,8 @@ public class SiteInfo {
     }
 
     SiteInfo(InputStream inputStream) throws XMLStreamException, ParseException {
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+        // 23626: Use the configured factory of the thread
+        XMLStreamReader reader = XmlReaderFactory.createXMLStreamReader(inputStream);
 
         parse(reader);
     }
@@ -49,55 +80,19 @@ public class SiteInfo {
     }
 
     private void parse(XMLStreamReader reader) throws XMLStreamException, ParseException {
+        // 23626: Record the parse if it takes longer than the threshold
+        long lStart = System.nanoTime();
         while (reader.hasNext()) {
-            if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("properties") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+            if (PropertyDispatcher.isStartElement(reader, "properties", PropertyDispatcher.NS_METADATA)) {
                 while (reader.hasNext()) {
-                    if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Configuration") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            configuration = Integer.parseInt(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Created") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            createdTime = Util.parseDate(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Description") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        description = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Id") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        id = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Language") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            language = Locale.getInstance(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("LastItemModifiedDate") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            lastItemModifiedTime = Util.parseDate(stringValue);
-                        }
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("ServerRelativeUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        serverRelativeUrl = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("Title") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        title = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("WebTemplate") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        webTemplate = reader.getElementText();
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("WebTemplateId") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        String stringValue = reader.getElementText();
-
-                        if (stringValue != null && stringValue.length() > 0) {
-                            webTemplateId = Integer.parseInt(stringValue);
-                        }
-                    // [Start] 23626: Added siteLogoUrl for support on backup and restore
-                    } else if (reader.isStartElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("SiteLogoUrl") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices")) {
-                        siteLogoUrl = reader.getElementText();
+                    // [Start] 23626: Dispatch the properties by one namespace check and one lookup
+                    int property = PROPERTIES.getProperty(reader);
+                    if (property != PropertyDispatcher.UNKNOWN) {
+                        setProperty(property, reader.getElementText());
                     }
                     // [End] 23626
-                        if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("properties") && reader.getNamespaceURI().equals("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata")) {
+
+                    if (PropertyDispatcher.isEndElement(reader, "properties", PropertyDispatcher.NS_METADATA)) {
                         break;
                     } else {
                         reader.next();
@@ -105,13 +100,88 @@ public class SiteInfo {
                 }
             }
 
-            if (reader.isEndElement() && reader.getLocalName() != null && reader.getNamespaceURI() != null && reader.getLocalName().equals("entry") && reader.getNamespaceURI().equals("http://www.w3.org/2005/Atom")) {
+            if (PropertyDispatcher.isEndElement(reader, "entry", PropertyDispatcher.NS_ATOM)) {
                 break;
             } else {
                 reader.next();
             }
         }
+        EventRecorder.recordParse("SiteInfo.parse", null, lStart);
+    }
+
+    // [Start] 23626: Set a property from the element text in Atom or the value in JSON
+    private void setProperty(int property, String value) throws ParseException {
+        switch (property) {
+            case PROP_CONFIGURATION: {
+                if (value != null && value.length() > 0) {
+                    configuration = Integer.parseInt(value);
+                }
+                break;
+            }
+            case PROP_CREATED: {
+                if (value != null && value.length() > 0) {
+                    createdTime = Util.parseDate(value);
+                }
+                break;
+            }
+            case PROP_DESCRIPTION:
+                description = value;
+                break;
+            case PROP_ID:
+                id = value;
+                break;
+            case PROP_LANGUAGE: {
+                if (value != null && value.length() > 0) {
+                    language = Locale.getInstance(value);
+                }
+                break;
+            }
+            case PROP_LAST_ITEM_MODIFIED_DATE: {
+                if (value != null && value.length() > 0) {
+                    lastItemModifiedTime = Util.parseDate(value);
+                }
+                break;
+            }
+            case PROP_SERVER_RELATIVE_URL:
+                serverRelativeUrl = value;
+                break;
+            case PROP_TITLE:
+                title = value;
+                break;
+            case PROP_WEB_TEMPLATE:
+                webTemplate = value;
+                break;
+            case PROP_WEB_TEMPLATE_ID: {
+                if (value != null && value.length() > 0) {
+                    webTemplateId = Integer.parseInt(value);
+                }
+                break;
+            }
+            case PROP_SITE_LOGO_URL:
+                siteLogoUrl = value;
+                break;
+        }
+    }
+
+    /**
+     * Populates the site info from an entity of a JSON light (odata=nometadata) response.
+     */
+    void parseJson(JsonReader reader) throws IOException, ParseException {
+        long lStart = System.nanoTime();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int property = PROPERTIES.getProperty(reader.nextName());
+            JsonReader.Token token = reader.peek();
+            if (property == PropertyDispatcher.UNKNOWN || token == JsonReader.Token.BEGIN_OBJECT || token == JsonReader.Token.BEGIN_ARRAY) {
+                reader.skipValue();
+            } else {
+                setProperty(property, reader.nextString());
+            }
+        }
+        reader.endObject();
+        EventRecorder.recordParse("SiteInfo.parseJson", null, lStart);
     }
+    // [End] 23626
 
     /**
      * Gets the configuration.
@@ -0,0 +1,401 @@
+package com.independentsoft.share;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Concurrency limit shared by all threads sending requests to the same tenant (host). The limit is
+ *              increased by one per window of successful requests and halved when the tenant throttles (429 / 503),
+ *              and no request is sent until the Retry-After of the last throttled response is over. Requests over
+ *              the limit wait in the queue instead of each thread sleeping and retrying on its own.
+ *
+ * Date        Task  Author            Changes
+ * 2019-10-27 23626  jefferson.brigino Created
+ * 2019-11-13 23626  jefferson.brigino Record the throttled responses to EventRecorder
+ * 2019-11-15 23626  jefferson.brigino Added to set the limits of a tenant
+ * 2019-11-16 23626  jefferson.brigino Keep the state of the request of the current thread across its retries in the queue
+ * 2019-11-16 23626  jefferson.brigino Added to get the limits of the tenant
+ */
+public class ThrottleController {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 32;
+    // wait time when the server throttles without Retry-After
+    private static final long DEFAULT_RETRY_AFTER_MS = 5000;
+    // throttled responses of the requests already in flight when the limit is decreased do not decrease it again
+    private static final long DECREASE_INTERVAL_MS = 1000;
+
+    private static final ConcurrentMap<String, ThrottleController> mController = new ConcurrentHashMap<String, ThrottleController>();
+    private static final ThreadLocal<Request> current = new ThreadLocal<Request>();
+
+    /**
+     * State of the request sent by the current thread under the limit of a controller, kept across its retries in the
+     * queue.
+     */
+    private static class Request {
+
+        private final ThrottleController controller;
+        private final boolean bQueueRetry;
+        private int iQueueRetryCount;
+        // the throttled response of this attempt is given back to the queue by Service.Callback, ServiceInstance is
+        // told not to retry it
+        private boolean bHandedOver;
+        // the last failure of this attempt seen by Service.Callback is a throttled response counted already
+        private boolean bLastCounted;
+
+        private Request(ThrottleController controller, boolean bQueueRetry) {
+            this.controller = controller;
+            this.bQueueRetry = bQueueRetry;
+        }
+    }
+
+    private final String host;
+    private int minLimit;
+    private int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int queueDepth;
+    private long blockedUntil;
+    private long lastDecrease;
+    private long throttledCount;
+    private long requestCount;
+
+    public ThrottleController(String host, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limit, min=" + minLimit + ", initial=" + initialLimit + ", max=" + maxLimit);
+        }
+        this.host = host;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Gets the controller shared by all requests to the host of the site url.
+     *
+     * @param siteUrl the site url
+     * @return the controller of the host
+     */
+    public static ThrottleController getInstance(String siteUrl) {
+        if (siteUrl == null) {
+            throw new IllegalArgumentException("siteUrl");
+        }
+        String sHost = getHost(siteUrl);
+        ThrottleController controller = mController.get(sHost);
+        if (controller == null) {
+            controller = new ThrottleController(sHost, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+            ThrottleController existing = mController.putIfAbsent(sHost, controller);
+            if (existing != null) {
+                controller = existing;
+            }
+        }
+        return controller;
+    }
+
+    /**
+     * Sets the limits of the tenant, e.g. to allow as many requests in flight as the threads of a backup node.
+     *
+     * @param minLimit the lowest limit after throttled
+     * @param maxLimit the highest limit after successful requests
+     */
+    public void setLimits(int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limit, min=" + minLimit + ", max=" + maxLimit);
+        }
+        lock.lock();
+        try {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the controller holding a slot for the request sent by the current thread, or null
+     */
+    static ThrottleController getCurrent() {
+        Request request = current.get();
+        return request == null ? null : request.controller;
+    }
+
+    /**
+     * @return true if a throttled request of the current thread is retried by waiting in the queue of the controller,
+     * false if it is retried by the retry policy of the callback
+     */
+    static boolean isQueueRetry() {
+        Request request = current.get();
+        return request != null && request.bQueueRetry;
+    }
+
+    static void setCurrent(ThrottleController controller, boolean bQueueRetry) {
+        if (controller == null) {
+            current.remove();
+        } else {
+            current.set(new Request(controller, bQueueRetry));
+        }
+    }
+
+    /**
+     * @return number of times the request of the current thread has been retried in the queue
+     */
+    static int getQueueRetryCount() {
+        Request request = current.get();
+        return request == null ? 0 : request.iQueueRetryCount;
+    }
+
+    /**
+     * Starts the next attempt of the request of the current thread after waiting in the queue again.
+     */
+    static void addQueueRetry() {
+        Request request = current.get();
+        if (request != null) {
+            request.iQueueRetryCount++;
+            request.bHandedOver = false;
+            request.bLastCounted = false;
+        }
+    }
+
+    /**
+     * Marks the throttled response of the current attempt to be retried in the queue, as ServiceInstance is told not
+     * to retry it.
+     */
+    static void handOver() {
+        Request request = current.get();
+        if (request != null && request.bQueueRetry) {
+            request.bHandedOver = true;
+        }
+    }
+
+    /**
+     * @return true if the throttled response of the current attempt is handed over to the queue, false if it is
+     * retried by the retry policy of the callback, which has given up already
+     */
+    static boolean isHandedOver() {
+        Request request = current.get();
+        return request != null && request.bHandedOver;
+    }
+
+    /**
+     * @param bCounted true if the failure just seen by Service.Callback is a throttled response counted by it
+     */
+    static void setLastCounted(boolean bCounted) {
+        Request request = current.get();
+        if (request != null) {
+            request.bLastCounted = bCounted;
+        }
+    }
+
+    /**
+     * @return true if the last failure of the current attempt is counted by Service.Callback already. A callback
+     * overriding the retry policy without calling Service.Callback leaves it false, the failure thrown is counted by
+     * Service instead.
+     */
+    static boolean isLastCounted() {
+        Request request = current.get();
+        return request != null && request.bLastCounted;
+    }
+
+    public static boolean isThrottled(Throwable t) {
+        if (!(t instanceof ServiceException)) {
+            return false;
+        }
+        int iStatusCode = ((ServiceException) t).getStatusCode();
+        return iStatusCode == 429 || iStatusCode == 503;
+    }
+
+    /**
+     * Waits until a slot is free and the tenant is not blocked by Retry-After.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            queueDepth++;
+            try {
+                while (true) {
+                    long lWait = blockedUntil - System.currentTimeMillis();
+                    if (lWait <= 0 && inFlight < (int) limit) {
+                        break;
+                    }
+                    if (lWait > 0) {
+                        available.await(lWait, TimeUnit.MILLISECONDS);
+                    } else {
+                        available.await();
+                    }
+                }
+            } finally {
+                queueDepth--;
+            }
+            inFlight++;
+            requestCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the slot acquired.
+     *
+     * @param bSuccess true if the request is successful, to increase the limit
+     */
+    public void release(boolean bSuccess) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (bSuccess && limit < maxLimit) {
+                // additive increase: about one more slot after a full window of successful requests
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a throttled response: halves the limit and blocks the tenant until Retry-After is over.
+     *
+     * @param e the exception of the throttled response
+     */
+    public void onThrottled(ServiceException e) {
+        long lNow = System.currentTimeMillis();
+        long lRetryAfterMs = e.getRetryAfter() > 0 ? e.getRetryAfter() * 1000L : DEFAULT_RETRY_AFTER_MS;
+        if (EventRecorder.isEnabled()) {
+            RequestMetrics metrics = RequestMetrics.getCurrent();
+            EventRecorder.record(EventRecorder.Type.THROTTLED, metrics == null ? null : metrics.getOperation(),
+                    metrics == null ? host : metrics.getSiteUrl(), 0, e.getRetryAfter());
+        }
+        lock.lock();
+        try {
+            throttledCount++;
+            blockedUntil = Math.max(blockedUntil, lNow + lRetryAfterMs);
+            if (lNow - lastDecrease >= DECREASE_INTERVAL_MS) {
+                limit = Math.max(minLimit, limit / 2);
+                lastDecrease = lNow;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        lock.lock();
+        try {
+            return minLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest number of requests in flight to the tenant, e.g. to size the pool of AsyncService
+     */
+    public int getMaxLimit() {
+        lock.lock();
+        try {
+            return maxLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of requests waiting for a slot
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getThrottledCount() {
+        lock.lock();
+        try {
+            return throttledCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRequestCount() {
+        lock.lock();
+        try {
+            return requestCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the time in ms until the tenant is unblocked, or 0 if not blocked
+     */
+    public long getBlockedTime() {
+        lock.lock();
+        try {
+            return Math.max(0, blockedUntil - System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ThrottleController{host=" + host +
+                ", limit=" + getLimit() +
+                ", inFlight=" + getInFlight() +
+                ", queueDepth=" + getQueueDepth() +
+                ", throttled=" + getThrottledCount() +
+                ", requests=" + getRequestCount() +
+                '}';
+    }
+
+    private static String getHost(String siteUrl) {
+        try {
+            String sHost = new URI(siteUrl).getHost();
+            if (sHost != null) {
+                return sHost.toLowerCase();
+            }
+        } catch (Exception e) {
+        }
+        return siteUrl;
+    }
+}
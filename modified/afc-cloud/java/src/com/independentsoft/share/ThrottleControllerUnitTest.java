@@ -0,0 +1,150 @@
+package com.independentsoft.share;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Behavior test of ThrottleController: the requests over the limit wait in the queue, the limit is
+ *              halved once per throttled burst and blocks the tenant until Retry-After, it is increased again by the
+ *              successful requests, and the limits of the tenant are applied. Run by main(), it throws on the first
+ *              failed check.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-16 23626  jefferson.brigino Created
+ */
+public class ThrottleControllerUnitTest {
+
+    public static void main(String[] args) throws Exception {
+        testLimit();
+        testThrottled();
+        testIncrease();
+        testSetLimits();
+        testInstance();
+        System.out.println("[ThrottleControllerUnitTest] All tests passed");
+    }
+
+    private static void testLimit() throws Exception {
+        final ThrottleController controller = new ThrottleController("contoso.sharepoint.com", 2, 1, 4);
+        controller.acquire();
+        controller.acquire();
+        check(controller.getInFlight() == 2, "Two slots acquired");
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    controller.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        check(!acquired.await(200, TimeUnit.MILLISECONDS), "Request over the limit waits");
+        check(controller.getQueueDepth() == 1, "Waiting request is in the queue, " + controller.getQueueDepth());
+
+        controller.release(false);
+        check(acquired.await(2, TimeUnit.SECONDS), "Waiting request gets the released slot");
+        thread.join();
+        check(controller.getQueueDepth() == 0 && controller.getInFlight() == 2, "Queue is empty, two in flight");
+        check(controller.getRequestCount() == 3, "Three requests, " + controller.getRequestCount());
+        controller.release(true);
+        controller.release(true);
+        check(controller.getInFlight() == 0, "All slots released");
+    }
+
+    private static void testThrottled() throws Exception {
+        ThrottleController controller = new ThrottleController("contoso.sharepoint.com", 8, 1, 16);
+        controller.onThrottled(new ThrottledServiceException(429, 1));
+        check(controller.getLimit() == 4, "Limit is halved, " + controller.getLimit());
+        check(controller.getBlockedTime() > 0, "Tenant is blocked until Retry-After");
+        check(controller.getThrottledCount() == 1, "Throttled response counted");
+
+        // the other responses of the same burst do not halve the limit again
+        controller.onThrottled(new ThrottledServiceException(503, 1));
+        check(controller.getLimit() == 4, "Limit is halved once per burst, " + controller.getLimit());
+        check(controller.getThrottledCount() == 2, "Both throttled responses counted");
+
+        long lStart = System.currentTimeMillis();
+        controller.acquire();
+        long lWaited = System.currentTimeMillis() - lStart;
+        check(lWaited >= 500, "Request waits for Retry-After, waited " + lWaited + "ms");
+        controller.release(true);
+
+        check(ThrottleController.isThrottled(new ThrottledServiceException(429, 0)), "429 is throttled");
+        check(ThrottleController.isThrottled(new ThrottledServiceException(503, 0)), "503 is throttled");
+        check(!ThrottleController.isThrottled(new ThrottledServiceException(500, 0)), "500 is not throttled");
+        check(!ThrottleController.isThrottled(new RuntimeException()), "Other exception is not throttled");
+    }
+
+    private static void testIncrease() throws Exception {
+        ThrottleController controller = new ThrottleController("contoso.sharepoint.com", 2, 1, 3);
+        for (int i = 0; i < 10; i++) {
+            controller.acquire();
+            controller.release(false);
+        }
+        check(controller.getLimit() == 2, "Failed requests do not increase the limit, " + controller.getLimit());
+        for (int i = 0; i < 10; i++) {
+            controller.acquire();
+            controller.release(true);
+        }
+        check(controller.getLimit() == 3, "Successful requests increase the limit up to max, " + controller.getLimit());
+    }
+
+    private static void testSetLimits() {
+        ThrottleController controller = new ThrottleController("contoso.sharepoint.com", 8, 1, 16);
+        controller.setLimits(2, 4);
+        check(controller.getMinLimit() == 2 && controller.getMaxLimit() == 4, "Limits are set");
+        check(controller.getLimit() == 4, "Limit is clamped to max, " + controller.getLimit());
+        controller.onThrottled(new ThrottledServiceException(429, 0));
+        check(controller.getLimit() == 2, "Limit is not below min, " + controller.getLimit());
+        try {
+            controller.setLimits(4, 2);
+            throw new IllegalStateException("Failed: min over max is rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void testInstance() {
+        ThrottleController controller = ThrottleController.getInstance("https://Contoso.SharePoint.com/sites/a");
+        check(controller == ThrottleController.getInstance("https://contoso.sharepoint.com/sites/b"),
+                "Sites of the same host share the controller");
+        check(controller != ThrottleController.getInstance("https://fabrikam.sharepoint.com"),
+                "Other host has its own controller");
+        check("contoso.sharepoint.com".equals(controller.getHost()), "Host is lower case, " + controller.getHost());
+    }
+
+    private static void check(boolean bCondition, String sMessage) {
+        if (!bCondition) {
+            throw new IllegalStateException("Failed: " + sMessage);
+        }
+    }
+
+    private static class ThrottledServiceException
+            extends ServiceException {
+
+        private final int iStatusCode;
+        private final int iRetryAfter;
+
+        private ThrottledServiceException(int iStatusCode, int iRetryAfter) {
+            super("HTTP " + iStatusCode, null);
+            this.iStatusCode = iStatusCode;
+            this.iRetryAfter = iRetryAfter;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return iStatusCode;
+        }
+
+        @Override
+        public int getRetryAfter() {
+            return iRetryAfter;
+        }
+    }
+}
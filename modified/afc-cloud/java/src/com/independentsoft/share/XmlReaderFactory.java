@@ -0,0 +1,61 @@
+package com.independentsoft.share;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+
+/*
+ * Copyright (c) 2019 Ahsay Systems Corporation Limited. All Rights Reserved.
+ *
+ * Description: Create the StAX readers of the responses from a configured XMLInputFactory kept per thread, instead
+ *              of looking up the factory implementation by XMLInputFactory.newInstance() on every parse. DTD and
+ *              external entities are disabled as the responses never use them.
+ *
+ * Date        Task  Author            Changes
+ * 2019-11-09 23626  jefferson.brigino Created
+ * 2019-11-15 23626  jefferson.brigino Added reader of a character stream
+ */
+public final class XmlReaderFactory {
+
+    // the factory is not guaranteed to be thread-safe by the StAX API, one per thread is created once and reused
+    private static final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+            setProperty(xmlInputFactory, XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            setProperty(xmlInputFactory, XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            setProperty(xmlInputFactory, XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+            setProperty(xmlInputFactory, XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            setProperty(xmlInputFactory, XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            return xmlInputFactory;
+        }
+    };
+
+    private XmlReaderFactory() {
+    }
+
+    /**
+     * @return the XMLInputFactory of the current thread, to be configured by no one else
+     */
+    public static XMLInputFactory getFactory() {
+        return factory.get();
+    }
+
+    public static XMLStreamReader createXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+        return factory.get().createXMLStreamReader(inputStream);
+    }
+
+    public static XMLStreamReader createXMLStreamReader(Reader reader) throws XMLStreamException {
+        return factory.get().createXMLStreamReader(reader);
+    }
+
+    private static void setProperty(XMLInputFactory xmlInputFactory, String name, Object value) {
+        try {
+            xmlInputFactory.setProperty(name, value);
+        } catch (IllegalArgumentException e) {
+            // not supported by the implementation, keep its default
+        }
+    }
+}